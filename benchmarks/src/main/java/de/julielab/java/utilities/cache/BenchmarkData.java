@@ -0,0 +1,80 @@
+package de.julielab.java.utilities.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Creates the keys and values used by the cache benchmarks.
+ */
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    static String[] createKeys(int numEntries) {
+        final String[] keys = new String[numEntries];
+        for (int i = 0; i < numEntries; i++)
+            keys[i] = "key" + i;
+        return keys;
+    }
+
+    /**
+     * @return Values of a few hundred bytes of the type handled by the given serializer.
+     */
+    static Object[] createValues(String serializer, int numEntries) {
+        final Object[] values = new Object[numEntries];
+        for (int i = 0; i < numEntries; i++)
+            values[i] = createValue(serializer, i);
+        return values;
+    }
+
+    private static Object createValue(String serializer, int i) {
+        switch (serializer) {
+            case CacheAccess.STRING:
+                return "value " + i + " " + "x".repeat(100);
+            case CacheAccess.BOOL:
+                return i % 2 == 0;
+            case CacheAccess.JAVA: {
+                final ArrayList<String> list = new ArrayList<>();
+                for (int j = 0; j < 10; j++)
+                    list.add("element " + i + "." + j);
+                return list;
+            }
+            case CacheAccess.BYTEARRAY: {
+                final byte[] bytes = new byte[256];
+                for (int j = 0; j < bytes.length; j++)
+                    bytes[j] = (byte) (i + j);
+                return bytes;
+            }
+            case CacheAccess.DOUBLEARRAY: {
+                final double[] doubles = new double[32];
+                for (int j = 0; j < doubles.length; j++)
+                    doubles[j] = i + j / 10d;
+                return doubles;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported cache serializer '" + serializer + "'.");
+        }
+    }
+
+    static Map<String, Object> toMap(String[] keys, Object[] values) {
+        final Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < keys.length; i++)
+            map.put(keys[i], values[i]);
+        return map;
+    }
+
+    static void deleteRecursively(File dir) throws IOException {
+        if (!dir.exists())
+            return;
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package de.julielab.java.utilities.cache;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures get and put of the {@link LocalFileCacheAccess} for each value serializer, map type, persistence type
+ * and with and without the in-memory front cache.</p>
+ * <p>The keys are drawn uniformly from the pre-populated entries. Thus, with the default parameters, about 10% of
+ * the gets can be served by the front cache when it is enabled.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalCacheBenchmark {
+    @Param({CacheAccess.STRING, CacheAccess.BOOL, CacheAccess.JAVA, CacheAccess.BYTEARRAY, CacheAccess.DOUBLEARRAY})
+    public String valueSerializer;
+    @Param({"HTREE", "BTREE"})
+    public CacheService.CacheMapDataType mapType;
+    @Param({"MEM", "DISC"})
+    public CacheService.CachePersistenceType persistenceType;
+    @Param({"0", "10000"})
+    public long memCacheSize;
+    @Param({"100000"})
+    public int numEntries;
+
+    private File cacheDir;
+    private CacheAccess<String, Object> cacheAccess;
+    private String[] keys;
+    private Object[] values;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cacheDir = Files.createTempDirectory("localcachebenchmark").toFile();
+        CacheService.initialize(new CacheConfiguration(CacheService.CacheType.LOCAL, cacheDir, null, 0, false));
+        final CacheMapSettings settings = new CacheMapSettings(CacheMapSettings.MAP_TYPE, mapType, CacheMapSettings.PERSIST_TYPE, persistenceType, CacheMapSettings.MEM_CACHE_SIZE, memCacheSize);
+        cacheAccess = CacheService.getInstance().getCacheAccess("benchmark", "LocalCacheBenchmark", CacheAccess.STRING, valueSerializer, settings);
+        keys = BenchmarkData.createKeys(numEntries);
+        values = BenchmarkData.createValues(valueSerializer, numEntries);
+        cacheAccess.putAll(BenchmarkData.toMap(keys, values));
+        cacheAccess.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        CacheService.shutdown();
+        BenchmarkData.deleteRecursively(cacheDir);
+    }
+
+    @Benchmark
+    public Object get() {
+        return cacheAccess.get(keys[ThreadLocalRandom.current().nextInt(numEntries)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object get4Threads() {
+        return get();
+    }
+
+    @Benchmark
+    public boolean put() {
+        final int i = ThreadLocalRandom.current().nextInt(numEntries);
+        return cacheAccess.put(keys[i], values[i]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean put4Threads() {
+        return put();
+    }
+}
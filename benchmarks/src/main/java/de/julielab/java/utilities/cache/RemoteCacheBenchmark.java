@@ -0,0 +1,93 @@
+package de.julielab.java.utilities.cache;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures get and put of the {@link RemoteCacheAccess} against a {@link CacheServer} running in the same JVM and
+ * connected via the loopback interface. Together with {@link LocalCacheBenchmark}, this shows the cost of the network
+ * protocol compared to local caching.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RemoteCacheBenchmark {
+    @Param({CacheAccess.STRING, CacheAccess.BOOL, CacheAccess.JAVA, CacheAccess.BYTEARRAY, CacheAccess.DOUBLEARRAY})
+    public String valueSerializer;
+    @Param({"0", "10000"})
+    public long memCacheSize;
+    @Param({"100000"})
+    public int numEntries;
+
+    private File cacheDir;
+    private CacheServer cacheServer;
+    private CacheAccess<String, Object> cacheAccess;
+    private String[] keys;
+    private Object[] values;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cacheDir = Files.createTempDirectory("remotecachebenchmark").toFile();
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        cacheServer = new CacheServer(cacheDir, "localhost", port);
+        cacheServer.runInBackground();
+        final RemoteCacheAccess<String, Object> remoteCacheAccess = new RemoteCacheAccess<>("benchmark", "RemoteCacheBenchmark", CacheAccess.STRING, valueSerializer, "localhost", port, memCacheSize);
+        // The server socket is bound asynchronously by the background thread
+        for (int i = 0; ; i++) {
+            try {
+                remoteCacheAccess.establishConnection();
+                break;
+            } catch (IllegalArgumentException e) {
+                if (i == 50)
+                    throw e;
+                Thread.sleep(100);
+            }
+        }
+        cacheAccess = remoteCacheAccess;
+        keys = BenchmarkData.createKeys(numEntries);
+        values = BenchmarkData.createValues(valueSerializer, numEntries);
+        cacheAccess.putAll(BenchmarkData.toMap(keys, values));
+        cacheAccess.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        RemoteCacheConnectionPool.closeAll();
+        cacheServer.shutdown();
+        BenchmarkData.deleteRecursively(cacheDir);
+    }
+
+    @Benchmark
+    public Object get() {
+        return cacheAccess.get(keys[ThreadLocalRandom.current().nextInt(numEntries)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object get4Threads() {
+        return get();
+    }
+
+    @Benchmark
+    public boolean put() {
+        final int i = ThreadLocalRandom.current().nextInt(numEntries);
+        return cacheAccess.put(keys[i], values[i]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean put4Threads() {
+        return put();
+    }
+}
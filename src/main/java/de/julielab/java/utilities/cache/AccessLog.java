@@ -0,0 +1,92 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.serializer.GroupSerializer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>A small file listing the most frequently and recently used keys of a cache region, written at the end of a run
+ * so that the next run can warm up its in-memory front cache with these keys, see {@link CacheAccess#warmUp(long)}.</p>
+ * <p>The file contains the number of keys followed by the keys serialized with the key serializer of the region, each
+ * prefixed by its length. It is written to a temporary file first and then moved into place, so a crash never leaves
+ * a partially written log.</p>
+ */
+class AccessLog<K> {
+    private final File file;
+    private final GroupSerializer<K> keySerializer;
+    private final int size;
+
+    /**
+     * @param file          The log file.
+     * @param keySerializer The key serializer of the region.
+     * @param size          The maximum number of keys to record.
+     */
+    AccessLog(File file, GroupSerializer<K> keySerializer, int size) {
+        this.file = file;
+        this.keySerializer = keySerializer;
+        this.size = size;
+    }
+
+    /**
+     * @param dir         The directory of the log files.
+     * @param cacheId     The cache ID of the region.
+     * @param cacheRegion The region name.
+     * @param qualifier   Distinguishes logs of the same region, e.g. the cache server, or <tt>null</tt>.
+     * @return The log file of the region.
+     */
+    static File getFile(File dir, String cacheId, String cacheRegion, String qualifier) {
+        String name = cacheId + "." + cacheRegion;
+        if (qualifier != null)
+            name += "." + qualifier;
+        return new File(dir, name.replaceAll("[^\\w.-]", "_") + ".accesslog");
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Replaces the log with the given keys.
+     *
+     * @param keys The keys to record, the most important first. Only the first {@link #getSize()} keys are written.
+     */
+    void write(List<K> keys) throws IOException {
+        final int numKeys = Math.min(size, keys.size());
+        final DataOutput2 out = new DataOutput2();
+        out.packInt(numKeys);
+        for (int i = 0; i < numKeys; i++)
+            CacheProtocol.writeBytes(out, CacheProtocol.serialize(keySerializer, keys.get(i)));
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists())
+            parent.mkdirs();
+        final File tmpFile = new File(parent, file.getName() + ".tmp");
+        Files.write(tmpFile.toPath(), out.copyBytes());
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return The recorded keys, the most important first. Empty if there is no log.
+     */
+    List<K> read() throws IOException {
+        if (!file.exists())
+            return Collections.emptyList();
+        final DataInput2.ByteArray in = new DataInput2.ByteArray(Files.readAllBytes(file.toPath()));
+        final int numKeys = in.unpackInt();
+        final List<K> keys = new ArrayList<>(Math.min(numKeys, size));
+        for (int i = 0; i < numKeys; i++)
+            keys.add(CacheProtocol.deserialize(keySerializer, in, in.unpackInt()));
+        return keys;
+    }
+}
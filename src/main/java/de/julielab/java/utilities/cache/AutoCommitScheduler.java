@@ -0,0 +1,156 @@
+package de.julielab.java.utilities.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * <p>Commits cache files in a background thread after a time interval or a number of written entries, see
+ * {@link CacheMapSettings#AUTO_COMMIT_INTERVAL} and {@link CacheMapSettings#AUTO_COMMIT_DIRTY_ENTRIES}.</p>
+ * <p>The regions of a cache file register with the file's {@link FileCommits} and report the number of entries they
+ * write. Only this counter is maintained on the write path; a commit is scheduled when the first entry has been written
+ * since the last commit or when the threshold of written entries is reached. Before committing, each registered region
+ * writes the data it buffers in memory, e.g. the entries of its write-behind buffer, to the cache file. When multiple
+ * regions of the same file give different settings, the shortest interval and the smallest threshold apply.</p>
+ */
+class AutoCommitScheduler {
+    private final static Logger log = LoggerFactory.getLogger(AutoCommitScheduler.class);
+    private final Map<File, FileCommits> files = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+    private final Consumer<File> committer;
+
+    /**
+     * @param committer The function performing the actual commit of a file.
+     */
+    AutoCommitScheduler(Consumer<File> committer) {
+        this.committer = committer;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "AutoCommitScheduler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Registers a region of a cache file for automatic commits.
+     *
+     * @param dbFile          The cache file.
+     * @param preparer        Writes the data buffered by the region to the cache file, called before each commit.
+     * @param intervalMillis  If positive, the maximum time in milliseconds between the first write after a commit
+     *                        and the next commit.
+     * @param dirtyThreshold  If positive, the number of written entries that trigger a commit.
+     * @return The object to report the writes of the region to.
+     */
+    FileCommits register(File dbFile, Runnable preparer, long intervalMillis, long dirtyThreshold) {
+        final FileCommits fileCommits = files.computeIfAbsent(dbFile, FileCommits::new);
+        fileCommits.addRegion(preparer, intervalMillis, dirtyThreshold);
+        return fileCommits;
+    }
+
+    /**
+     * Stops the automatic commits. A commit that is running is finished, pending commits are dropped because the
+     * caches are committed on shutdown anyway.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES))
+                log.warn("A running automatic commit did not finish within one minute.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The automatic commit state of a single cache file.
+     */
+    class FileCommits {
+        private final File dbFile;
+        private final List<Runnable> preparers = new CopyOnWriteArrayList<>();
+        private final AtomicLong dirtyEntries = new AtomicLong();
+        private volatile long intervalMillis;
+        private volatile long dirtyThreshold;
+        private volatile ScheduledFuture<?> pendingCommit;
+        /**
+         * The {@link System#nanoTime()} at which {@link #pendingCommit} runs.
+         */
+        private volatile long pendingCommitTime;
+
+        private FileCommits(File dbFile) {
+            this.dbFile = dbFile;
+        }
+
+        private synchronized void addRegion(Runnable preparer, long intervalMillis, long dirtyThreshold) {
+            preparers.add(preparer);
+            if (intervalMillis > 0 && (this.intervalMillis <= 0 || intervalMillis < this.intervalMillis))
+                this.intervalMillis = intervalMillis;
+            if (dirtyThreshold > 0 && (this.dirtyThreshold <= 0 || dirtyThreshold < this.dirtyThreshold))
+                this.dirtyThreshold = dirtyThreshold;
+        }
+
+        /**
+         * Removes a region, e.g. because it has been closed. The commit settings of the file are kept.
+         */
+        void unregister(Runnable preparer) {
+            preparers.remove(preparer);
+        }
+
+        /**
+         * Reports written entries and schedules a commit if necessary.
+         *
+         * @param numEntries The number of entries written.
+         */
+        void recordWrites(int numEntries) {
+            final long dirty = dirtyEntries.addAndGet(numEntries);
+            final long threshold = dirtyThreshold;
+            if (threshold > 0 && dirty >= threshold)
+                scheduleCommit(0);
+            else if (intervalMillis > 0)
+                scheduleCommit(intervalMillis);
+        }
+
+        private void scheduleCommit(long delayMillis) {
+            final long commitTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            // A pending commit that runs early enough also covers this request
+            if (pendingCommit != null && pendingCommitTime - commitTime <= 0)
+                return;
+            synchronized (this) {
+                if (pendingCommit != null) {
+                    if (pendingCommitTime - commitTime <= 0)
+                        return;
+                    pendingCommit.cancel(false);
+                }
+                try {
+                    pendingCommitTime = commitTime;
+                    pendingCommit = executor.schedule(this::commit, delayMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    log.debug("Cannot schedule a commit of {} because the scheduler has been shut down.", dbFile);
+                }
+            }
+        }
+
+        private void commit() {
+            synchronized (this) {
+                pendingCommit = null;
+            }
+            // Entries written from now on are covered by the next commit
+            final long dirty = dirtyEntries.getAndSet(0);
+            if (dirty == 0)
+                return;
+            try {
+                log.trace("Committing {} entries written to cache file {}", dirty, dbFile);
+                for (Runnable preparer : preparers)
+                    preparer.run();
+                committer.accept(dbFile);
+            } catch (Throwable t) {
+                log.error("Could not commit cache file {} automatically", dbFile, t);
+            }
+        }
+    }
+}
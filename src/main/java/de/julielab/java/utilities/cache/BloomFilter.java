@@ -0,0 +1,120 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A Bloom filter over serialized keys. It answers whether a key might have been added or has definitely not been
+ * added. The filter never forgets a key, so removed or expired entries of the cache remain false positives.</p>
+ * <p>The bit positions are derived from the 64 bit MurmurHash of the key split into two 32 bit hashes (Kirsch and
+ * Mitzenmacher). Adding and querying keys is thread-safe and lock-free.</p>
+ */
+class BloomFilter {
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int numHashFunctions;
+
+    private BloomFilter(long[] bits, int numHashFunctions) {
+        this.bits = new AtomicLongArray(bits);
+        this.numBits = (long) bits.length * Long.SIZE;
+        this.numHashFunctions = numHashFunctions;
+    }
+
+    /**
+     * Creates a filter with the optimal number of bits and hash functions for the given number of keys and false
+     * positive probability. When more keys are added, the false positive probability increases.
+     *
+     * @param expectedEntries           The number of keys expected to be added.
+     * @param falsePositiveProbability The desired probability that the filter reports an absent key as present.
+     * @return A new, empty filter.
+     */
+    static BloomFilter create(long expectedEntries, double falsePositiveProbability) {
+        if (expectedEntries < 1)
+            throw new IllegalArgumentException("The expected number of entries must be positive but was " + expectedEntries + ".");
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1)
+            throw new IllegalArgumentException("The false positive probability must be between 0 and 1 exclusively but was " + falsePositiveProbability + ".");
+        final long numBits = getNumBits(expectedEntries, falsePositiveProbability);
+        return new BloomFilter(new long[(int) ((numBits + Long.SIZE - 1) / Long.SIZE)], getNumHashFunctions(expectedEntries, numBits));
+    }
+
+    private static long getNumBits(long expectedEntries, double falsePositiveProbability) {
+        final long numBits = (long) Math.ceil(-expectedEntries * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        if (numBits > (long) Integer.MAX_VALUE * Long.SIZE)
+            throw new IllegalArgumentException("A Bloom filter for " + expectedEntries + " entries with false positive probability " + falsePositiveProbability + " is too large.");
+        return Math.max(Long.SIZE, numBits);
+    }
+
+    private static int getNumHashFunctions(long expectedEntries, long numBits) {
+        return Math.max(1, (int) Math.round((double) numBits / expectedEntries * Math.log(2)));
+    }
+
+    /**
+     * Restores a filter written by {@link #toBytes()}.
+     */
+    static BloomFilter fromBytes(byte[] bytes) throws IOException {
+        final DataInput2 in = new DataInput2.ByteArray(bytes);
+        final int numHashFunctions = in.unpackInt();
+        final long[] bits = new long[in.unpackInt()];
+        for (int i = 0; i < bits.length; i++)
+            bits[i] = in.readLong();
+        return new BloomFilter(bits, numHashFunctions);
+    }
+
+    byte[] toBytes() throws IOException {
+        final DataOutput2 out = new DataOutput2();
+        out.packInt(numHashFunctions);
+        out.packInt(bits.length());
+        for (int i = 0; i < bits.length(); i++)
+            out.writeLong(bits.get(i));
+        return out.copyBytes();
+    }
+
+    /**
+     * @return Whether this filter has the size that {@link #create(long, double)} would choose for the given
+     * parameters.
+     */
+    boolean hasParameters(long expectedEntries, double falsePositiveProbability) {
+        final long expectedNumBits = getNumBits(expectedEntries, falsePositiveProbability);
+        return bits.length() == (expectedNumBits + Long.SIZE - 1) / Long.SIZE && numHashFunctions == getNumHashFunctions(expectedEntries, expectedNumBits);
+    }
+
+    void add(byte[] key) {
+        final long hash = ConsistentHashRing.murmurHash64A(key);
+        final int hash1 = (int) hash;
+        final int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashFunctions; i++) {
+            final long bit = getBitIndex(hash1, hash2, i);
+            final int index = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+            long word;
+            while (((word = bits.get(index)) & mask) == 0 && !bits.compareAndSet(index, word, word | mask)) {
+                // Retry, another bit of the same word has been set concurrently
+            }
+        }
+    }
+
+    /**
+     * @return <tt>false</tt> if the key has definitely not been added, <tt>true</tt> if it might have been added.
+     */
+    boolean mightContain(byte[] key) {
+        final long hash = ConsistentHashRing.murmurHash64A(key);
+        final int hash1 = (int) hash;
+        final int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashFunctions; i++) {
+            final long bit = getBitIndex(hash1, hash2, i);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    private long getBitIndex(int hash1, int hash2, int i) {
+        long combinedHash = hash1 + (long) i * hash2;
+        if (combinedHash < 0)
+            combinedHash = ~combinedHash;
+        return combinedHash % numBits;
+    }
+}
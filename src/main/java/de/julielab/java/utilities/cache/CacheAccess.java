@@ -1,43 +1,288 @@
 package de.julielab.java.utilities.cache;
 
-import org.mapdb.Serializer;
 import org.mapdb.serializer.GroupSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public abstract class CacheAccess<K, V> {
     public static final String STRING = "string";
+    /**
+     * UTF-8 strings whose common prefixes are stored only once in the nodes of BTree regions. Saves space for keys
+     * sharing long prefixes, e.g. URIs or hierarchical identifiers.
+     */
+    public static final String STRING_DELTA = "stringdelta";
     public static final String BOOL = "bool";
     public static final String JAVA = "java";
     public static final String BYTEARRAY = "bytearray";
     public static final String DOUBLEARRAY = "doublearray";
+    public static final String FLOATARRAY = "floatarray";
+    public static final String LONGARRAY = "longarray";
+    public static final String INTEGER = "integer";
+    public static final String LONG = "long";
+    private final static Logger log = LoggerFactory.getLogger(CacheAccess.class);
+    /**
+     * The number of keys loaded at once during {@link #warmUp(Collection, long)}. The time budget is checked between
+     * the batches.
+     */
+    private static final int WARM_UP_BATCH_SIZE = 100;
     protected String cacheId;
     protected String cacheRegion;
+    protected final CacheMetrics metrics;
+    private AccessLog<K> accessLog;
+    /**
+     * The running computations of {@link #getOrCompute(Object, Function)} by key.
+     */
+    private final Map<K, CompletableFuture<V>> computations = new ConcurrentHashMap<>();
 
     public CacheAccess(String cacheId, String cacheRegion) {
         this.cacheId = cacheId;
         this.cacheRegion = cacheRegion;
+        this.metrics = CacheMetrics.getMetrics(cacheId, cacheRegion);
     }
 
+    /**
+     * @param name The name of a serializer registered with the {@link SerializerRegistry}, e.g. one of the constants
+     *             of this class.
+     * @return The serializer with the given name.
+     * @throws IllegalArgumentException If there is no serializer with this name.
+     */
     public static <T> GroupSerializer<T> getSerializerByName(String name) {
-        switch (name.toLowerCase()) {
-            case STRING:
-                return (GroupSerializer<T>) Serializer.STRING;
-            case BOOL:
-                return (GroupSerializer<T>) Serializer.BOOLEAN;
-            case JAVA:
-                return Serializer.JAVA;
-            case BYTEARRAY:
-                return (GroupSerializer<T>) Serializer.BYTE_ARRAY;
-            case DOUBLEARRAY:
-                return (GroupSerializer<T>) Serializer.DOUBLE_ARRAY;
-            default:
-                throw new IllegalArgumentException("Unsupported cache serializer '" + name + "'.");
+        return SerializerRegistry.get(name);
+    }
+
+    /**
+     * @return The usage statistics of the cache region accessed by this object. Only collected if enabled, see
+     * {@link CacheMetrics}.
+     */
+    public CacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Enables the access log if {@link CacheMapSettings#ACCESS_LOG_SIZE} is set. Called by the constructors of
+     * implementations that have a front cache.
+     *
+     * @param keySerializer The key serializer of the region.
+     * @param mapSettings   The settings of the region.
+     * @param defaultDir    The directory of the log if {@link CacheMapSettings#ACCESS_LOG_DIR} is not set.
+     * @param qualifier     Distinguishes the logs of multiple accesses to the same region, see
+     *                      {@link AccessLog#getFile(File, String, String, String)}.
+     */
+    void initAccessLog(GroupSerializer<K> keySerializer, Map<String, Object> mapSettings, File defaultDir, String qualifier) {
+        final int size = ((Number) mapSettings.getOrDefault(CacheMapSettings.ACCESS_LOG_SIZE, 0)).intValue();
+        if (size <= 0)
+            return;
+        final File dir = (File) mapSettings.getOrDefault(CacheMapSettings.ACCESS_LOG_DIR, defaultDir);
+        if (dir == null) {
+            log.warn("Cache {}:{}: An access log size is given but no directory for the log. The access log is disabled.", cacheId, cacheRegion);
+            return;
         }
+        accessLog = new AccessLog<>(AccessLog.getFile(dir, cacheId, cacheRegion, qualifier), keySerializer, size);
+    }
+
+    /**
+     * Returns the most valuable keys of the in-memory front cache for the access log. The default implementation
+     * returns an empty list for implementations without a front cache.
+     *
+     * @param n The maximum number of keys to return.
+     * @return The keys accessed most frequently and recently, the most valuable first.
+     */
+    protected List<K> getHottestKeys(int n) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Writes the most frequently and recently used keys of the front cache to the access log, if enabled by
+     * {@link CacheMapSettings#ACCESS_LOG_SIZE}. Called for all cache accesses by {@link CacheService#shutdown()}.
+     */
+    public void writeAccessLog() {
+        if (accessLog == null)
+            return;
+        try {
+            accessLog.write(getHottestKeys(accessLog.getSize()));
+        } catch (IOException e) {
+            log.error("Could not write the access log {} of cache {}:{}.", accessLog.getFile(), cacheId, cacheRegion, e);
+        }
+    }
+
+    /**
+     * Preloads the front cache in the background with the keys recorded in the access log of a previous run, see
+     * {@link CacheMapSettings#ACCESS_LOG_SIZE}.
+     *
+     * @param budgetMillis The maximum time in milliseconds to spend on loading values.
+     * @return A future that is completed with the number of loaded values.
+     */
+    public CompletableFuture<Integer> warmUp(long budgetMillis) {
+        if (accessLog == null)
+            return CompletableFuture.completedFuture(0);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return accessLog.read();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, CacheService.getInstance().getAsyncExecutor()).thenCompose(keys -> warmUp(keys, budgetMillis)).exceptionally(e -> {
+            log.error("Could not warm up cache {}:{} from the access log {}.", cacheId, cacheRegion, accessLog.getFile(), e);
+            return 0;
+        });
+    }
+
+    /**
+     * <p>Preloads the front cache in the background with the values of the given keys.</p>
+     * <p>The keys are loaded in batches in the given order until all keys are loaded or the time budget is used
+     * up, so the most important keys should come first. Keys without a value are ignored.</p>
+     *
+     * @param keys         The keys to load.
+     * @param budgetMillis The maximum time in milliseconds to spend on loading values.
+     * @return A future that is completed with the number of loaded values.
+     */
+    public CompletableFuture<Integer> warmUp(Collection<? extends K> keys, long budgetMillis) {
+        final List<K> keyList = new ArrayList<>(keys);
+        return CompletableFuture.supplyAsync(() -> {
+            final long startTime = System.nanoTime();
+            final long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+            int loaded = 0;
+            int i = 0;
+            for (; i < keyList.size() && System.nanoTime() - deadline < 0; i += WARM_UP_BATCH_SIZE)
+                loaded += getAll(keyList.subList(i, Math.min(i + WARM_UP_BATCH_SIZE, keyList.size()))).size();
+            log.info("Cache {}:{}: Warmed up with {} values for {} of {} keys in {}ms.", cacheId, cacheRegion, loaded, Math.min(i, keyList.size()), keyList.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            return loaded;
+        }, CacheService.getInstance().getAsyncExecutor());
     }
 
     public abstract V get(K key);
 
     public abstract boolean put(K key, V value);
 
+    /**
+     * <p>Returns the cached value for <tt>key</tt> or, if there is none, computes it with <tt>loader</tt> and puts
+     * it into the cache.</p>
+     * <p>Only one thread computes the value of a key at a time; other threads requesting the same key meanwhile wait
+     * for and return its result. If the computation fails, the waiting threads receive the same exception. For remote
+     * caches, the cache server additionally makes sure that only one client computes a missing value while the other
+     * clients wait, see {@link CacheProtocol#OP_GET_OR_LOCK}. Keys are compared with <tt>equals</tt>, so array keys
+     * are only coalesced within a JVM if they are the same object.</p>
+     *
+     * @param key    The key to look up.
+     * @param loader Computes the value if it is missing. May return <tt>null</tt> if there is no value, which is not
+     *               cached.
+     * @return The cached or computed value.
+     */
+    public V getOrCompute(K key, Function<? super K, ? extends V> loader) {
+        final V value = get(key);
+        if (value != null)
+            return value;
+        final CompletableFuture<V> computation = new CompletableFuture<>();
+        final CompletableFuture<V> runningComputation = computations.putIfAbsent(key, computation);
+        if (runningComputation != null) {
+            try {
+                return runningComputation.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw e;
+            }
+        }
+        try {
+            final V computedValue = computeAndPut(key, loader);
+            computation.complete(computedValue);
+            return computedValue;
+        } catch (RuntimeException | Error e) {
+            computation.completeExceptionally(e);
+            throw e;
+        } finally {
+            computations.remove(key, computation);
+        }
+    }
+
+    /**
+     * <p>Computes a missing value and puts it into the cache. Called by {@link #getOrCompute(Object, Function)} in only
+     * one thread per key at a time.</p>
+     * <p>The default implementation looks the key up once more, since another thread might have put the value in
+     * the meantime, and otherwise calls the loader. Implementations that can coordinate the computation with other
+     * processes override this method.</p>
+     */
+    protected V computeAndPut(K key, Function<? super K, ? extends V> loader) {
+        V value = get(key);
+        if (value == null) {
+            value = loader.apply(key);
+            if (value != null)
+                put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * <p>Returns the cached values for all given keys. Keys without a cached value are not contained in the
+     * returned map.</p>
+     * <p>The default implementation calls {@link #get(Object)} for each key. Implementations should override this
+     * method if they can retrieve multiple values more efficiently, e.g. in a single network round trip.</p>
+     *
+     * @param keys The keys to look up.
+     * @return A map from the given keys to their cached values.
+     */
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        final Map<K, V> ret = new HashMap<>();
+        for (K key : keys) {
+            final V value = get(key);
+            if (value != null)
+                ret.put(key, value);
+        }
+        return ret;
+    }
+
+    /**
+     * <p>Puts all given entries into the cache.</p>
+     * <p>The default implementation calls {@link #put(Object, Object)} for each entry. Implementations should
+     * override this method if they can store multiple values more efficiently.</p>
+     *
+     * @param entries The entries to cache.
+     * @return <tt>true</tt> if all entries could be stored, <tt>false</tt> otherwise.
+     */
+    public boolean putAll(Map<? extends K, ? extends V> entries) {
+        boolean success = true;
+        for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet())
+            success &= put(entry.getKey(), entry.getValue());
+        return success;
+    }
+
+    /**
+     * <p>Retrieves the value for <tt>key</tt> without blocking the calling thread, if supported by the
+     * implementation.</p>
+     * <p>The default implementation performs {@link #get(Object)} synchronously and returns a completed future.</p>
+     *
+     * @param key The key to look up.
+     * @return A future that is completed with the cached value or with <tt>null</tt> if there is none.
+     */
+    public CompletableFuture<V> getAsync(K key) {
+        return CompletableFuture.completedFuture(get(key));
+    }
+
+    /**
+     * <p>Stores the given value without blocking the calling thread, if supported by the implementation. The
+     * returned future can be ignored for fire-and-forget writes; failures are logged by the implementations.</p>
+     * <p>The default implementation performs {@link #put(Object, Object)} synchronously and returns a completed
+     * future.</p>
+     *
+     * @param key   The key to store the value for.
+     * @param value The value to cache.
+     * @return A future that is completed with the result that {@link #put(Object, Object)} would have returned.
+     */
+    public CompletableFuture<Boolean> putAsync(K key, V value) {
+        return CompletableFuture.completedFuture(put(key, value));
+    }
+
     public abstract boolean isReadOnly();
 
     public abstract boolean isClosed();
@@ -1,11 +1,15 @@
 package de.julielab.java.utilities.cache;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 
 public class CacheConfiguration {
     private final File localCacheDir;
     private final String remoteCacheHost;
     private final int remoteCachePort;
+    private final List<CacheNode> remoteCacheNodes;
+    private final ConsistentHashRing.HashFunction hashFunction;
     private final boolean readOnly;
     private final CacheService.CacheType cacheType;
 
@@ -14,6 +18,42 @@ public class CacheConfiguration {
         this.localCacheDir = localCacheDir;
         this.remoteCacheHost = remoteCacheHost;
         this.remoteCachePort = remoteCachePort;
+        this.remoteCacheNodes = remoteCacheHost != null ? List.of(new CacheNode(remoteCacheHost, remoteCachePort)) : Collections.emptyList();
+        this.hashFunction = ConsistentHashRing.HashFunction.MURMUR64;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Configures remote caching with the keys of each cache region distributed over multiple cache servers.
+     *
+     * @param cacheType        The cache type, normally {@link CacheService.CacheType#REMOTE} or {@link CacheService.CacheType#TIERED}.
+     * @param localCacheDir    The directory for local caches.
+     * @param remoteCacheNodes The cache servers to distribute the keys over.
+     * @param readOnly         Whether the caches are only read.
+     */
+    public CacheConfiguration(CacheService.CacheType cacheType, File localCacheDir, List<CacheNode> remoteCacheNodes, boolean readOnly) {
+        this(cacheType, localCacheDir, remoteCacheNodes, ConsistentHashRing.HashFunction.MURMUR64, readOnly);
+    }
+
+    /**
+     * Configures remote caching with the keys of each cache region distributed over multiple cache servers.
+     *
+     * @param cacheType        The cache type, normally {@link CacheService.CacheType#REMOTE} or {@link CacheService.CacheType#TIERED}.
+     * @param localCacheDir    The directory for local caches.
+     * @param remoteCacheNodes The cache servers to distribute the keys over.
+     * @param hashFunction     The hash function of the {@link ConsistentHashRing} assigning keys to servers. All clients
+     *                         of the same servers must use the same function.
+     * @param readOnly         Whether the caches are only read.
+     */
+    public CacheConfiguration(CacheService.CacheType cacheType, File localCacheDir, List<CacheNode> remoteCacheNodes, ConsistentHashRing.HashFunction hashFunction, boolean readOnly) {
+        if (remoteCacheNodes.isEmpty())
+            throw new IllegalArgumentException("At least one cache server must be given.");
+        this.cacheType = cacheType;
+        this.localCacheDir = localCacheDir;
+        this.remoteCacheHost = remoteCacheNodes.get(0).getHost();
+        this.remoteCachePort = remoteCacheNodes.get(0).getPort();
+        this.remoteCacheNodes = List.copyOf(remoteCacheNodes);
+        this.hashFunction = hashFunction;
         this.readOnly = readOnly;
     }
 
@@ -25,14 +65,28 @@ public class CacheConfiguration {
         return localCacheDir;
     }
 
+    /**
+     * @return The host of the remote cache server or the first server if there are multiple.
+     */
     public String getRemoteCacheHost() {
         return remoteCacheHost;
     }
 
+    /**
+     * @return The port of the remote cache server or the first server if there are multiple.
+     */
     public int getRemoteCachePort() {
         return remoteCachePort;
     }
 
+    public List<CacheNode> getRemoteCacheNodes() {
+        return remoteCacheNodes;
+    }
+
+    public ConsistentHashRing.HashFunction getHashFunction() {
+        return hashFunction;
+    }
+
     public boolean isReadOnly() {
         return readOnly;
     }
@@ -7,10 +7,120 @@ public class CacheMapSettings extends HashMap<String, Object> {
     public static final String MAP_TYPE = "mapType";
 
     /**
-     * This is not an actual DBMap setting but only used by the {@link CacheService} to create an in-memory cache
-     * for fast access which uses the persistent cache on disc as overflow store.
+     * This is not an actual DBMap setting but only used by the {@link CacheAccess} implementations to create an
+     * on-heap front cache of deserialized objects for fast access. The value is the maximum number of entries. The
+     * {@link LocalFileCacheAccess} objects of a region share one front cache that is created with the settings of the
+     * first access.
      */
     public static final String MEM_CACHE_SIZE = "memCacheSize";
+    /**
+     * Not an actual DBMap setting. Bounds the front cache by the estimated heap size of its keys and values in bytes
+     * instead of the number of entries. Takes precedence over {@link #MEM_CACHE_SIZE}.
+     */
+    public static final String MEM_CACHE_MAX_WEIGHT = "memCacheMaxWeight";
+    /**
+     * Not an actual DBMap setting. When set to a positive number, the {@link LocalFileCacheAccess} buffers puts in
+     * memory and writes them to the cache map in a background thread. The value is the maximum number of distinct
+     * keys buffered; further puts block until the buffered entries have been written. The buffer is shared by all
+     * accesses to the region in the JVM and created with the settings of the first one.
+     */
+    public static final String WRITE_BEHIND_QUEUE_SIZE = "writeBehindQueueSize";
+    /**
+     * Not an actual DBMap setting. The maximum number of buffered entries written to the cache map at once when
+     * {@link #WRITE_BEHIND_QUEUE_SIZE} is set. Defaults to 1000.
+     */
+    public static final String WRITE_BEHIND_BATCH_SIZE = "writeBehindBatchSize";
+    /**
+     * Not an actual DBMap setting. When <tt>true</tt>, a {@link TieredCacheAccess} writes puts to the cache server in
+     * the background instead of waiting for the server. The local cache file is always written synchronously.
+     * Defaults to <tt>false</tt>.
+     */
+    public static final String REMOTE_WRITE_BEHIND = "remoteWriteBehind";
+    /**
+     * Not an actual DBMap setting. The time in milliseconds after which the lock on a missing key that a
+     * {@link RemoteCacheAccess} obtains from the cache server in {@link CacheAccess#getOrCompute(Object, java.util.function.Function)}
+     * expires, so other clients stop waiting for a client that does not finish the computation. Defaults to one
+     * minute.
+     */
+    public static final String COMPUTE_LOCK_TIMEOUT = "computeLockTimeout";
+    /**
+     * Not an actual DBMap setting. When set to a positive number, the {@link CacheService} commits the cache file of a
+     * local region in a background thread at the latest this many milliseconds after the first write since the last
+     * commit. Thus, written entries become durable without explicit calls to {@link CacheAccess#commit()}.
+     */
+    public static final String AUTO_COMMIT_INTERVAL = "autoCommitInterval";
+    /**
+     * Not an actual DBMap setting. When set to a positive number, the {@link CacheService} commits the cache file of a
+     * local region in a background thread as soon as this many entries have been written to the regions of the file
+     * since the last commit. Can be combined with {@link #AUTO_COMMIT_INTERVAL}.
+     */
+    public static final String AUTO_COMMIT_DIRTY_ENTRIES = "autoCommitDirtyEntries";
+    /**
+     * Not an actual DBMap setting. The maximum number of keys remembered as missing from the cache so that repeated
+     * lookups of these keys are answered without accessing the persistent cache or the cache server. Defaults to 0,
+     * i.e. disabled.
+     */
+    public static final String NEGATIVE_CACHE_SIZE = "negativeCacheSize";
+    /**
+     * Not an actual DBMap setting. The time in milliseconds after which a key remembered as missing is looked up
+     * again, see {@link #NEGATIVE_CACHE_SIZE}. Defaults to one minute.
+     */
+    public static final String NEGATIVE_CACHE_TTL = "negativeCacheTtl";
+    /**
+     * Not an actual DBMap setting. When set to a positive number, the {@link LocalFileCacheAccess} maintains a Bloom
+     * filter over the keys of the region that answers most lookups of missing keys without accessing the persistent
+     * cache. The value is the expected number of keys in the region. The filter is stored in the cache file.
+     */
+    public static final String BLOOM_FILTER_EXPECTED_ENTRIES = "bloomFilterExpectedEntries";
+    /**
+     * Not an actual DBMap setting. The false positive probability of the Bloom filter, see
+     * {@link #BLOOM_FILTER_EXPECTED_ENTRIES}. Defaults to 0.01.
+     */
+    public static final String BLOOM_FILTER_FPP = "bloomFilterFpp";
+    /**
+     * Not an actual DBMap setting. When set to a positive number, the given number of the most frequently and
+     * recently used keys of the front cache are written to an access log file when the {@link CacheService} is shut
+     * down. The next run can then preload these keys into the front cache, see {@link #WARM_UP_BUDGET}.
+     */
+    public static final String ACCESS_LOG_SIZE = "accessLogSize";
+    /**
+     * Not an actual DBMap setting. The directory of the access log files, see {@link #ACCESS_LOG_SIZE}. Defaults to
+     * the local cache directory of the {@link CacheConfiguration}.
+     */
+    public static final String ACCESS_LOG_DIR = "accessLogDir";
+    /**
+     * Not an actual DBMap setting. When set to a positive number, the {@link CacheService} starts to preload the keys
+     * of the access log into the front cache in the background right after creating the {@link CacheAccess}. The value
+     * is the maximum time in milliseconds spent on the preload.
+     */
+    public static final String WARM_UP_BUDGET = "warmUpBudget";
+    /**
+     * Not an actual DBMap setting. The number of dimensions of the vectors stored in a region of type
+     * {@link CacheService.CacheMapDataType#VECTOR}. Required for this map type.
+     */
+    public static final String VECTOR_DIMENSION = "vectorDimension";
+    /**
+     * Not an actual DBMap setting. The {@link VectorCacheAccess.Precision} of the vectors stored in a region of type
+     * {@link CacheService.CacheMapDataType#VECTOR}. Defaults to {@link VectorCacheAccess.Precision#FLOAT}.
+     */
+    public static final String VECTOR_PRECISION = "vectorPrecision";
+    /**
+     * Not an actual DBMap setting. When set to a Deflate compression level from 1 (fastest) to 9 (smallest), the
+     * serialized values of the region are stored compressed. Small values are stored uncompressed, see
+     * {@link #VALUE_COMPRESSION_THRESHOLD}. The setting must be the same each time the region is opened.
+     */
+    public static final String VALUE_COMPRESSION_LEVEL = "valueCompressionLevel";
+    /**
+     * Not an actual DBMap setting. The minimum size in bytes of a serialized value to be compressed, see
+     * {@link #VALUE_COMPRESSION_LEVEL}. Defaults to 256.
+     */
+    public static final String VALUE_COMPRESSION_THRESHOLD = "valueCompressionThreshold";
+    /**
+     * Not an actual DBMap setting. A byte array used as preset dictionary for the value compression, see
+     * {@link #VALUE_COMPRESSION_LEVEL}. Typical content of the values, e.g. frequent JSON field names, improves the
+     * compression of small values. The same dictionary must be given each time the region is opened.
+     */
+    public static final String VALUE_COMPRESSION_DICTIONARY = "valueCompressionDictionary";
 
     // HTree settings
     public static final String MAX_SIZE = "maxSize";
@@ -38,7 +148,7 @@ public class CacheMapSettings extends HashMap<String, Object> {
             if (i % 2 == 1) {
                 String key = (String) settings[i - 1];
                 Object value = settings[i];
-                if (value instanceof Integer && (key.equals(MEM_CACHE_SIZE) || key.equals(MAX_SIZE) || key.equals(MAX_STORE_SIZE) || key.equals(EXPIRE_AFTER_CREATE) || key.equals(EXPIRE_AFTER_GET) || key.equals(EXPIRE_AFTER_UPDATE) || key.equals(EXPIRE_EXECUTOR_PERIOD))) {
+                if (value instanceof Integer && (key.equals(MEM_CACHE_SIZE) || key.equals(MEM_CACHE_MAX_WEIGHT) || key.equals(NEGATIVE_CACHE_SIZE) || key.equals(NEGATIVE_CACHE_TTL) || key.equals(BLOOM_FILTER_EXPECTED_ENTRIES) || key.equals(WARM_UP_BUDGET) || key.equals(AUTO_COMMIT_INTERVAL) || key.equals(AUTO_COMMIT_DIRTY_ENTRIES) || key.equals(COMPUTE_LOCK_TIMEOUT) || key.equals(MAX_SIZE) || key.equals(MAX_STORE_SIZE) || key.equals(EXPIRE_AFTER_CREATE) || key.equals(EXPIRE_AFTER_GET) || key.equals(EXPIRE_AFTER_UPDATE) || key.equals(EXPIRE_EXECUTOR_PERIOD))) {
                     long longVal = (int) value;
                     value = longVal;
                 }
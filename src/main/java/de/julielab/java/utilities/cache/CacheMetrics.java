@@ -0,0 +1,311 @@
+package de.julielab.java.utilities.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Usage statistics of a cache region, shared by all {@link CacheAccess} objects of the JVM that access the same
+ * cache ID and region.</p>
+ * <p>Metrics are only collected when the Java system property {@link #METRICS_ENABLED_PROP} is set to
+ * <tt>true</tt> at the time the cache access is created. Then, the metrics of each region are also registered as
+ * MBean with the platform MBean server under the name
+ * <tt>de.julielab.java.utilities.cache:type=CacheMetrics,cacheId=&lt;cacheId&gt;,region=&lt;region&gt;</tt>.
+ * Otherwise, all cache accesses share a disabled instance whose recording methods return immediately without even
+ * reading the clock.</p>
+ * <p>A get is a front cache hit if the value was found in the in-memory front cache or the write-behind buffer. A
+ * backing store hit is a value that had to be read from the persistent cache or the cache server.</p>
+ */
+public class CacheMetrics implements CacheMetricsMXBean {
+    public static final String METRICS_ENABLED_PROP = "de.julielab.java.utilities.cache.metrics.enabled";
+    public static final String JMX_DOMAIN = "de.julielab.java.utilities.cache";
+    private final static Logger log = LoggerFactory.getLogger(CacheMetrics.class);
+    private static final CacheMetrics DISABLED = new CacheMetrics(null, null, false);
+    private static final Map<String, CacheMetrics> metrics = new ConcurrentHashMap<>();
+    private final String cacheId;
+    private final String cacheRegion;
+    private final boolean enabled;
+    private final LongAdder gets = new LongAdder();
+    private final LongAdder frontCacheHits = new LongAdder();
+    private final LongAdder backingStoreHits = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder frontCacheEvictions = new LongAdder();
+    private final LongAdder writeBehindWrites = new LongAdder();
+    private final LongAdder negativeCacheHits = new LongAdder();
+    private final LongAdder bloomFilterRejections = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LatencyHistogram getLatency = new LatencyHistogram();
+    private final LatencyHistogram putLatency = new LatencyHistogram();
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+
+    private CacheMetrics(String cacheId, String cacheRegion, boolean enabled) {
+        this.cacheId = cacheId;
+        this.cacheRegion = cacheRegion;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return The metrics of the given cache region or a disabled instance if metrics are not enabled.
+     */
+    public static CacheMetrics getMetrics(String cacheId, String cacheRegion) {
+        if (!Boolean.getBoolean(METRICS_ENABLED_PROP))
+            return DISABLED;
+        return metrics.computeIfAbsent(cacheId + '\u0000' + cacheRegion, k -> {
+            final CacheMetrics regionMetrics = new CacheMetrics(cacheId, cacheRegion, true);
+            registerMBean(regionMetrics, "type=CacheMetrics,cacheId=" + ObjectName.quote(cacheId) + ",region=" + ObjectName.quote(cacheRegion));
+            return regionMetrics;
+        });
+    }
+
+    /**
+     * @return The metrics of all cache regions accessed so far while metrics were enabled.
+     */
+    public static Collection<CacheMetrics> getAllMetrics() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    static void registerMBean(Object mbean, String properties) {
+        try {
+            final ObjectName name = new ObjectName(JMX_DOMAIN + ":" + properties);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+        } catch (JMException e) {
+            log.warn("Could not register cache metrics with JMX under the name {}:{}", JMX_DOMAIN, properties, e);
+        }
+    }
+
+    static void unregisterMBean(String properties) {
+        try {
+            final ObjectName name = new ObjectName(JMX_DOMAIN + ":" + properties);
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            log.debug("Could not unregister cache metrics from JMX under the name {}:{}", JMX_DOMAIN, properties, e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The current {@link System#nanoTime()} if metrics are enabled, <tt>0</tt> otherwise.
+     */
+    long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void recordGet(long startTime, boolean frontCacheHit, boolean hit) {
+        if (!enabled)
+            return;
+        getLatency.record(System.nanoTime() - startTime);
+        recordGets(1, frontCacheHit ? 1 : 0, hit && !frontCacheHit ? 1 : 0);
+    }
+
+    /**
+     * Records the outcome of a batch lookup. The latency of batch lookups is not recorded because it is not
+     * comparable to the latency of single lookups.
+     */
+    void recordGets(int numKeys, int numFrontCacheHits, int numBackingStoreHits) {
+        if (!enabled)
+            return;
+        gets.add(numKeys);
+        frontCacheHits.add(numFrontCacheHits);
+        backingStoreHits.add(numBackingStoreHits);
+    }
+
+    void recordPut(long startTime) {
+        if (!enabled)
+            return;
+        putLatency.record(System.nanoTime() - startTime);
+        puts.increment();
+    }
+
+    /**
+     * Records a batch put. Like for {@link #recordGets(int, int, int)}, the latency is not recorded.
+     */
+    void recordPuts(int numEntries) {
+        if (enabled)
+            puts.add(numEntries);
+    }
+
+    void recordCommit(long startTime) {
+        if (!enabled)
+            return;
+        commitLatency.record(System.nanoTime() - startTime);
+        commits.increment();
+    }
+
+    void recordFrontCacheEviction() {
+        if (enabled)
+            frontCacheEvictions.increment();
+    }
+
+    void recordWriteBehindWrites(int numEntries) {
+        if (enabled)
+            writeBehindWrites.add(numEntries);
+    }
+
+    void recordNegativeCacheHit() {
+        if (enabled)
+            negativeCacheHits.increment();
+    }
+
+    void recordBloomFilterRejection() {
+        if (enabled)
+            bloomFilterRejections.increment();
+    }
+
+    void recordBytesSent(int numBytes) {
+        if (enabled)
+            bytesSent.add(numBytes);
+    }
+
+    void recordBytesReceived(int numBytes) {
+        if (enabled)
+            bytesReceived.add(numBytes);
+    }
+
+    @Override
+    public String getCacheId() {
+        return cacheId;
+    }
+
+    @Override
+    public String getCacheRegion() {
+        return cacheRegion;
+    }
+
+    @Override
+    public long getGets() {
+        return gets.sum();
+    }
+
+    @Override
+    public long getFrontCacheHits() {
+        return frontCacheHits.sum();
+    }
+
+    @Override
+    public long getBackingStoreHits() {
+        return backingStoreHits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return Math.max(0, getGets() - getFrontCacheHits() - getBackingStoreHits());
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long numGets = getGets();
+        return numGets == 0 ? 0 : (getFrontCacheHits() + getBackingStoreHits()) / (double) numGets;
+    }
+
+    @Override
+    public double getFrontCacheHitRatio() {
+        final long numGets = getGets();
+        return numGets == 0 ? 0 : getFrontCacheHits() / (double) numGets;
+    }
+
+    @Override
+    public long getPuts() {
+        return puts.sum();
+    }
+
+    @Override
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    @Override
+    public long getFrontCacheEvictions() {
+        return frontCacheEvictions.sum();
+    }
+
+    @Override
+    public long getWriteBehindWrites() {
+        return writeBehindWrites.sum();
+    }
+
+    @Override
+    public long getNegativeCacheHits() {
+        return negativeCacheHits.sum();
+    }
+
+    @Override
+    public long getBloomFilterRejections() {
+        return bloomFilterRejections.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public LatencyHistogram getGetLatency() {
+        return getLatency;
+    }
+
+    public LatencyHistogram getPutLatency() {
+        return putLatency;
+    }
+
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    @Override
+    public double getGetLatencyMeanMicros() {
+        return getLatency.getMeanMicros();
+    }
+
+    @Override
+    public double getGetLatency99thPercentileMicros() {
+        return getLatency.getPercentileMicros(99);
+    }
+
+    @Override
+    public double getPutLatencyMeanMicros() {
+        return putLatency.getMeanMicros();
+    }
+
+    @Override
+    public double getPutLatency99thPercentileMicros() {
+        return putLatency.getPercentileMicros(99);
+    }
+
+    @Override
+    public double getCommitLatencyMeanMicros() {
+        return commitLatency.getMeanMicros();
+    }
+
+    @Override
+    public double getCommitLatency99thPercentileMicros() {
+        return commitLatency.getPercentileMicros(99);
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder counter : new LongAdder[]{gets, frontCacheHits, backingStoreHits, puts, commits, frontCacheEvictions, writeBehindWrites, negativeCacheHits, bloomFilterRejections, bytesSent, bytesReceived})
+            counter.reset();
+        getLatency.reset();
+        putLatency.reset();
+        commitLatency.reset();
+    }
+}
@@ -0,0 +1,52 @@
+package de.julielab.java.utilities.cache;
+
+/**
+ * The JMX view of the {@link CacheMetrics} of a cache region. Latencies are given in microseconds.
+ */
+public interface CacheMetricsMXBean {
+    String getCacheId();
+
+    String getCacheRegion();
+
+    long getGets();
+
+    long getFrontCacheHits();
+
+    long getBackingStoreHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    double getFrontCacheHitRatio();
+
+    long getPuts();
+
+    long getCommits();
+
+    long getFrontCacheEvictions();
+
+    long getWriteBehindWrites();
+
+    long getNegativeCacheHits();
+
+    long getBloomFilterRejections();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    double getGetLatencyMeanMicros();
+
+    double getGetLatency99thPercentileMicros();
+
+    double getPutLatencyMeanMicros();
+
+    double getPutLatency99thPercentileMicros();
+
+    double getCommitLatencyMeanMicros();
+
+    double getCommitLatency99thPercentileMicros();
+
+    void reset();
+}
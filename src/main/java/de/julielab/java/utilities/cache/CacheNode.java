@@ -0,0 +1,84 @@
+package de.julielab.java.utilities.cache;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>The address of a {@link CacheServer} in a cluster of cache servers together with its share of the keys.</p>
+ * <p>The node may have read replicas, i.e. cache servers that receive the writes to this server by replication (see
+ * {@link CacheServer#addReplicationFollower(String, int)}). Reads are then distributed over this server and its
+ * replicas.</p>
+ */
+public class CacheNode {
+    private final String host;
+    private final int port;
+    private final int weight;
+    private final List<CacheNode> readReplicas;
+
+    public CacheNode(String host, int port) {
+        this(host, port, 1);
+    }
+
+    /**
+     * @param host   The host of the cache server.
+     * @param port   The port of the cache server.
+     * @param weight The relative share of keys stored on this server, e.g. 2 for a server with twice the capacity
+     *               of a server with weight 1.
+     */
+    public CacheNode(String host, int port, int weight) {
+        this(host, port, weight, Collections.emptyList());
+    }
+
+    /**
+     * @param host         The host of the cache server.
+     * @param port         The port of the cache server.
+     * @param weight       The relative share of keys stored on this server.
+     * @param readReplicas Cache servers following this server that may serve reads.
+     */
+    public CacheNode(String host, int port, int weight, List<CacheNode> readReplicas) {
+        if (weight < 1)
+            throw new IllegalArgumentException("The weight of cache node " + host + ":" + port + " must be positive but was " + weight + ".");
+        this.host = host;
+        this.port = port;
+        this.weight = weight;
+        this.readReplicas = List.copyOf(readReplicas);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public List<CacheNode> getReadReplicas() {
+        return readReplicas;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CacheNode cacheNode = (CacheNode) o;
+        return port == cacheNode.port && host.equals(cacheNode.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(host, port);
+    }
+
+    /**
+     * @return <tt>host:port</tt>, which also determines the position of the node on the {@link ConsistentHashRing}.
+     */
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
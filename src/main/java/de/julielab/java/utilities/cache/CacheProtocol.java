@@ -0,0 +1,280 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.serializer.GroupSerializer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static de.julielab.java.utilities.cache.CacheMapSettings.*;
+
+/**
+ * <p>Wire format shared by {@link CacheServer} and {@link RemoteCacheAccess}.</p>
+ * <p>Each message is sent as a frame consisting of a 4-byte big-endian length followed by the payload bytes. The
+ * framing allows the server to collect complete requests from non-blocking channels before handing them to a
+ * worker thread.</p>
+ * <p>The first byte of a request payload is the opcode. A connection starts with an {@link #OP_HELLO} request
+ * carrying {@link #MAGIC} and {@link #VERSION}. Then, each cache region is opened once via {@link #OP_OPEN} with the
+ * cache ID, region name, the serializer names and the settings of the region. The server responds with an integer handle that is used to refer
+ * to the region in all subsequent requests of the connection. Keys and values are encoded with the
+ * {@link GroupSerializer} of the region, see {@link CacheAccess#getSerializerByName(String)}.</p>
+ * <pre>
+ * HELLO:  opcode, int magic, byte version            -&gt; status, byte version
+ * OPEN:   opcode, UTF cacheId, UTF region,
+ *         UTF keySerializer, UTF valueSerializer,
+ *         boolean subscribe, settings               -&gt; status, packed int handle
+ * GET:    opcode, packed int handle, key            -&gt; status, value (if status is OK)
+ * PUT:    opcode, packed int handle,
+ *         packed int key length, key, value         -&gt; status
+ * COMMIT: opcode, packed int handle                -&gt; status
+ * GET_ALL: opcode, packed int handle, packed int n,
+ *         n times (packed int key length, key)      -&gt; status, packed int n,
+ *                                                      n times (boolean found,
+ *                                                      if found: packed int value length, value)
+ * PUT_ALL: opcode, packed int handle, packed int n,
+ *         n times (packed int key length, key,
+ *         packed int value length, value)           -&gt; status
+ * PING:   opcode                                    -&gt; status
+ * GET_OR_LOCK: opcode, packed int handle,
+ *         packed long lock timeout, key             -&gt; status, value (if status is OK)
+ *                                                      or boolean locked (if status is NOT_FOUND)
+ * UNLOCK: opcode, packed int handle, key            -&gt; status
+ * </pre>
+ * <p>GET_OR_LOCK supports {@link CacheAccess#getOrCompute(Object, java.util.function.Function)} across clients. If the
+ * key is missing, the client receives the lock for the key unless another client holds it. The client holding the
+ * lock computes the value and puts it, which releases the lock, or releases the lock with UNLOCK if it cannot compute
+ * the value. UNLOCK must be sent over the connection that has received the lock; it is ignored on other connections. Other clients repeat their request until the value has been put or they receive the lock. A lock expires
+ * after the timeout given in milliseconds or when the connection of the holder is closed. The server answers
+ * GET_OR_LOCK right away so that the other requests of the connection are not held up.</p>
+ * <p>The settings of OPEN are the subset {@link #REGION_SETTINGS} of the client's {@link CacheMapSettings} that
+ * determines how the server stores the region, e.g. its map type, size limits and expiration. They are encoded as
+ * packed int n, n times (UTF name, byte type, value), see {@link #writeRegionSettings(DataOutput2, Map)}. The
+ * settings only take effect when the region is opened for the first time since the start of the server, later opens
+ * share the region as it is.</p>
+ * <p>Clients may send further requests before the response to a previous request has been received. The server
+ * answers the requests of a connection in the order they were sent.</p>
+ * <p>A commit affects the whole cache file of the region, i.e. all regions with the same cache ID. The response is
+ * sent when the commit has been done.</p>
+ * <p>A response with status {@link #STATUS_FAILURE} carries an UTF error message. The connection stays usable
+ * after a failure.</p>
+ * <p>If a region has been opened with <tt>subscribe</tt> set, the server pushes invalidation messages to the
+ * connection when other connections write to the region. Push messages are frames like responses but are not
+ * answers to a request. They are recognized by their first byte:</p>
+ * <pre>
+ * INVALIDATE_KEYS:   push type, packed int handle, packed int n,
+ *                    n times (packed int key length, key)
+ * INVALIDATE_REGION: push type, packed int handle
+ * </pre>
+ * <p>A push may arrive at any time between responses. Region invalidations are sent for large batch writes instead
+ * of listing all keys.</p>
+ */
+final class CacheProtocol {
+    /**
+     * Upper bound for the payload size of a single frame. Protects the server from allocating huge buffers due to
+     * a corrupted or foreign stream.
+     */
+    static final int MAX_FRAME_LENGTH = 256 * 1024 * 1024;
+    /**
+     * The maximum number of entries a client puts into a single {@link #OP_GET_ALL} or {@link #OP_PUT_ALL} request.
+     * Larger batches are split into multiple pipelined requests.
+     */
+    static final int MAX_BATCH_SIZE = 1000;
+    /**
+     * The bytes 'JLCH'.
+     */
+    static final int MAGIC = 0x4A4C4348;
+    static final byte VERSION = 4;
+
+    static final byte OP_HELLO = 1;
+    static final byte OP_OPEN = 2;
+    static final byte OP_GET = 3;
+    static final byte OP_PUT = 4;
+    static final byte OP_COMMIT = 5;
+    static final byte OP_GET_ALL = 6;
+    static final byte OP_PUT_ALL = 7;
+    static final byte OP_PING = 8;
+    static final byte OP_GET_OR_LOCK = 9;
+    static final byte OP_UNLOCK = 10;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_NOT_FOUND = 1;
+    static final byte STATUS_FAILURE = 2;
+
+    static final byte PUSH_INVALIDATE_KEYS = 3;
+    static final byte PUSH_INVALIDATE_REGION = 4;
+    /**
+     * The maximum number of keys listed in a single {@link #PUSH_INVALIDATE_KEYS} message. Writes of more keys are
+     * pushed as {@link #PUSH_INVALIDATE_REGION}.
+     */
+    static final int MAX_INVALIDATION_KEYS = 100;
+    /**
+     * The {@link CacheMapSettings} that clients pass to the server when opening a region. All other settings only
+     * concern the client or cannot be transferred, like {@link CacheMapSettings#OVERFLOW_DB}.
+     */
+    static final List<String> REGION_SETTINGS = List.of(MAP_TYPE, MAX_SIZE, MAX_STORE_SIZE, EXPIRE_AFTER_CREATE, EXPIRE_AFTER_GET, EXPIRE_AFTER_UPDATE, EXPIRE_EXECUTOR_PERIOD, ENABLE_SIZE_COUNT, MAX_NODE_SIZE, VALUE_COMPRESSION_LEVEL, VALUE_COMPRESSION_THRESHOLD, VALUE_COMPRESSION_DICTIONARY);
+
+    private static final byte SETTING_LONG = 0;
+    private static final byte SETTING_INT = 1;
+    private static final byte SETTING_BOOLEAN = 2;
+    private static final byte SETTING_STRING = 3;
+    private static final byte SETTING_BYTES = 4;
+
+    private CacheProtocol() {
+    }
+
+    static void writeFrame(DataOutputStream out, DataOutput2 payload) throws IOException {
+        out.writeInt(payload.pos);
+        out.write(payload.buf, 0, payload.pos);
+    }
+
+    static byte[] readFrame(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        checkFrameLength(length);
+        final byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    static void checkFrameLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH)
+            throw new IOException("Invalid cache protocol frame length " + length + ".");
+    }
+
+    static <T> byte[] serialize(GroupSerializer<T> serializer, T object) throws IOException {
+        final DataOutput2 out = new DataOutput2();
+        serializer.serialize(out, object);
+        return out.copyBytes();
+    }
+
+    /**
+     * Deserializes an object from the next <tt>length</tt> bytes of <tt>in</tt> and positions <tt>in</tt> directly
+     * behind these bytes.
+     */
+    static <T> T deserialize(GroupSerializer<T> serializer, DataInput2 in, int length) throws IOException {
+        final int end = in.getPos() + length;
+        final T object = serializer.deserialize(in, length);
+        in.setPos(end);
+        return object;
+    }
+
+    /**
+     * Writes <tt>bytes</tt> with a packed length prefix.
+     */
+    static void writeBytes(DataOutput2 out, byte[] bytes) throws IOException {
+        out.packInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @return Whether the frame is a push message sent by the server on its own instead of a response to a request.
+     */
+    static boolean isPush(byte[] frame) {
+        return frame.length > 0 && (frame[0] == PUSH_INVALIDATE_KEYS || frame[0] == PUSH_INVALIDATE_REGION);
+    }
+
+    /**
+     * Reads the status byte of a response and throws an exception carrying the server's error message in case
+     * of a failure.
+     */
+    static byte readStatus(DataInput2 in) throws IOException {
+        final byte status = in.readByte();
+        if (status == STATUS_FAILURE)
+            throw new IllegalStateException("The cache server reported an error: " + in.readUTF());
+        return status;
+    }
+
+    /**
+     * @return The settings of <tt>mapSettings</tt> that are passed to the server when opening a region, see
+     * {@link #REGION_SETTINGS}.
+     */
+    static CacheMapSettings getRegionSettings(Map<String, Object> mapSettings) {
+        final CacheMapSettings regionSettings = new CacheMapSettings();
+        for (String setting : REGION_SETTINGS) {
+            final Object value = mapSettings.get(setting);
+            if (value != null)
+                regionSettings.put(setting, value);
+        }
+        return regionSettings;
+    }
+
+    /**
+     * Writes the region settings of an {@link #OP_OPEN} request. Enum values are written by their name.
+     *
+     * @throws IllegalArgumentException If a setting is not one of {@link #REGION_SETTINGS} or has a value type that
+     *                                  cannot be transferred.
+     */
+    static void writeRegionSettings(DataOutput2 out, Map<String, Object> regionSettings) throws IOException {
+        out.packInt(regionSettings.size());
+        for (Map.Entry<String, Object> setting : regionSettings.entrySet()) {
+            if (!REGION_SETTINGS.contains(setting.getKey()))
+                throw new IllegalArgumentException("The setting '" + setting.getKey() + "' cannot be passed to the cache server.");
+            final Object value = setting.getValue();
+            out.writeUTF(setting.getKey());
+            if (value instanceof Long) {
+                out.writeByte(SETTING_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(SETTING_INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(SETTING_BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof Enum) {
+                out.writeByte(SETTING_STRING);
+                out.writeUTF(((Enum<?>) value).name());
+            } else if (value instanceof String) {
+                out.writeByte(SETTING_STRING);
+                out.writeUTF((String) value);
+            } else if (value instanceof byte[]) {
+                out.writeByte(SETTING_BYTES);
+                writeBytes(out, (byte[]) value);
+            } else {
+                throw new IllegalArgumentException("The value of the setting '" + setting.getKey() + "' has the unsupported type " + (value == null ? null : value.getClass().getName()) + ".");
+            }
+        }
+    }
+
+    /**
+     * Reads the region settings written by {@link #writeRegionSettings(DataOutput2, Map)}. Settings unknown to this
+     * version are skipped.
+     */
+    static CacheMapSettings readRegionSettings(DataInput2 in) throws IOException {
+        final CacheMapSettings regionSettings = new CacheMapSettings();
+        final int numSettings = in.unpackInt();
+        for (int i = 0; i < numSettings; i++) {
+            final String name = in.readUTF();
+            final byte type = in.readByte();
+            Object value;
+            switch (type) {
+                case SETTING_LONG:
+                    value = in.readLong();
+                    break;
+                case SETTING_INT:
+                    value = in.readInt();
+                    break;
+                case SETTING_BOOLEAN:
+                    value = in.readBoolean();
+                    break;
+                case SETTING_STRING:
+                    value = in.readUTF();
+                    break;
+                case SETTING_BYTES:
+                    final byte[] bytes = new byte[in.unpackInt()];
+                    in.readFully(bytes);
+                    value = bytes;
+                    break;
+                default:
+                    throw new IOException("Unknown type " + type + " of the region setting '" + name + "'.");
+            }
+            if (name.equals(MAP_TYPE))
+                value = CacheService.CacheMapDataType.valueOf((String) value);
+            if (REGION_SETTINGS.contains(name))
+                regionSettings.put(name, value);
+        }
+        return regionSettings;
+    }
+}
@@ -0,0 +1,274 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.DB;
+import org.mapdb.serializer.GroupSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+
+import static de.julielab.java.utilities.cache.CacheMapSettings.MAP_TYPE;
+
+/**
+ * <p>Exports cache regions to a compact stream and imports them again, e.g. to move a region to another machine or
+ * to seed a new {@link CacheServer}.</p>
+ * <p>The export contains the entries of the region sorted by key and serialized with the region's serializers in
+ * deflate compressed blocks, see {@link RegionExportWriter}. The entries of BTree regions are already sorted. HTree
+ * regions are sorted in runs of bounded size that are written to temporary files in the directory of the cache file
+ * and merged.</p>
+ * <p>An import into a new BTree region builds the tree bottom-up from the sorted entries with the MapDB data pump
+ * instead of inserting the entries one by one. Imports into HTree regions, which have no bulk load path, or into
+ * existing regions put the entries in large batches. In both cases, the cache file is committed once at the end.</p>
+ * <p>Regions can also be exported to an immutable snapshot file that many JVMs can read concurrently, see
+ * {@link SnapshotCacheAccess}.</p>
+ * <p>The {@link CacheService} must be initialized. A cache file can only be opened by one JVM, so the transfer must not
+ * run while a cache server or another application uses the file.</p>
+ */
+public class CacheRegionTransfer {
+    private final static Logger log = LoggerFactory.getLogger(CacheRegionTransfer.class);
+    /**
+     * The estimated heap size in bytes of the entries sorted at once when exporting an HTree region.
+     */
+    private static final long SORT_RUN_SIZE = 256L << 20;
+    private static final int IMPORT_BATCH_SIZE = 10000;
+
+    private CacheRegionTransfer() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || !(((args[0].equals("export") || args[0].equals("snapshot")) && args.length == 7) || (args[0].equals("import") && args.length == 5))) {
+            System.err.println("Usage: " + CacheRegionTransfer.class.getSimpleName() + " export <cache file> <region> <key serializer> <value serializer> <BTREE|HTREE> <export file>");
+            System.err.println("       " + CacheRegionTransfer.class.getSimpleName() + " import <cache file> <region> <BTREE|HTREE> <export file>");
+            System.err.println("       " + CacheRegionTransfer.class.getSimpleName() + " snapshot <cache file> <region> <key serializer> <value serializer> <BTREE|HTREE> <snapshot file>");
+            System.exit(1);
+        }
+        final boolean export = !args[0].equals("import");
+        final File cacheFile = new File(args[1]);
+        final String region = args[2];
+        final CacheMapSettings mapSettings = new CacheMapSettings(MAP_TYPE, CacheService.CacheMapDataType.valueOf(args[export ? 5 : 3].toUpperCase()));
+        CacheService.initialize(new CacheConfiguration(CacheService.CacheType.LOCAL, cacheFile.getAbsoluteFile().getParentFile(), null, 0, export));
+        try {
+            if (args[0].equals("snapshot")) {
+                exportSnapshot(cacheFile, region, args[3], args[4], mapSettings, new File(args[6]));
+            } else if (export) {
+                try (OutputStream out = new FileOutputStream(args[6])) {
+                    exportRegion(cacheFile, region, args[3], args[4], mapSettings, out);
+                }
+            } else {
+                try (InputStream in = new FileInputStream(args[4])) {
+                    importRegion(cacheFile, region, mapSettings, in);
+                }
+            }
+        } finally {
+            CacheService.shutdown();
+        }
+    }
+
+    /**
+     * Writes all entries of a cache region to <tt>out</tt>.
+     *
+     * @param cacheFile           The cache file containing the region.
+     * @param cacheRegion         The region to export.
+     * @param keySerializerName   The key serializer of the region.
+     * @param valueSerializerName The value serializer of the region.
+     * @param mapSettings         The settings of the region, most importantly {@link CacheMapSettings#MAP_TYPE}.
+     * @param out                 The stream to write to. It is closed when the export is complete.
+     * @return The number of exported entries.
+     * @throws IOException If writing the export fails.
+     */
+    public static <K, V> long exportRegion(File cacheFile, String cacheRegion, String keySerializerName, String valueSerializerName, CacheMapSettings mapSettings, OutputStream out) throws IOException {
+        final CacheService cacheService = CacheService.getInstance();
+        final GroupSerializer<K> keySerializer = CacheAccess.getSerializerByName(keySerializerName);
+        final GroupSerializer<V> valueSerializer = CacheAccess.getSerializerByName(valueSerializerName);
+        final long startTime = System.currentTimeMillis();
+        try (RegionExportWriter<K, V> writer = new RegionExportWriter<>(out, keySerializerName, valueSerializerName, true)) {
+            if (mapSettings.get(MAP_TYPE) == CacheService.CacheMapDataType.HTREE) {
+                final Map<K, V> cache = cacheService.getHTreeCache(cacheFile, cacheRegion, keySerializer, valueSerializer, mapSettings);
+                writeSorted(cache.entrySet(), keySerializerName, valueSerializerName, keySerializer, writer, cacheFile.getAbsoluteFile().getParentFile());
+            } else {
+                final Map<K, V> cache = cacheService.getBTreeCache(cacheFile, cacheRegion, keySerializer, valueSerializer, mapSettings);
+                for (Map.Entry<K, V> entry : cache.entrySet())
+                    writer.write(entry.getKey(), entry.getValue());
+            }
+            log.info("Exported {} entries of cache {}, region {} in {}ms.", writer.getNumEntries(), cacheFile, cacheRegion, System.currentTimeMillis() - startTime);
+            return writer.getNumEntries();
+        }
+    }
+
+    /**
+     * Writes all entries of a cache region to an immutable snapshot file that can be opened as a region of type
+     * {@link CacheService.CacheMapDataType#SNAPSHOT}. An existing snapshot file is replaced atomically.
+     *
+     * @param cacheFile           The cache file containing the region.
+     * @param cacheRegion         The region to export.
+     * @param keySerializerName   The key serializer of the region.
+     * @param valueSerializerName The value serializer of the region.
+     * @param mapSettings         The settings of the region, most importantly {@link CacheMapSettings#MAP_TYPE}.
+     * @param snapshotFile        The snapshot file to write, see {@link SnapshotCacheAccess#getSnapshotFile(File, String, String)}.
+     * @return The number of entries in the snapshot.
+     * @throws IOException If writing the snapshot fails.
+     */
+    public static long exportSnapshot(File cacheFile, String cacheRegion, String keySerializerName, String valueSerializerName, CacheMapSettings mapSettings, File snapshotFile) throws IOException {
+        final File exportFile = File.createTempFile("regionexport", ".export", snapshotFile.getAbsoluteFile().getParentFile());
+        try {
+            try (OutputStream out = new FileOutputStream(exportFile)) {
+                exportRegion(cacheFile, cacheRegion, keySerializerName, valueSerializerName, mapSettings, out);
+            }
+            try (InputStream in = new FileInputStream(exportFile)) {
+                return createSnapshot(in, snapshotFile);
+            }
+        } finally {
+            exportFile.delete();
+        }
+    }
+
+    /**
+     * Writes the entries of an export to an immutable snapshot file with the serializers of the export. An existing
+     * snapshot file is replaced atomically.
+     *
+     * @param in           The export to read. It is closed when the snapshot is complete.
+     * @param snapshotFile The snapshot file to write.
+     * @return The number of entries in the snapshot.
+     * @throws IOException If reading the export or writing the snapshot fails.
+     */
+    public static <K, V> long createSnapshot(InputStream in, File snapshotFile) throws IOException {
+        final long startTime = System.currentTimeMillis();
+        final long numEntries;
+        try (RegionExportReader<K, V> reader = new RegionExportReader<>(in);
+             SnapshotWriter<K, V> writer = new SnapshotWriter<>(snapshotFile, reader.getKeySerializerName(), reader.getValueSerializerName())) {
+            while (reader.next())
+                writer.write(reader.getKey(), reader.getValue());
+            writer.finish();
+            numEntries = writer.getNumEntries();
+        }
+        log.info("Wrote {} entries to cache snapshot {} in {}ms.", numEntries, snapshotFile, System.currentTimeMillis() - startTime);
+        return numEntries;
+    }
+
+    /**
+     * Sorts the entries with an external merge sort and writes them to <tt>writer</tt>.
+     */
+    private static <K, V> void writeSorted(Iterable<Map.Entry<K, V>> entries, String keySerializerName, String valueSerializerName, Comparator<K> comparator, RegionExportWriter<K, V> writer, File tmpDir) throws IOException {
+        final List<File> runs = new ArrayList<>();
+        try {
+            final List<Map.Entry<K, V>> run = new ArrayList<>();
+            long runSize = 0;
+            for (Map.Entry<K, V> entry : entries) {
+                run.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+                runSize += FrontCache.estimateSize(entry.getKey()) + FrontCache.estimateSize(entry.getValue());
+                if (runSize >= SORT_RUN_SIZE) {
+                    runs.add(writeRun(run, keySerializerName, valueSerializerName, comparator, tmpDir));
+                    run.clear();
+                    runSize = 0;
+                }
+            }
+            if (runs.isEmpty()) {
+                run.sort(Map.Entry.comparingByKey(comparator));
+                for (Map.Entry<K, V> entry : run)
+                    writer.write(entry.getKey(), entry.getValue());
+                return;
+            }
+            if (!run.isEmpty())
+                runs.add(writeRun(run, keySerializerName, valueSerializerName, comparator, tmpDir));
+            run.clear();
+            mergeRuns(runs, comparator, writer);
+        } finally {
+            for (File runFile : runs)
+                runFile.delete();
+        }
+    }
+
+    private static <K, V> File writeRun(List<Map.Entry<K, V>> run, String keySerializerName, String valueSerializerName, Comparator<K> comparator, File tmpDir) throws IOException {
+        run.sort(Map.Entry.comparingByKey(comparator));
+        final File runFile = File.createTempFile("regionexport", ".run", tmpDir);
+        try (RegionExportWriter<K, V> runWriter = new RegionExportWriter<>(new FileOutputStream(runFile), keySerializerName, valueSerializerName, true)) {
+            for (Map.Entry<K, V> entry : run)
+                runWriter.write(entry.getKey(), entry.getValue());
+        }
+        return runFile;
+    }
+
+    private static <K, V> void mergeRuns(List<File> runs, Comparator<K> comparator, RegionExportWriter<K, V> writer) throws IOException {
+        final PriorityQueue<RegionExportReader<K, V>> queue = new PriorityQueue<>((r1, r2) -> comparator.compare(r1.getKey(), r2.getKey()));
+        try {
+            for (File runFile : runs) {
+                final RegionExportReader<K, V> reader = new RegionExportReader<>(new FileInputStream(runFile));
+                if (reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+            while (!queue.isEmpty()) {
+                final RegionExportReader<K, V> reader = queue.poll();
+                writer.write(reader.getKey(), reader.getValue());
+                if (reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+        } finally {
+            for (RegionExportReader<K, V> reader : queue)
+                reader.close();
+        }
+    }
+
+    /**
+     * Adds the entries of an export to a cache region. The serializers of the region are those of the export. The
+     * Bloom filter and the in-memory caches of open accesses to the region are updated; if there are none, a stored
+     * Bloom filter is removed so that it is created from the keys of the region when the region is opened next.
+     *
+     * @param cacheFile   The cache file containing the region. It is created if it does not exist.
+     * @param cacheRegion The region to import to. It is created if it does not exist.
+     * @param mapSettings The settings of the region, most importantly {@link CacheMapSettings#MAP_TYPE}.
+     * @param in          The export to read. It is closed when the import is complete.
+     * @return The number of imported entries.
+     * @throws IOException If reading the export fails.
+     */
+    public static <K, V> long importRegion(File cacheFile, String cacheRegion, CacheMapSettings mapSettings, InputStream in) throws IOException {
+        final CacheService cacheService = CacheService.getInstance();
+        final long startTime = System.currentTimeMillis();
+        try (RegionExportReader<K, V> reader = new RegionExportReader<>(in)) {
+            final GroupSerializer<K> keySerializer = reader.getKeySerializer();
+            final GroupSerializer<V> valueSerializer = CacheAccess.getSerializerByName(reader.getValueSerializerName());
+            final boolean htree = mapSettings.get(MAP_TYPE) == CacheService.CacheMapDataType.HTREE;
+            long numEntries = 0;
+            final LocalCacheRegion<K, V> openRegion = cacheService.getOpenLocalRegion(cacheFile, cacheRegion);
+            if (openRegion != null)
+                openRegion.flushWriteBehind();
+            final DB.TreeMapSink<K, V> sink = !htree && reader.isSorted() ? cacheService.getBTreeCacheSink(cacheFile, cacheRegion, keySerializer, valueSerializer, mapSettings) : null;
+            if (sink != null) {
+                while (reader.next()) {
+                    if (openRegion != null)
+                        openRegion.addToBloomFilter(reader.getKey());
+                    sink.put(reader.getKey(), reader.getValue());
+                    ++numEntries;
+                }
+                sink.create();
+            } else {
+                final Map<K, V> cache = htree ? cacheService.getHTreeCache(cacheFile, cacheRegion, keySerializer, valueSerializer, mapSettings) : cacheService.getBTreeCache(cacheFile, cacheRegion, keySerializer, valueSerializer, mapSettings);
+                if (cacheService.isDbReadOnly(cacheFile))
+                    throw new IllegalStateException("Cannot import into cache " + cacheFile + " because it is read-only.");
+                final Map<K, V> batch = new HashMap<>();
+                while (reader.next()) {
+                    if (openRegion != null)
+                        openRegion.addToBloomFilter(reader.getKey());
+                    batch.put(reader.getKey(), reader.getValue());
+                    ++numEntries;
+                    if (batch.size() >= IMPORT_BATCH_SIZE) {
+                        cache.putAll(batch);
+                        batch.clear();
+                    }
+                }
+                cache.putAll(batch);
+            }
+            if (openRegion != null)
+                openRegion.invalidateAll();
+            else
+                cacheService.discardBloomFilter(cacheFile, cacheRegion);
+            cacheService.commitCache(cacheFile);
+            log.info("Imported {} entries into cache {}, region {} in {}ms{}.", numEntries, cacheFile, cacheRegion, System.currentTimeMillis() - startTime, sink != null ? " by bulk loading" : "");
+            return numEntries;
+        }
+    }
+}
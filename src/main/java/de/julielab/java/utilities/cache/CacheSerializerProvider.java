@@ -0,0 +1,15 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.serializer.GroupSerializer;
+
+import java.util.Map;
+
+/**
+ * A Java service adding serializers to the {@link SerializerRegistry} when it is first used.
+ */
+public interface CacheSerializerProvider {
+    /**
+     * @return The serializers to register by their names.
+     */
+    Map<String, GroupSerializer<?>> getSerializers();
+}
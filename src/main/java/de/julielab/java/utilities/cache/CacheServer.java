@@ -1,63 +1,315 @@
 package de.julielab.java.utilities.cache;
 
-import org.mapdb.HTreeMap;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
 import org.mapdb.serializer.GroupSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-
+/**
+ * <p>A socket server giving access to MapDB caches that are stored in a directory of the server's file system.</p>
+ * <p>Clients communicate with the server via the binary protocol described in {@link CacheProtocol}.</p>
+ * <p>All connections are multiplexed by a single selector thread which reads complete request frames (see
+ * {@link CacheProtocol}) from the clients. The requests are then handled by a fixed-size pool of worker threads.
+ * Requests of the same connection are processed in order of arrival and never concurrently. Thus, the number of
+ * threads stays constant regardless of the number of connected clients, idle or not.</p>
+ * <p>Commit requests are passed to a {@link GroupCommitScheduler} so that commits of the same cache file requested
+ * by multiple clients within a short time window are served by a single commit. The cache files written by a client
+ * are also committed when the client disconnects.</p>
+ * <p>Usage statistics are available via {@link #getMetrics()} and JMX when enabled, see {@link CacheServerMetrics}.</p>
+ * <p>Clients that keep values in a near cache subscribe to the regions they open. When a connection writes to a
+ * region, all other subscribed connections receive an invalidation message for the written keys, see
+ * {@link CacheProtocol}. Thus, the clients' near caches stay consistent with the server without having to expire
+ * their entries.</p>
+ * <p>Puts and commits can be replicated asynchronously to follower servers added with
+ * {@link #addReplicationFollower(String, int)}. Clients may then read from the followers, see
+ * {@link CacheNode#getReadReplicas()}. Since replication does not wait for the followers, a read from a follower may
+ * miss the most recent writes to the leader.</p>
+ * <p>Clients pass the storage settings of a region when opening it, e.g. {@link CacheMapSettings#MAP_TYPE},
+ * {@link CacheMapSettings#MAX_SIZE} or {@link CacheMapSettings#EXPIRE_AFTER_GET}, see
+ * {@link CacheProtocol#REGION_SETTINGS}. Thus, remote regions can be bounded and evict entries like local ones. The
+ * settings of the first client opening a region are used until the server is restarted. If
+ * {@link CacheMapSettings#EXPIRE_EXECUTOR_PERIOD} is given, expired entries are removed by a background thread of
+ * the server instead of by the threads writing to the region.</p>
+ * <p>Concurrent get requests of the same key in the same region, e.g. by many clients starting on the same data at the
+ * same time, are coalesced: only the first request reads and serializes the value, the others wait for its result.
+ * The server also grants clients locks on missing keys so that only one client computes a missing value, see
+ * {@link CacheAccess#getOrCompute(Object, java.util.function.Function)}. The most frequently requested keys are shown
+ * in the metrics, see {@link CacheServerMetrics#getHotKeys(int)}.</p>
+ */
 public class CacheServer {
-    public static final String METHOD_GET = "get";
-    public static final String METHOD_PUT = "put";
-    public static final String RESPONSE_OK = "OK";
-    public static final String RESPONSE_FAILURE = "FAILURE";
     private final static Logger log = LoggerFactory.getLogger(CacheServer.class);
+    private static final int INITIAL_READ_BUFFER_SIZE = 8192;
     private final File cacheDir;
+    /**
+     * Whether this server has initialized the {@link CacheService} and thus shuts it down.
+     */
+    private final boolean ownsCacheService;
     private final String host;
     private final int port;
     private final ExecutorService executorService;
+    private final GroupCommitScheduler groupCommitScheduler;
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numConnections = new AtomicInteger();
+    private final CacheServerMetrics metrics;
+    private final List<ReplicationTarget> replicationTargets = new CopyOnWriteArrayList<>();
+    /**
+     * The connections subscribed to invalidations by region ID, see {@link OpenRegion#regionId}.
+     */
+    private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    /**
+     * The settings each region has first been opened with, by region ID.
+     */
+    private final Map<String, CacheMapSettings> regionSettings = new ConcurrentHashMap<>();
+    /**
+     * The get requests currently being processed. Further requests of the same key wait for their results.
+     */
+    private final Map<RegionKey, CompletableFuture<byte[]>> inFlightGets = new ConcurrentHashMap<>();
+    /**
+     * The locks granted to clients computing a missing value, see {@link CacheProtocol#OP_GET_OR_LOCK}.
+     */
+    private final Map<RegionKey, Lock> locks = new ConcurrentHashMap<>();
+    private ScheduledExecutorService expireExecutor;
+    private volatile boolean running;
+    private volatile Selector selector;
     private Thread backgroundThread;
 
 
     public CacheServer(File cacheDir, String host, int port) {
+        this(cacheDir, host, port, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param cacheDir         The directory to store the cache files in.
+     * @param host             The host name or address to bind the server socket to.
+     * @param port             The port to listen on.
+     * @param numWorkerThreads The number of threads that process incoming requests.
+     */
+    public CacheServer(File cacheDir, String host, int port, int numWorkerThreads) {
+        this(cacheDir, host, port, numWorkerThreads, 50);
+    }
+
+    /**
+     * @param cacheDir          The directory to store the cache files in.
+     * @param host              The host name or address to bind the server socket to.
+     * @param port              The port to listen on.
+     * @param numWorkerThreads  The number of threads that process incoming requests.
+     * @param groupCommitWindow The time in milliseconds that commit requests for the same cache file are collected
+     *                          to be served by a single commit.
+     */
+    public CacheServer(File cacheDir, String host, int port, int numWorkerThreads, long groupCommitWindow) {
+        if (numWorkerThreads < 1)
+            throw new IllegalArgumentException("The number of worker threads must be positive but was " + numWorkerThreads + ".");
         this.cacheDir = cacheDir;
         this.host = host;
         this.port = port;
-        CacheService.initialize(new CacheConfiguration(CacheService.CacheType.REMOTE, null, host, port, false));
-        executorService = Executors.newCachedThreadPool();
+        // Servers running in the same JVM, e.g. a leader and its followers, share the cache service. It is shut down
+        // by the server that has initialized it.
+        ownsCacheService = CacheService.initializeIfAbsent(new CacheConfiguration(CacheService.CacheType.REMOTE, null, host, port, false));
+        executorService = Executors.newFixedThreadPool(numWorkerThreads);
+        groupCommitScheduler = new GroupCommitScheduler(groupCommitWindow, CacheService.getInstance()::commitCache);
+        metrics = new CacheServerMetrics(Boolean.getBoolean(CacheMetrics.METRICS_ENABLED_PROP), numConnections::get);
+        if (metrics.isEnabled())
+            CacheMetrics.registerMBean(metrics, "type=CacheServer,port=" + port);
         if (!cacheDir.exists())
             cacheDir.mkdirs();
     }
 
     public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: " + CacheServer.class.getSimpleName() + " <cache directory> <host> <port> [number of worker threads] [group commit window in milliseconds] [comma-separated host:port list of replication followers]");
+            System.exit(1);
+        }
         final File cacheDir = new File(args[0]);
         final String host = args[1];
         final int port = Integer.valueOf(args[2]);
-        log.info("Starting logger with cacheDir {}, host {} and port {}", cacheDir, host, port);
-        final CacheServer cacheServer = new CacheServer(cacheDir, host, port);
+        final int numWorkerThreads = args.length > 3 ? Integer.valueOf(args[3]) : Runtime.getRuntime().availableProcessors();
+        final long groupCommitWindow = args.length > 4 ? Long.valueOf(args[4]) : 50;
+        log.info("Starting logger with cacheDir {}, host {}, port {}, {} worker threads and a group commit window of {}ms", cacheDir, host, port, numWorkerThreads, groupCommitWindow);
+        final CacheServer cacheServer = new CacheServer(cacheDir, host, port, numWorkerThreads, groupCommitWindow);
+        if (args.length > 5) {
+            for (String follower : args[5].split(",")) {
+                final int colon = follower.lastIndexOf(':');
+                if (colon < 0)
+                    throw new IllegalArgumentException("The replication follower '" + follower + "' is not given in the format host:port.");
+                cacheServer.addReplicationFollower(follower.substring(0, colon).trim(), Integer.parseInt(follower.substring(colon + 1).trim()));
+            }
+        }
         cacheServer.run();
     }
 
     public void run() throws IOException {
-        try (ServerSocket serverSocket = new ServerSocket(port, 1000, InetAddress.getByName(host))) {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open(); Selector selector = Selector.open()) {
+            serverChannel.bind(new InetSocketAddress(InetAddress.getByName(host), port), 1000);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            this.selector = selector;
+            running = true;
             log.info("CacheServer ready for requests.");
-            while (true) {
-                final Socket socket = serverSocket.accept();
-                log.debug("Handling new incoming connection");
-                executorService.submit(new RequestServer(socket));
+            while (running && !Thread.currentThread().isInterrupted()) {
+                selector.select();
+                registerPendingWrites();
+                final Iterator<SelectionKey> keyIt = selector.selectedKeys().iterator();
+                while (keyIt.hasNext()) {
+                    final SelectionKey key = keyIt.next();
+                    keyIt.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        accept(serverChannel, selector);
+                        continue;
+                    }
+                    final Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable())
+                            connection.read();
+                        if (key.isValid() && key.isWritable())
+                            connection.write();
+                    } catch (IOException e) {
+                        log.debug("Closing connection to {} due to I/O error: {}", connection.channel.getRemoteAddress(), e.getMessage());
+                        connection.close();
+                    }
+                }
             }
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection)
+                    ((Connection) key.attachment()).close();
+            }
+        } catch (ClosedSelectorException e) {
+            log.trace("Selector of the cache server has been closed.");
+        } finally {
+            running = false;
+            selector = null;
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel, Selector selector) throws IOException {
+        final SocketChannel channel = serverChannel.accept();
+        if (channel == null)
+            return;
+        log.debug("Handling new incoming connection from {}", channel.getRemoteAddress());
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+        numConnections.incrementAndGet();
+    }
+
+    /**
+     * Worker threads must not change the interest set of the selection keys themselves while the selector thread
+     * is blocked in <tt>select()</tt>. Thus, they register their connection for writing and wake up the selector
+     * which then sets the write interest in this method.
+     */
+    private void registerPendingWrites() {
+        Connection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            if (connection.key.isValid())
+                connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return The number of currently open client connections.
+     */
+    public int getNumConnections() {
+        return numConnections.get();
+    }
+
+    /**
+     * @return The usage statistics of this server. Only collected if enabled, see {@link CacheServerMetrics}.
+     */
+    public CacheServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Adds a follower server that receives all subsequent puts and commits of this server. The follower must run
+     * with its own cache directory. Replication is asynchronous and best-effort: requests that cannot be sent because
+     * the follower is unreachable or lags too far behind are dropped.
+     *
+     * @param host The host of the follower.
+     * @param port The port of the follower.
+     */
+    public void addReplicationFollower(String host, int port) {
+        addReplicationFollower(host, port, 100000);
+    }
+
+    /**
+     * @param host      The host of the follower.
+     * @param port      The port of the follower.
+     * @param queueSize The maximum number of requests waiting to be sent to the follower.
+     * @see #addReplicationFollower(String, int)
+     */
+    public void addReplicationFollower(String host, int port, int queueSize) {
+        if (host.equals(this.host) && port == this.port)
+            throw new IllegalArgumentException("A cache server cannot replicate to itself.");
+        log.info("Replicating puts and commits to follower {}:{}", host, port);
+        replicationTargets.add(new ReplicationTarget(host, port, queueSize));
+    }
+
+    private void replicate(OpenRegion region, byte[] request, int payloadOffset) {
+        for (ReplicationTarget target : replicationTargets)
+            target.replicate(region.cacheName, region.cacheRegion, region.keySerializerName, region.valueSerializerName, region.regionSettings, request, payloadOffset);
+    }
+
+    /**
+     * @return The executor removing expired entries of the regions that have been opened with
+     * {@link CacheMapSettings#EXPIRE_EXECUTOR_PERIOD}.
+     */
+    private synchronized ScheduledExecutorService getExpireExecutor() {
+        if (expireExecutor == null) {
+            expireExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, "CacheServerExpiration-" + port);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return expireExecutor;
+    }
+
+    /**
+     * @return Whether both settings contain the same settings, comparing byte array values by content.
+     */
+    private static boolean isSameSettings(Map<String, Object> settings, Map<String, Object> otherSettings) {
+        if (!settings.keySet().equals(otherSettings.keySet()))
+            return false;
+        for (String setting : settings.keySet()) {
+            if (!Objects.deepEquals(settings.get(setting), otherSettings.get(setting)))
+                return false;
         }
+        return true;
     }
 
     public void runInBackground() {
@@ -88,99 +340,699 @@ public class CacheServer {
 
     public void shutdown() {
         log.info("Shutting down cache server.");
-        CacheService.shutdown();
+        running = false;
+        final Selector selector = this.selector;
+        if (selector != null)
+            selector.wakeup();
         if (backgroundThread != null)
             backgroundThread.interrupt();
         executorService.shutdown();
+        // Requests still being processed must not write after the final commit or into closed cache files
+        try {
+            if (!executorService.awaitTermination(1, TimeUnit.MINUTES))
+                log.warn("Requests being processed did not finish within one minute.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        groupCommitScheduler.shutdown();
+        synchronized (this) {
+            if (expireExecutor != null)
+                expireExecutor.shutdown();
+        }
+        for (ReplicationTarget target : replicationTargets)
+            target.shutdown();
+        if (metrics.isEnabled())
+            CacheMetrics.unregisterMBean("type=CacheServer,port=" + port);
+        CacheService.getInstance().commitAllDbs();
+        if (ownsCacheService)
+            CacheService.shutdown();
+    }
+
+    /**
+     * Executes a single request and returns the response payload.
+     */
+    private DataOutput2 handleRequest(Connection connection, byte[] request) throws IOException {
+        final DataInput2 in = new DataInput2.ByteArray(request);
+        final DataOutput2 out = new DataOutput2();
+        final byte opcode = in.readByte();
+        switch (opcode) {
+            case CacheProtocol.OP_HELLO: {
+                final int magic = in.readInt();
+                final byte version = in.readByte();
+                if (magic != CacheProtocol.MAGIC || version != CacheProtocol.VERSION)
+                    throw new IllegalArgumentException("Unsupported cache protocol version " + version + ", this server speaks version " + CacheProtocol.VERSION + ".");
+                out.writeByte(CacheProtocol.STATUS_OK);
+                out.writeByte(CacheProtocol.VERSION);
+                break;
+            }
+            case CacheProtocol.OP_OPEN: {
+                final String cacheName = in.readUTF();
+                final String cacheRegion = in.readUTF();
+                final String keySerializerName = in.readUTF();
+                final String valueSerializerName = in.readUTF();
+                final boolean subscribe = in.readBoolean();
+                final CacheMapSettings settings = CacheProtocol.readRegionSettings(in);
+                final int handle = connection.open(cacheName, cacheRegion, keySerializerName, valueSerializerName, settings, subscribe);
+                log.trace("Opened cache {}, {} with handle {}.", cacheName, cacheRegion, handle);
+                out.writeByte(CacheProtocol.STATUS_OK);
+                out.packInt(handle);
+                break;
+            }
+            case CacheProtocol.OP_GET: {
+                final OpenRegion region = connection.getRegion(in.unpackInt());
+                final int keyOffset = in.getPos();
+                final Object key = CacheProtocol.deserialize(region.keySerializer, in, request.length - in.getPos());
+                final RegionKey regionKey = new RegionKey(region, Arrays.copyOfRange(request, keyOffset, request.length), key);
+                metrics.recordKeyRequest(regionKey);
+                final byte[] value = getCoalesced(regionKey);
+                if (value != null) {
+                    log.trace("Returning data for key '{}' from cache {}, {}.", key, region.cacheName, region.cacheRegion);
+                    out.writeByte(CacheProtocol.STATUS_OK);
+                    out.write(value);
+                } else {
+                    log.trace("No cached data available for key '{}' in cache {}, {}.", key, region.cacheName, region.cacheRegion);
+                    out.writeByte(CacheProtocol.STATUS_NOT_FOUND);
+                }
+                break;
+            }
+            case CacheProtocol.OP_PUT: {
+                final OpenRegion region = connection.getRegion(in.unpackInt());
+                final int payloadOffset = in.getPos();
+                final int keyLength = in.unpackInt();
+                final int keyOffset = in.getPos();
+                final Object key = CacheProtocol.deserialize(region.keySerializer, in, keyLength);
+                final Object value = CacheProtocol.deserialize(region.valueSerializer, in, request.length - in.getPos());
+                if (log.isTraceEnabled()) {
+                    String valueString = value == null ? null : value.toString();
+                    if (valueString != null)
+                        valueString = valueString.substring(0, Math.min(valueString.length(), 79));
+                    log.trace("Putting data '{}' for key '{}' into the cache {}, {}.", valueString, key, region.cacheName, region.cacheRegion);
+                }
+                region.cache.put(key, value);
+                connection.dirtyFiles.add(region.cacheFile);
+                final byte[] keyBytes = Arrays.copyOfRange(request, keyOffset, keyOffset + keyLength);
+                if (!inFlightGets.isEmpty())
+                    inFlightGets.remove(new RegionKey(region, keyBytes, key));
+                if (!locks.isEmpty())
+                    locks.remove(new RegionKey(region, keyBytes, key));
+                publishInvalidation(connection, region, Collections.singletonList(keyBytes));
+                replicate(region, request, payloadOffset);
+                out.writeByte(CacheProtocol.STATUS_OK);
+                break;
+            }
+            case CacheProtocol.OP_GET_ALL: {
+                final OpenRegion region = connection.getRegion(in.unpackInt());
+                final int numKeys = in.unpackInt();
+                log.trace("Returning data for {} keys from cache {}, {}.", numKeys, region.cacheName, region.cacheRegion);
+                out.writeByte(CacheProtocol.STATUS_OK);
+                out.packInt(numKeys);
+                for (int i = 0; i < numKeys; i++) {
+                    final int keyLength = in.unpackInt();
+                    final int keyOffset = in.getPos();
+                    final Object key = CacheProtocol.deserialize(region.keySerializer, in, keyLength);
+                    if (metrics.isEnabled())
+                        metrics.recordKeyRequest(new RegionKey(region, Arrays.copyOfRange(request, keyOffset, keyOffset + keyLength), key));
+                    final Object o = region.cache.get(key);
+                    out.writeBoolean(o != null);
+                    if (o != null)
+                        CacheProtocol.writeBytes(out, CacheProtocol.serialize(region.valueSerializer, o));
+                }
+                break;
+            }
+            case CacheProtocol.OP_PUT_ALL: {
+                final OpenRegion region = connection.getRegion(in.unpackInt());
+                final int payloadOffset = in.getPos();
+                final int numEntries = in.unpackInt();
+                final Map<Object, Object> entries = new HashMap<>(numEntries * 2);
+                // Larger writes invalidate the whole region on the subscribers
+                final List<byte[]> keyBytes = numEntries <= CacheProtocol.MAX_INVALIDATION_KEYS ? new ArrayList<>(numEntries) : null;
+                final List<RegionKey> lockedKeys = new ArrayList<>();
+                final Object[] keys = new Object[numEntries];
+                final int[] keyOffsets = new int[numEntries];
+                final int[] keyLengths = new int[numEntries];
+                for (int i = 0; i < numEntries; i++) {
+                    final int keyLength = in.unpackInt();
+                    final int keyOffset = in.getPos();
+                    if (keyBytes != null)
+                        keyBytes.add(Arrays.copyOfRange(request, keyOffset, keyOffset + keyLength));
+                    final Object key = CacheProtocol.deserialize(region.keySerializer, in, keyLength);
+                    final Object value = CacheProtocol.deserialize(region.valueSerializer, in, in.unpackInt());
+                    entries.put(key, value);
+                    keys[i] = key;
+                    keyOffsets[i] = keyOffset;
+                    keyLengths[i] = keyLength;
+                    if (!locks.isEmpty()) {
+                        final RegionKey regionKey = new RegionKey(region, Arrays.copyOfRange(request, keyOffset, keyOffset + keyLength), key);
+                        if (locks.containsKey(regionKey))
+                            lockedKeys.add(regionKey);
+                    }
+                }
+                log.trace("Putting {} entries into the cache {}, {}.", numEntries, region.cacheName, region.cacheRegion);
+                region.cache.putAll(entries);
+                connection.dirtyFiles.add(region.cacheFile);
+                if (!inFlightGets.isEmpty()) {
+                    for (int i = 0; i < numEntries; i++)
+                        inFlightGets.remove(new RegionKey(region, Arrays.copyOfRange(request, keyOffsets[i], keyOffsets[i] + keyLengths[i]), keys[i]));
+                }
+                // The locks are released only now that the values can be read
+                for (RegionKey lockedKey : lockedKeys)
+                    locks.remove(lockedKey);
+                publishInvalidation(connection, region, keyBytes);
+                replicate(region, request, payloadOffset);
+                out.writeByte(CacheProtocol.STATUS_OK);
+                break;
+            }
+            case CacheProtocol.OP_PING:
+                out.writeByte(CacheProtocol.STATUS_OK);
+                break;
+            case CacheProtocol.OP_GET_OR_LOCK: {
+                final OpenRegion region = connection.getRegion(in.unpackInt());
+                final long lockTimeout = in.unpackLong();
+                final int keyOffset = in.getPos();
+                final Object key = CacheProtocol.deserialize(region.keySerializer, in, request.length - in.getPos());
+                final RegionKey regionKey = new RegionKey(region, Arrays.copyOfRange(request, keyOffset, request.length), key);
+                metrics.recordKeyRequest(regionKey);
+                final byte[] value = getCoalesced(regionKey);
+                if (value != null) {
+                    out.writeByte(CacheProtocol.STATUS_OK);
+                    out.write(value);
+                } else {
+                    final boolean locked = tryLock(connection, regionKey, lockTimeout);
+                    log.trace("No cached data available for key '{}' in cache {}, {}, lock granted: {}.", key, region.cacheName, region.cacheRegion, locked);
+                    out.writeByte(CacheProtocol.STATUS_NOT_FOUND);
+                    out.writeBoolean(locked);
+                }
+                break;
+            }
+            case CacheProtocol.OP_UNLOCK: {
+                final OpenRegion region = connection.getRegion(in.unpackInt());
+                final int keyOffset = in.getPos();
+                final Object key = CacheProtocol.deserialize(region.keySerializer, in, request.length - in.getPos());
+                // Only the holder may release the lock. A late UNLOCK of a client whose lock has expired must not release
+                // the lock granted to another client in the meantime.
+                locks.computeIfPresent(new RegionKey(region, Arrays.copyOfRange(request, keyOffset, request.length), key), (k, lock) -> lock.holder == connection ? null : lock);
+                out.writeByte(CacheProtocol.STATUS_OK);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown cache protocol opcode " + opcode + ".");
+        }
+        return out;
+    }
+
+    /**
+     * Reads and serializes the value of a key. If the key is already being read by another request, waits for and
+     * returns the result of that request instead. Puts remove the running lookup of their keys before they are
+     * acknowledged, so a get arriving after a put has been acknowledged never joins a lookup that might have read the
+     * old value.
+     *
+     * @return The serialized value or <tt>null</tt> if the key is missing.
+     */
+    private byte[] getCoalesced(RegionKey regionKey) throws IOException {
+        final CompletableFuture<byte[]> lookup = new CompletableFuture<>();
+        final CompletableFuture<byte[]> runningLookup = inFlightGets.putIfAbsent(regionKey, lookup);
+        if (runningLookup != null) {
+            try {
+                final byte[] value = runningLookup.join();
+                metrics.recordCoalescedGet();
+                return value;
+            } catch (CompletionException e) {
+                // The failure is reported to the client of the running lookup, this request tries on its own
+                return serializeValue(regionKey.region, readValue(regionKey.region.cache, regionKey.key));
+            }
+        }
+        try {
+            final byte[] value = serializeValue(regionKey.region, readValue(regionKey.region.cache, regionKey.key));
+            lookup.complete(value);
+            return value;
+        } catch (IOException | RuntimeException e) {
+            lookup.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightGets.remove(regionKey, lookup);
+        }
+    }
+
+    /**
+     * Reads the value of a key for a get request.
+     */
+    Object readValue(Map<Object, Object> cache, Object key) {
+        return cache.get(key);
+    }
+
+    private static byte[] serializeValue(OpenRegion region, Object value) throws IOException {
+        return value != null ? CacheProtocol.serialize(region.valueSerializer, value) : null;
+    }
+
+    /**
+     * Grants the lock on a missing key to <tt>connection</tt> unless another connection holds an unexpired lock on it.
+     *
+     * @param timeout The time in milliseconds after which the lock expires.
+     * @return Whether the lock has been granted.
+     */
+    private boolean tryLock(Connection connection, RegionKey regionKey, long timeout) {
+        final long now = System.nanoTime();
+        final Lock lock = new Lock(connection, now + TimeUnit.MILLISECONDS.toNanos(timeout));
+        return locks.compute(regionKey, (k, currentLock) -> currentLock == null || currentLock.expirationTime - now <= 0 ? lock : currentLock) == lock;
+    }
+
+    /**
+     * Requests the commit of the cache file of the region referred to in the request from the
+     * {@link GroupCommitScheduler}.
+     *
+     * @return A future that is completed with the response when the commit has been done.
+     */
+    private CompletableFuture<DataOutput2> handleCommit(Connection connection, byte[] request) throws IOException {
+        final DataInput2 in = new DataInput2.ByteArray(request);
+        in.readByte();
+        final OpenRegion region = connection.getRegion(in.unpackInt());
+        log.trace("Requesting commit of cache {} for region {}.", region.cacheName, region.cacheRegion);
+        connection.dirtyFiles.remove(region.cacheFile);
+        replicate(region, request, in.getPos());
+        return groupCommitScheduler.requestCommit(region.cacheFile).thenApply(v -> {
+            metrics.recordCommit();
+            final DataOutput2 out = new DataOutput2();
+            try {
+                out.writeByte(CacheProtocol.STATUS_OK);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            return out;
+        });
+    }
+
+    /**
+     * Pushes an invalidation message to all connections subscribed to the region except the writing connection.
+     *
+     * @param writer The connection that has written to the region.
+     * @param region The region written to.
+     * @param keys   The serialized keys written or <tt>null</tt> to invalidate the whole region.
+     */
+    private void publishInvalidation(Connection writer, OpenRegion region, List<byte[]> keys) throws IOException {
+        final Set<Subscription> subscribers = subscriptions.get(region.regionId);
+        if (subscribers == null)
+            return;
+        DataOutput2 keyList = null;
+        for (Subscription subscription : subscribers) {
+            if (subscription.connection == writer)
+                continue;
+            final DataOutput2 push = new DataOutput2();
+            if (keys != null) {
+                if (keyList == null) {
+                    keyList = new DataOutput2();
+                    keyList.packInt(keys.size());
+                    for (byte[] key : keys)
+                        CacheProtocol.writeBytes(keyList, key);
+                }
+                push.writeByte(CacheProtocol.PUSH_INVALIDATE_KEYS);
+                push.packInt(subscription.handle);
+                push.write(keyList.buf, 0, keyList.pos);
+            } else {
+                push.writeByte(CacheProtocol.PUSH_INVALIDATE_REGION);
+                push.packInt(subscription.handle);
+            }
+            subscription.connection.enqueuePush(push);
+        }
+    }
+
+    private static DataOutput2 createFailureResponse(Throwable t) throws IOException {
+        final DataOutput2 out = new DataOutput2();
+        out.writeByte(CacheProtocol.STATUS_FAILURE);
+        out.writeUTF(t.getClass().getSimpleName() + ": " + t.getMessage());
+        return out;
     }
 
-    private class RequestServer extends Thread {
-        private final Socket socket;
+    /**
+     * A cache region that has been opened by a client connection and is referred to by its handle.
+     */
+    private static class OpenRegion {
+        /**
+         * Identifies the region across connections.
+         */
+        private final String regionId;
+        private final File cacheFile;
+        private final String cacheName;
+        private final String cacheRegion;
+        private final String keySerializerName;
+        private final String valueSerializerName;
+        private final GroupSerializer<Object> keySerializer;
+        private final GroupSerializer<Object> valueSerializer;
+        private final CacheMapSettings regionSettings;
+        private final Map<Object, Object> cache;
 
-        public RequestServer(Socket socket) {
-            this.socket = socket;
+        private OpenRegion(String regionId, File cacheFile, String cacheName, String cacheRegion, String keySerializerName, String valueSerializerName, GroupSerializer<Object> keySerializer, GroupSerializer<Object> valueSerializer, CacheMapSettings regionSettings, Map<Object, Object> cache) {
+            this.regionId = regionId;
+            this.cacheFile = cacheFile;
+            this.cacheName = cacheName;
+            this.cacheRegion = cacheRegion;
+            this.keySerializerName = keySerializerName;
+            this.valueSerializerName = valueSerializerName;
+            this.keySerializer = keySerializer;
+            this.valueSerializer = valueSerializer;
+            this.regionSettings = regionSettings;
+            this.cache = cache;
+        }
+    }
+
+    /**
+     * Identifies a key of a region by its serialized form.
+     */
+    private static class RegionKey {
+        private final OpenRegion region;
+        private final byte[] keyBytes;
+        /**
+         * The deserialized key, not part of the identity.
+         */
+        private final Object key;
+        private final int hash;
+
+        private RegionKey(OpenRegion region, byte[] keyBytes, Object key) {
+            this.region = region;
+            this.keyBytes = keyBytes;
+            this.key = key;
+            hash = 31 * region.regionId.hashCode() + Arrays.hashCode(keyBytes);
         }
 
         @Override
-        public void run() {
-            final CacheService cacheService = CacheService.getInstance();
-            log.trace("Establishing connection to requesting client");
-            try (ObjectInputStream ois = new ObjectInputStream(socket.getInputStream()); ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream())) {
-                while (true) {
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof RegionKey))
+                return false;
+            final RegionKey other = (RegionKey) o;
+            return hash == other.hash && Arrays.equals(keyBytes, other.keyBytes) && region.regionId.equals(other.region.regionId);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return region.cacheName + "/" + region.cacheRegion + "/" + key;
+        }
+    }
+
+    /**
+     * The lock of a connection on a missing key, see {@link CacheProtocol#OP_GET_OR_LOCK}.
+     */
+    private static class Lock {
+        private final Connection holder;
+        /**
+         * The {@link System#nanoTime()} at which the lock expires.
+         */
+        private final long expirationTime;
+
+        private Lock(Connection holder, long expirationTime) {
+            this.holder = holder;
+            this.expirationTime = expirationTime;
+        }
+    }
+
+    /**
+     * The subscription of a connection to the invalidations of a region it opened with the given handle.
+     */
+    private static class Subscription {
+        private final String regionId;
+        private final Connection connection;
+        private final int handle;
+
+        private Subscription(String regionId, Connection connection, int handle) {
+            this.regionId = regionId;
+            this.connection = connection;
+            this.handle = handle;
+        }
+    }
+
+    /**
+     * A request frame together with the time it has been received for the request latency metrics.
+     */
+    private static class Request {
+        private final byte[] data;
+        private final long receiveTime;
+
+        private Request(byte[] data, long receiveTime) {
+            this.data = data;
+            this.receiveTime = receiveTime;
+        }
+    }
+
+    /**
+     * The state of a single client connection. Reading and writing the channel only happens in the selector thread;
+     * the processing of requests happens in the worker threads.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+        private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        /**
+         * Only accessed by the worker currently processing the requests of this connection.
+         */
+        private final List<OpenRegion> regions = new ArrayList<>();
+        /**
+         * The cache files written by this connection since their last commit. They are committed when the
+         * connection is closed.
+         */
+        private final Set<File> dirtyFiles = ConcurrentHashMap.newKeySet();
+        /**
+         * The invalidation subscriptions of this connection, removed when the connection is closed.
+         */
+        private final Queue<Subscription> ownSubscriptions = new ConcurrentLinkedQueue<>();
+        private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private int open(String cacheName, String cacheRegion, String keySerializerName, String valueSerializerName, CacheMapSettings settings, boolean subscribe) {
+            final GroupSerializer<Object> keySerializer = CacheAccess.getSerializerByName(keySerializerName);
+            final GroupSerializer<Object> valueSerializer = CacheAccess.getSerializerByName(valueSerializerName);
+            final File cacheFile = new File(cacheDir.getAbsolutePath(), cacheName);
+            final String regionId = cacheFile.getAbsolutePath() + '\u0000' + cacheRegion;
+            final Object requestedMapType = settings.get(CacheMapSettings.MAP_TYPE);
+            if (requestedMapType != null && requestedMapType != CacheService.CacheMapDataType.HTREE && requestedMapType != CacheService.CacheMapDataType.BTREE)
+                throw new IllegalArgumentException("The map type " + requestedMapType + " is not supported by the cache server.");
+            final CacheMapSettings firstSettings = regionSettings.computeIfAbsent(regionId, k -> settings);
+            if (firstSettings != settings && !isSameSettings(firstSettings, settings))
+                log.warn("The region {} of cache {} is requested with the settings {} but has already been opened with the settings {} which stay in effect.", cacheRegion, cacheName, settings, firstSettings);
+            final CacheService.CacheMapDataType mapType = (CacheService.CacheMapDataType) firstSettings.getOrDefault(CacheMapSettings.MAP_TYPE, CacheService.CacheMapDataType.HTREE);
+            final Map<Object, Object> cache;
+            switch (mapType) {
+                case HTREE:
+                    final CacheMapSettings htreeSettings = new CacheMapSettings();
+                    htreeSettings.putAll(firstSettings);
+                    if (htreeSettings.containsKey(CacheMapSettings.EXPIRE_EXECUTOR_PERIOD))
+                        htreeSettings.put(CacheMapSettings.EXPIRE_EXECUTOR, getExpireExecutor());
+                    cache = CacheService.getInstance().getHTreeCache(cacheFile, cacheRegion, keySerializer, valueSerializer, htreeSettings);
+                    break;
+                case BTREE:
+                    cache = CacheService.getInstance().getBTreeCache(cacheFile, cacheRegion, keySerializer, valueSerializer, firstSettings);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected map type " + mapType + ".");
+            }
+            final OpenRegion region = new OpenRegion(regionId, cacheFile, cacheName, cacheRegion, keySerializerName, valueSerializerName, keySerializer, valueSerializer, firstSettings, cache);
+            regions.add(region);
+            final int handle = regions.size() - 1;
+            if (subscribe) {
+                final Subscription subscription = new Subscription(region.regionId, this, handle);
+                ownSubscriptions.add(subscription);
+                subscriptions.computeIfAbsent(region.regionId, k -> ConcurrentHashMap.newKeySet()).add(subscription);
+                // The connection might have been closed concurrently without seeing the new subscription
+                if (closed.get())
+                    removeSubscriptions();
+            }
+            return handle;
+        }
+
+        private void removeSubscriptions() {
+            Subscription subscription;
+            while ((subscription = ownSubscriptions.poll()) != null) {
+                final Set<Subscription> subscribers = subscriptions.get(subscription.regionId);
+                if (subscribers != null)
+                    subscribers.remove(subscription);
+            }
+        }
+
+        private OpenRegion getRegion(int handle) {
+            if (handle < 0 || handle >= regions.size())
+                throw new IllegalArgumentException("Unknown cache region handle " + handle + ".");
+            return regions.get(handle);
+        }
+
+        private void read() throws IOException {
+            final int read = channel.read(readBuffer);
+            if (read < 0) {
+                log.debug("Client disconnected.");
+                close();
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.remaining() >= 4) {
+                final int length = readBuffer.getInt(readBuffer.position());
+                CacheProtocol.checkFrameLength(length);
+                if (readBuffer.remaining() < 4 + length)
+                    break;
+                readBuffer.getInt();
+                final byte[] request = new byte[length];
+                readBuffer.get(request);
+                requests.add(new Request(request, metrics.recordRequestReceived(4 + length)));
+            }
+            readBuffer.compact();
+            // Make room for a frame that does not fit into the current buffer
+            if (readBuffer.position() >= 4) {
+                final int length = readBuffer.getInt(0);
+                if (length + 4 > readBuffer.capacity()) {
+                    final ByteBuffer largerBuffer = ByteBuffer.allocate(length + 4);
+                    readBuffer.flip();
+                    largerBuffer.put(readBuffer);
+                    readBuffer = largerBuffer;
+                }
+            }
+            if (!requests.isEmpty())
+                schedule();
+        }
+
+        private void write() throws IOException {
+            ByteBuffer response;
+            while ((response = responses.peek()) != null) {
+                channel.write(response);
+                if (response.hasRemaining())
+                    return;
+                responses.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true))
+                executeProcessRequests();
+        }
+
+        /**
+         * Processes the queued requests in a worker thread. After the server has been shut down, the requests are not
+         * answered anymore and the connection is closed.
+         */
+        private void executeProcessRequests() {
+            try {
+                executorService.execute(this::processRequests);
+            } catch (RejectedExecutionException e) {
+                log.debug("Closing the connection because the cache server has been shut down.");
+                close();
+            }
+        }
+
+        private void processRequests() {
+            boolean suspended = false;
+            try {
+                Request request;
+                while (!suspended && (request = requests.poll()) != null) {
+                    metrics.recordRequestDequeued();
+                    final long receiveTime = request.receiveTime;
                     try {
-                        log.trace("Reading request data.");
-                        final String method = ois.readUTF();
-                        final String cacheName = ois.readUTF();
-                        final String cacheRegion = ois.readUTF();
-                        final String keySerializerName = ois.readUTF();
-                        final String valueSerializerName = ois.readUTF();
-                        final Object key = ois.readObject();
-
-                        // The key being null is the commit-signal
-                        if (key != null) {
-                            Object value = null;
-                            if (method.equalsIgnoreCase(METHOD_PUT))
-                                value = ois.readObject();
-
-                            GroupSerializer<?> keySerializer = CacheAccess.getSerializerByName(keySerializerName);
-                            GroupSerializer<?> valueSerializer = CacheAccess.getSerializerByName(valueSerializerName);
-                            final File cacheFile = new File(cacheDir.getAbsolutePath(), cacheName);
-                            final HTreeMap cache = cacheService.getCache(cacheFile, cacheRegion, keySerializer, valueSerializer);
-
-                            if (method.equalsIgnoreCase(METHOD_GET)) {
-                                final Object o = cache.get(key);
-                                if (o != null)
-                                    log.trace("Returning data for key '{}' from cache {}, {}.", key, cacheName, cacheRegion);
-                                else
-                                    log.trace("No cached data available for key '{}' in cache {}, {}.", key, cacheName, cacheRegion);
-                                oos.writeObject(o);
-                                oos.flush();
-                            } else if (method.equalsIgnoreCase(METHOD_PUT)) {
-                                if (log.isTraceEnabled()) {
-                                    String valueString = value == null ? null : value.toString();
-                                    if (valueString != null)
-                                        valueString = valueString.substring(0, Math.min(valueString.length(), 79));
-                                    log.trace("Putting data '{}' for key '{}' into the cache {}, {}.", valueString, key, cacheName, cacheRegion);
-                                }
-                                cache.put(key, value);
-                                log.trace("Sending OK response");
-                                oos.writeUTF("OK");
-                                oos.flush();
+                        if (request.data.length > 0 && request.data[0] == CacheProtocol.OP_COMMIT) {
+                            final CompletableFuture<DataOutput2> response = handleCommit(this, request.data);
+                            if (response.isDone()) {
+                                enqueueCommitResponse(response, receiveTime);
+                            } else {
+                                // Do not block the worker while waiting for the commit. Instead, the processing of
+                                // further requests of this connection is suspended to keep the order of the
+                                // responses. The 'scheduled' flag stays set until processing is resumed.
+                                suspended = true;
+                                response.whenComplete((r, e) -> {
+                                    enqueueCommitResponse(response, receiveTime);
+                                    executeProcessRequests();
+                                });
                             }
                         } else {
-                            // This is a commit request; we can currently only commit all caches at once.
-                            CacheService.getInstance().commitAllCaches();
-                        }
-                    } catch (SocketException e) {
-                        if (e.getMessage().contains("Broken pipe")) {
-                            log.debug("Client disconnected (Broken pipe).");
-                        } else {
-                            log.error("Connection error", e);
+                            enqueueResponse(handleRequest(this, request.data), receiveTime, false);
                         }
                     } catch (Throwable e) {
-                        log.error("Exception occurred. Sending an error message to the client and terminating the connection.", e);
-                        try {
-                            oos.writeUTF(RESPONSE_FAILURE);
-                            oos.writeObject(e);
-                            oos.flush();
-                        } catch (IOException e1) {
-                            // OK, so we couldn't even send the error ignore it
-                        }
-                        oos.close();
-                        ois.close();
-                        break;
+                        enqueueFailure(e, receiveTime);
                     }
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
             } finally {
-                try {
-                    cacheService.commitAllCaches();
-                    socket.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                if (!suspended) {
+                    scheduled.set(false);
+                    if (!requests.isEmpty())
+                        schedule();
                 }
             }
         }
+
+        private void enqueueCommitResponse(CompletableFuture<DataOutput2> response, long receiveTime) {
+            try {
+                enqueueResponse(response.join(), receiveTime, false);
+            } catch (CompletionException e) {
+                enqueueFailure(e.getCause(), receiveTime);
+            }
+        }
+
+        private void enqueueFailure(Throwable e, long receiveTime) {
+            log.error("Exception occurred. Sending an error message to the client.", e);
+            try {
+                enqueueResponse(createFailureResponse(e), receiveTime, true);
+            } catch (IOException e1) {
+                // OK, so we couldn't even create the error message; the client will wait forever unless we close the connection
+                close();
+            }
+        }
+
+        private void enqueueResponse(DataOutput2 response, long receiveTime, boolean failure) {
+            final ByteBuffer frame = ByteBuffer.allocate(4 + response.pos);
+            frame.putInt(response.pos);
+            frame.put(response.buf, 0, response.pos);
+            frame.flip();
+            responses.add(frame);
+            metrics.recordResponse(receiveTime, frame.limit(), failure);
+            enqueueWriteRegistration();
+        }
+
+        /**
+         * Enqueues a message that is not a response to a request of this connection.
+         */
+        private void enqueuePush(DataOutput2 push) {
+            if (closed.get())
+                return;
+            final ByteBuffer frame = ByteBuffer.allocate(4 + push.pos);
+            frame.putInt(push.pos);
+            frame.put(push.buf, 0, push.pos);
+            frame.flip();
+            responses.add(frame);
+            metrics.recordInvalidationPushed(frame.limit());
+            enqueueWriteRegistration();
+        }
+
+        private void enqueueWriteRegistration() {
+            pendingWrites.add(this);
+            final Selector selector = CacheServer.this.selector;
+            if (selector != null)
+                selector.wakeup();
+        }
+
+        private void close() {
+            if (!closed.compareAndSet(false, true))
+                return;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Error when closing client channel", e);
+            }
+            numConnections.decrementAndGet();
+            removeSubscriptions();
+            // Other clients waiting for values computed by this client compute them themselves
+            locks.values().removeIf(lock -> lock.holder == this);
+            // Requests that will not be answered anymore do not count as queued
+            while (requests.poll() != null)
+                metrics.recordRequestDequeued();
+            for (File dirtyFile : dirtyFiles)
+                groupCommitScheduler.requestCommit(dirtyFile);
+        }
     }
 }
@@ -0,0 +1,187 @@
+package de.julielab.java.utilities.cache;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Usage statistics of a {@link CacheServer}.</p>
+ * <p>Like the {@link CacheMetrics} of the client side, the statistics are only collected if the system property
+ * {@link CacheMetrics#METRICS_ENABLED_PROP} is set to <tt>true</tt> when the server is created. The metrics are then
+ * registered with JMX under the name
+ * <tt>de.julielab.java.utilities.cache:type=CacheServer,port=&lt;port&gt;</tt>. The request latency is measured
+ * from the time a request has been read completely until its response has been enqueued for sending, i.e. it
+ * includes the time the request waited for a worker thread.</p>
+ * <p>The most frequently requested keys are tracked with a {@link HotKeyTracker} over the keys of all get requests.</p>
+ */
+public class CacheServerMetrics implements CacheServerMetricsMXBean {
+    /**
+     * The number of keys counted by the hot key tracker. Much larger than the number of reported keys to keep their
+     * counts accurate.
+     */
+    private static final int HOT_KEY_CAPACITY = 1000;
+    private static final int NUM_REPORTED_HOT_KEYS = 20;
+    private final boolean enabled;
+    private final IntSupplier numConnections;
+    private final LongAdder queuedRequests = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder invalidationsPushed = new LongAdder();
+    private final LongAdder coalescedGets = new LongAdder();
+    private final HotKeyTracker<Object> hotKeys = new HotKeyTracker<>(HOT_KEY_CAPACITY);
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LatencyHistogram requestLatency = new LatencyHistogram();
+
+    CacheServerMetrics(boolean enabled, IntSupplier numConnections) {
+        this.enabled = enabled;
+        this.numConnections = numConnections;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The current {@link System#nanoTime()} if metrics are enabled, <tt>0</tt> otherwise.
+     */
+    long recordRequestReceived(int numBytes) {
+        if (!enabled)
+            return 0;
+        queuedRequests.increment();
+        bytesReceived.add(numBytes);
+        return System.nanoTime();
+    }
+
+    void recordRequestDequeued() {
+        if (enabled)
+            queuedRequests.decrement();
+    }
+
+    void recordResponse(long receiveTime, int numBytes, boolean failure) {
+        if (!enabled)
+            return;
+        requestLatency.record(System.nanoTime() - receiveTime);
+        requests.increment();
+        bytesSent.add(numBytes);
+        if (failure)
+            failedRequests.increment();
+    }
+
+    void recordCommit() {
+        if (enabled)
+            commits.increment();
+    }
+
+    void recordInvalidationPushed(int numBytes) {
+        if (!enabled)
+            return;
+        invalidationsPushed.increment();
+        bytesSent.add(numBytes);
+    }
+
+    /**
+     * Counts a get request that has been answered with the result of a concurrent get request of the same key.
+     */
+    void recordCoalescedGet() {
+        if (enabled)
+            coalescedGets.increment();
+    }
+
+    /**
+     * Counts a request of a key for the hot key statistics.
+     *
+     * @param key Identifies the key and its region. Its <tt>toString()</tt> is used for the JMX view.
+     */
+    void recordKeyRequest(Object key) {
+        if (enabled)
+            hotKeys.record(key);
+    }
+
+    @Override
+    public int getNumConnections() {
+        return numConnections.getAsInt();
+    }
+
+    @Override
+    public long getQueuedRequests() {
+        return queuedRequests.sum();
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getFailedRequests() {
+        return failedRequests.sum();
+    }
+
+    @Override
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    @Override
+    public long getInvalidationsPushed() {
+        return invalidationsPushed.sum();
+    }
+
+    @Override
+    public long getCoalescedGets() {
+        return coalescedGets.sum();
+    }
+
+    /**
+     * @param n The maximum number of keys to return.
+     * @return The most frequently requested keys, the most frequent first.
+     */
+    public List<HotKeyTracker.HotKey<Object>> getHotKeys(int n) {
+        return hotKeys.getHotKeys(n);
+    }
+
+    @Override
+    public List<String> getHotKeys() {
+        return hotKeys.getHotKeys(NUM_REPORTED_HOT_KEYS).stream().map(HotKeyTracker.HotKey::toString).collect(Collectors.toList());
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public LatencyHistogram getRequestLatency() {
+        return requestLatency;
+    }
+
+    @Override
+    public double getRequestLatencyMeanMicros() {
+        return requestLatency.getMeanMicros();
+    }
+
+    @Override
+    public double getRequestLatency99thPercentileMicros() {
+        return requestLatency.getPercentileMicros(99);
+    }
+
+    @Override
+    public void reset() {
+        requests.reset();
+        failedRequests.reset();
+        commits.reset();
+        invalidationsPushed.reset();
+        coalescedGets.reset();
+        hotKeys.reset();
+        bytesReceived.reset();
+        bytesSent.reset();
+        requestLatency.reset();
+    }
+}
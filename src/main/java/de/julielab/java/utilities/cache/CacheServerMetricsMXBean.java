@@ -0,0 +1,37 @@
+package de.julielab.java.utilities.cache;
+
+import java.util.List;
+
+/**
+ * The JMX view of the {@link CacheServerMetrics}. Latencies are given in microseconds.
+ */
+public interface CacheServerMetricsMXBean {
+    int getNumConnections();
+
+    long getQueuedRequests();
+
+    long getRequests();
+
+    long getFailedRequests();
+
+    long getCommits();
+
+    long getInvalidationsPushed();
+
+    long getCoalescedGets();
+
+    /**
+     * @return The most frequently requested keys with their request counts, see {@link HotKeyTracker}.
+     */
+    List<String> getHotKeys();
+
+    long getBytesReceived();
+
+    long getBytesSent();
+
+    double getRequestLatencyMeanMicros();
+
+    double getRequestLatency99thPercentileMicros();
+
+    void reset();
+}
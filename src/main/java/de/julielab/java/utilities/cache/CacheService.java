@@ -1,9 +1,11 @@
 package de.julielab.java.utilities.cache;
 
+import org.mapdb.Atomic;
 import org.mapdb.BTreeMap;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
 import org.mapdb.serializer.GroupSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,7 +13,15 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import static de.julielab.java.utilities.cache.CacheMapSettings.*;
 import static de.julielab.java.utilities.cache.CacheService.CacheType.LOCAL;
@@ -28,10 +38,33 @@ public class CacheService {
     public static final String CACHING_ENABLED_PROP = "de.julielab.java.utilities.cache.enabled";
     private final static Logger log = LoggerFactory.getLogger(CacheService.class);
     private static CacheService service;
-    private final Map<String, DB> dbs = new HashMap<>();
-    private final Set<String> readOnly = new HashSet<>();
+    /**
+     * The opened cache files by canonical path or, for in-memory caches, by name. Each file is opened and committed
+     * under the lock of its own {@link OpenDb}, so different files do not block each other.
+     */
+    private final Map<String, OpenDb> dbs = new ConcurrentHashMap<>();
+    /**
+     * Caches the canonical paths of the cache files to avoid a file system call on each access.
+     */
+    private final Map<File, String> canonicalPaths = new ConcurrentHashMap<>();
+    /**
+     * The in-memory state of the opened regions of local cache files by canonical path and region name, see
+     * {@link LocalCacheRegion}.
+     */
+    private final Map<String, LocalCacheRegion<?, ?>> localRegions = new ConcurrentHashMap<>();
+    /**
+     * The vector files and slot indexes of the opened {@link CacheMapDataType#VECTOR} regions by canonical path and
+     * region name, see {@link VectorRegion}.
+     */
+    private final Map<String, VectorRegion<?>> vectorRegions = new ConcurrentHashMap<>();
     private final CacheConfiguration configuration;
-    private final List<CacheAccess<?, ?>> cacheAccesses = new ArrayList<>();
+    /**
+     * Copy-on-write because cache accesses are rarely created but iterated for commits, warm-ups and access logs
+     * which must not block the creation of other cache accesses.
+     */
+    private final List<CacheAccess<?, ?>> cacheAccesses = new CopyOnWriteArrayList<>();
+    private ExecutorService asyncExecutor;
+    private AutoCommitScheduler autoCommitScheduler;
 
     private CacheService(CacheConfiguration configuration) {
         this.configuration = configuration;
@@ -56,14 +89,102 @@ public class CacheService {
         service = new CacheService(configuration);
     }
 
+    /**
+     * Initializes the cache service unless it has already been initialized.
+     *
+     * @param configuration The configuration to initialize the service with.
+     * @return Whether the service has been initialized by this call.
+     */
+    synchronized static boolean initializeIfAbsent(CacheConfiguration configuration) {
+        if (service != null)
+            return false;
+        service = new CacheService(configuration);
+        return true;
+    }
+
     public static void shutdown() {
+        service.awaitAsyncOperations();
+        service.writeAccessLogs();
         service.commitAllCaches();
         service.close();
         service = null;
     }
 
     public void close() {
-        dbs.values().forEach(db -> db.close());
+        synchronized (this) {
+            if (asyncExecutor != null)
+                asyncExecutor.shutdownNow();
+            if (autoCommitScheduler != null)
+                autoCommitScheduler.shutdown();
+        }
+        localRegions.values().forEach(LocalCacheRegion::close);
+        localRegions.clear();
+        vectorRegions.values().forEach(VectorRegion::close);
+        vectorRegions.clear();
+        dbs.values().forEach(OpenDb::close);
+        if (configuration != null && (configuration.getCacheType() == CacheType.REMOTE || configuration.getCacheType() == CacheType.TIERED))
+            RemoteCacheConnectionPool.closeAll();
+    }
+
+    /**
+     * Returns the executor used by {@link LocalFileCacheAccess} to perform {@link CacheAccess#getAsync(Object)} and
+     * {@link CacheAccess#putAsync(Object, Object)} off the calling thread. The executor uses daemon threads and is
+     * created on first use.
+     *
+     * @return The executor for asynchronous cache operations.
+     */
+    synchronized ExecutorService getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            final AtomicInteger threadNum = new AtomicInteger();
+            asyncExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                final Thread t = new Thread(r, "CacheService-async-" + threadNum.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Registers a region of a local cache file for commits in the background, see
+     * {@link CacheMapSettings#AUTO_COMMIT_INTERVAL} and {@link CacheMapSettings#AUTO_COMMIT_DIRTY_ENTRIES}.
+     *
+     * @param preparer Writes the data buffered by the region to the cache file, called before each commit.
+     * @return The object to report the writes of the region to or <tt>null</tt> if no automatic commits are
+     * configured in <tt>mapSettings</tt>.
+     */
+    AutoCommitScheduler.FileCommits registerAutoCommit(File dbFile, Runnable preparer, Map<String, Object> mapSettings) {
+        final long interval = ((Number) mapSettings.getOrDefault(AUTO_COMMIT_INTERVAL, 0)).longValue();
+        final long dirtyEntries = ((Number) mapSettings.getOrDefault(AUTO_COMMIT_DIRTY_ENTRIES, 0)).longValue();
+        if (interval <= 0 && dirtyEntries <= 0)
+            return null;
+        final AutoCommitScheduler scheduler;
+        synchronized (this) {
+            if (autoCommitScheduler == null)
+                autoCommitScheduler = new AutoCommitScheduler(this::commitCache);
+            scheduler = autoCommitScheduler;
+        }
+        return scheduler.register(dbFile, preparer, interval, dirtyEntries);
+    }
+
+    /**
+     * Lets the asynchronous operations that have already been submitted finish so that their writes are included
+     * in the final commit.
+     */
+    private void awaitAsyncOperations() {
+        final ExecutorService executor;
+        synchronized (this) {
+            executor = asyncExecutor;
+        }
+        if (executor == null)
+            return;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES))
+                log.warn("Asynchronous cache operations did not finish within one minute. Their results might be lost.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -74,8 +195,8 @@ public class CacheService {
      *
      * @param cacheId             An arbitrary name that names the resulting cache file.
      * @param cacheRegion         An arbitrary name of a region in within the given cacheId.
-     * @param keySerializerName   One of {@link CacheAccess#STRING}, {@link CacheAccess#JAVA}, {@link CacheAccess#BYTEARRAY} or {@link CacheAccess#DOUBLEARRAY}.
-     * @param valueSerializerName One of {@link CacheAccess#STRING}, {@link CacheAccess#JAVA}, {@link CacheAccess#BYTEARRAY} or {@link CacheAccess#DOUBLEARRAY}.
+     * @param keySerializerName   The name of a serializer in the {@link SerializerRegistry}, e.g. {@link CacheAccess#STRING}.
+     * @param valueSerializerName The name of a serializer in the {@link SerializerRegistry}, e.g. {@link CacheAccess#STRING}.
      * @param <K>                 The cache key type.
      * @param <V>                 The cache value type.
      * @return An object granting access to the requested cache.
@@ -92,9 +213,9 @@ public class CacheService {
      *
      * @param cacheId             An arbitrary name that names the resulting cache file.
      * @param cacheRegion         An arbitrary name of a region in within the given cacheId.
-     * @param keySerializerName   One of {@link CacheAccess#STRING}, {@link CacheAccess#JAVA}, {@link CacheAccess#BYTEARRAY} or {@link CacheAccess#DOUBLEARRAY}.
-     * @param valueSerializerName One of {@link CacheAccess#STRING}, {@link CacheAccess#JAVA}, {@link CacheAccess#BYTEARRAY} or {@link CacheAccess#DOUBLEARRAY}.
-     * @param memCacheSize        The size of the in-memory cache buffer.
+     * @param keySerializerName   The name of a serializer in the {@link SerializerRegistry}, e.g. {@link CacheAccess#STRING}.
+     * @param valueSerializerName The name of a serializer in the {@link SerializerRegistry}, e.g. {@link CacheAccess#STRING}.
+     * @param memCacheSize        The maximum number of entries in the in-memory front cache.
      * @param <K>                 The cache key type.
      * @param <V>                 The cache value type.
      * @return An object granting access to the requested cache.
@@ -109,62 +230,212 @@ public class CacheService {
                 ret = new LocalFileCacheAccess<>(cacheId, cacheRegion, keySerializerName, valueSerializerName, configuration.getLocalCacheDir(), memCacheSize);
                 break;
             case REMOTE:
-                ret = new RemoteCacheAccess<>(cacheId, cacheRegion, keySerializerName, valueSerializerName, configuration.getRemoteCacheHost(), configuration.getRemoteCachePort(), memCacheSize);
+                if (configuration.getRemoteCacheNodes().size() > 1)
+                    ret = new ShardedRemoteCacheAccess<>(cacheId, cacheRegion, keySerializerName, valueSerializerName, configuration.getRemoteCacheNodes(), configuration.getHashFunction(), memCacheSize);
+                else
+                    ret = new RemoteCacheAccess<>(cacheId, cacheRegion, keySerializerName, valueSerializerName, configuration.getRemoteCacheNodes().get(0), memCacheSize, 0);
+                break;
+            case TIERED:
+                ret = new TieredCacheAccess<>(cacheId, cacheRegion, keySerializerName, valueSerializerName, configuration.getLocalCacheDir(), configuration.getRemoteCacheNodes(), configuration.getHashFunction(), new CacheMapSettings(MEM_CACHE_SIZE, memCacheSize));
                 break;
             default:
                 throw new IllegalArgumentException("Unknown cache type '" + configuration.getCacheType() + "' in the configuration.");
         }
-        synchronized (cacheAccesses) {
-            cacheAccesses.add(ret);
-        }
+        cacheAccesses.add(ret);
         return ret;
     }
 
+    /**
+     * <p>Acquires a cache object with the given settings.</p>
+     * <p>If {@link CacheMapSettings#WARM_UP_BUDGET} is set, the front cache is preloaded in the background with the
+     * keys recorded in the access log of the previous run, see {@link CacheMapSettings#ACCESS_LOG_SIZE}.</p>
+     *
+     * @param cacheId             An arbitrary name that names the resulting cache file.
+     * @param cacheRegion         An arbitrary name of a region in within the given cacheId.
+     * @param keySerializerName   The name of a serializer in the {@link SerializerRegistry}, e.g. {@link CacheAccess#STRING}.
+     * @param valueSerializerName The name of a serializer in the {@link SerializerRegistry}, e.g. {@link CacheAccess#STRING}.
+     * @param mapSettings         The settings of the cache map and the in-memory caches.
+     * @param <K>                 The cache key type.
+     * @param <V>                 The cache value type.
+     * @return An object granting access to the requested cache.
+     */
     public <K, V> CacheAccess<K, V> getCacheAccess(String cacheId, String cacheRegion, String keySerializerName, String valueSerializerName, CacheMapSettings mapSettings) {
         CacheAccess<K, V> ret;
         String propertyValue = System.getProperty(CACHING_ENABLED_PROP);
         if (propertyValue != null && !Boolean.parseBoolean(propertyValue))
             return new NoOpCacheAccess<>(cacheId, cacheRegion);
+        if (mapSettings.containsKey(ACCESS_LOG_SIZE) && !mapSettings.containsKey(ACCESS_LOG_DIR) && configuration.getLocalCacheDir() != null) {
+            final CacheMapSettings settings = new CacheMapSettings();
+            settings.putAll(mapSettings);
+            settings.put(ACCESS_LOG_DIR, configuration.getLocalCacheDir());
+            mapSettings = settings;
+        }
         switch (configuration.getCacheType()) {
             case LOCAL:
-                ret = new LocalFileCacheAccess<>(cacheId, cacheRegion, keySerializerName, valueSerializerName, configuration.getLocalCacheDir(), mapSettings);
+                if (mapSettings.get(MAP_TYPE) == CacheMapDataType.VECTOR)
+                    ret = (CacheAccess<K, V>) new VectorCacheAccess<K>(cacheId, cacheRegion, keySerializerName, configuration.getLocalCacheDir(), mapSettings);
+                else if (mapSettings.get(MAP_TYPE) == CacheMapDataType.SNAPSHOT)
+                    ret = new SnapshotCacheAccess<>(cacheId, cacheRegion, keySerializerName, valueSerializerName, configuration.getLocalCacheDir(), mapSettings);
+                else
+                    ret = new LocalFileCacheAccess<>(cacheId, cacheRegion, keySerializerName, valueSerializerName, configuration.getLocalCacheDir(), mapSettings);
                 break;
             case REMOTE:
-                ret = new RemoteCacheAccess<>(cacheId, cacheRegion, keySerializerName, valueSerializerName, configuration.getRemoteCacheHost(), configuration.getRemoteCachePort(), (long) mapSettings.get(MEM_CACHE_SIZE));
+                if (mapSettings.get(MAP_TYPE) == CacheMapDataType.VECTOR || mapSettings.get(MAP_TYPE) == CacheMapDataType.SNAPSHOT)
+                    throw new IllegalArgumentException("The map type " + mapSettings.get(MAP_TYPE) + " is only supported by local caches.");
+                if (configuration.getRemoteCacheNodes().size() > 1)
+                    ret = new ShardedRemoteCacheAccess<>(cacheId, cacheRegion, keySerializerName, valueSerializerName, configuration.getRemoteCacheNodes(), configuration.getHashFunction(), mapSettings);
+                else
+                    ret = new RemoteCacheAccess<>(cacheId, cacheRegion, keySerializerName, valueSerializerName, configuration.getRemoteCacheNodes().get(0), mapSettings);
+                break;
+            case TIERED:
+                if (mapSettings.get(MAP_TYPE) == CacheMapDataType.VECTOR || mapSettings.get(MAP_TYPE) == CacheMapDataType.SNAPSHOT)
+                    throw new IllegalArgumentException("The map type " + mapSettings.get(MAP_TYPE) + " is only supported by local caches.");
+                ret = new TieredCacheAccess<>(cacheId, cacheRegion, keySerializerName, valueSerializerName, configuration.getLocalCacheDir(), configuration.getRemoteCacheNodes(), configuration.getHashFunction(), mapSettings);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown cache type '" + configuration.getCacheType() + "' in the configuration.");
         }
-        synchronized (cacheAccesses) {
-            cacheAccesses.add(ret);
-        }
+        cacheAccesses.add(ret);
+        final long warmUpBudget = ((Number) mapSettings.getOrDefault(WARM_UP_BUDGET, 0)).longValue();
+        if (warmUpBudget > 0)
+            ret.warmUp(warmUpBudget);
         return ret;
     }
 
-    boolean isDbReadOnly(File file) {
-        try {
-            return readOnly.contains(file.getCanonicalPath());
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        }
+    /**
+     * Preloads the front caches of all cache accesses acquired so far in the background with the keys recorded in
+     * their access logs, see {@link CacheMapSettings#ACCESS_LOG_SIZE}.
+     *
+     * @param budgetMillis The maximum time in milliseconds to spend on each cache access.
+     * @return A future that is completed with the total number of loaded values.
+     */
+    public CompletableFuture<Integer> warmUpAllCaches(long budgetMillis) {
+        CompletableFuture<Integer> ret = CompletableFuture.completedFuture(0);
+        for (CacheAccess<?, ?> ca : cacheAccesses)
+            ret = ret.thenCombine(ca.warmUp(budgetMillis), Integer::sum);
+        return ret;
     }
 
-    synchronized void commitCache(File dbFile) {
-        if (!isDbReadOnly(dbFile)) {
+    /**
+     * Writes the access logs of all cache accesses that have one, see {@link CacheMapSettings#ACCESS_LOG_SIZE}. This
+     * happens automatically on {@link #shutdown()}.
+     */
+    public void writeAccessLogs() {
+        cacheAccesses.forEach(CacheAccess::writeAccessLog);
+    }
+
+    private String getCanonicalPath(File file) {
+        return canonicalPaths.computeIfAbsent(file, f -> {
             try {
-                if (dbs.containsKey(dbFile.getCanonicalPath()))
-                    dbs.get(dbFile.getCanonicalPath()).commit();
+                return f.getCanonicalPath();
             } catch (IOException e) {
-                log.error("Could not commit db at {}.", dbFile, e);
+                throw new IllegalStateException(e);
             }
-        } else
+        });
+    }
+
+    boolean isDbReadOnly(File file) {
+        final OpenDb openDb = dbs.get(getCanonicalPath(file));
+        return openDb != null && openDb.readOnly;
+    }
+
+    /**
+     * Returns the in-memory state of a region of a local cache file that is shared by all accesses to the region and
+     * registers the calling access. Each access must call {@link #releaseLocalRegion(File, String, LocalCacheRegion)}
+     * when it is closed.
+     *
+     * @param factory Creates the state if the region has not been accessed yet or has been closed.
+     */
+    <K, V> LocalCacheRegion<K, V> acquireLocalRegion(File dbFile, String regionName, Supplier<LocalCacheRegion<K, V>> factory) {
+        return (LocalCacheRegion<K, V>) localRegions.compute(getCanonicalPath(dbFile) + File.separator + regionName, (key, region) -> {
+            if (region == null)
+                region = factory.get();
+            region.retain();
+            return region;
+        });
+    }
+
+    /**
+     * @return The in-memory state of a region of a local cache file if the region has open accesses, otherwise
+     * <tt>null</tt>. Does not register an access.
+     */
+    <K, V> LocalCacheRegion<K, V> getOpenLocalRegion(File dbFile, String regionName) {
+        return (LocalCacheRegion<K, V>) localRegions.get(getCanonicalPath(dbFile) + File.separator + regionName);
+    }
+
+    /**
+     * Unregisters an access to a region, see {@link #acquireLocalRegion(File, String, Supplier)}. When the last access
+     * is released, the state of the region is closed and discarded.
+     *
+     * @return Whether the region has been closed, i.e. there are no other open accesses to it.
+     */
+    boolean releaseLocalRegion(File dbFile, String regionName, LocalCacheRegion<?, ?> region) {
+        localRegions.computeIfPresent(getCanonicalPath(dbFile) + File.separator + regionName, (key, r) -> r == region && r.release() ? null : r);
+        return region.isClosed();
+    }
+
+    /**
+     * Returns the vector file and slot index of a {@link CacheMapDataType#VECTOR} region that are shared by all
+     * accesses to the region and registers the calling access. Each access must call
+     * {@link #releaseVectorRegion(File, String, VectorRegion)} when it is closed.
+     *
+     * @param factory Opens the vector file if the region has not been accessed yet or has been closed.
+     */
+    <K> VectorRegion<K> acquireVectorRegion(File dbFile, String regionName, Supplier<VectorRegion<K>> factory) {
+        return (VectorRegion<K>) vectorRegions.compute(getCanonicalPath(dbFile) + File.separator + regionName, (key, region) -> {
+            if (region == null || region.isClosed())
+                region = factory.get();
+            region.retain();
+            return region;
+        });
+    }
+
+    /**
+     * Unregisters an access to a vector region, see {@link #acquireVectorRegion(File, String, Supplier)}. When the
+     * last access is released, the vector file and the index are closed.
+     */
+    void releaseVectorRegion(File dbFile, String regionName, VectorRegion<?> region) {
+        vectorRegions.computeIfPresent(getCanonicalPath(dbFile) + File.separator + regionName, (key, r) -> r == region && r.release() ? null : r);
+    }
+
+    /**
+     * Commits the given cache file. Commits of different cache files may run concurrently.
+     */
+    void commitCache(File dbFile) {
+        final OpenDb openDb = dbs.get(getCanonicalPath(dbFile));
+        if (openDb == null)
+            return;
+        if (openDb.readOnly)
             log.debug("Cannot commit cache {} because it is read-only.", dbFile);
+        else
+            openDb.commit();
     }
 
 
     <K, V> BTreeMap<K, V> getBTreeCache(File dbFile, String regionName, GroupSerializer<K> keySerializer, GroupSerializer<V> valueSerializer, Map<String, Object> mapSettings) {
         final DB db = mapSettings.get(PERSIST_TYPE) == CachePersistenceType.MEM ? getMemdb(dbFile.getName()) : getFiledb(dbFile, true);
-        final DB.TreeMapMaker<K, V> dbmaker = db.treeMap(regionName).keySerializer(keySerializer).valueSerializer(valueSerializer);
+        final DB.TreeMapMaker<K, V> dbmaker = getTreeMapMaker(db, regionName, keySerializer, valueSerializer, mapSettings);
+        if (isDbReadOnly(dbFile))
+            return dbmaker.open();
+        return dbmaker.
+                createOrOpen();
+    }
+
+    /**
+     * Returns a sink that creates a new BTree region from entries given in ascending key order. This is much faster
+     * than putting the entries one by one because the tree nodes are written bottom-up without any lookups.
+     *
+     * @return The sink or <tt>null</tt> if the region already exists or the cache file is read-only.
+     */
+    <K, V> DB.TreeMapSink<K, V> getBTreeCacheSink(File dbFile, String regionName, GroupSerializer<K> keySerializer, GroupSerializer<V> valueSerializer, Map<String, Object> mapSettings) {
+        final DB db = mapSettings.get(PERSIST_TYPE) == CachePersistenceType.MEM ? getMemdb(dbFile.getName()) : getFiledb(dbFile, true);
+        if (isDbReadOnly(dbFile) || db.exists(regionName))
+            return null;
+        return getTreeMapMaker(db, regionName, keySerializer, valueSerializer, mapSettings).createFromSink();
+    }
+
+    private <K, V> DB.TreeMapMaker<K, V> getTreeMapMaker(DB db, String regionName, GroupSerializer<K> keySerializer, GroupSerializer<V> valueSerializer, Map<String, Object> mapSettings) {
+        final DB.TreeMapMaker<K, V> dbmaker = db.treeMap(regionName).keySerializer(keySerializer).valueSerializer(CompressingSerializer.wrap(valueSerializer, mapSettings));
         for (String setting : mapSettings.keySet()) {
             switch (setting) {
                 case ENABLE_SIZE_COUNT:
@@ -175,16 +446,13 @@ public class CacheService {
                     break;
             }
         }
-        if (isDbReadOnly(dbFile))
-            return dbmaker.open();
-        return dbmaker.
-                createOrOpen();
+        return dbmaker;
     }
 
     <K, V> HTreeMap<K, V> getHTreeCache(File dbFile, String regionName, GroupSerializer<K> keySerializer, GroupSerializer<V> valueSerializer, Map<String, Object> mapSettings) {
         boolean transactionsSupported = mapSettings.get(MAX_STORE_SIZE) == null;
         final DB db = mapSettings.get(PERSIST_TYPE) == CachePersistenceType.MEM ? getMemdb(dbFile.getName()) : getFiledb(dbFile, transactionsSupported);
-        final DB.HashMapMaker<K, V> dbmaker = db.hashMap(regionName).keySerializer(keySerializer).valueSerializer(valueSerializer);
+        final DB.HashMapMaker<K, V> dbmaker = db.hashMap(regionName).keySerializer(keySerializer).valueSerializer(CompressingSerializer.wrap(valueSerializer, mapSettings));
         for (String setting : mapSettings.keySet()) {
             switch (setting) {
                 case MAX_SIZE:
@@ -234,6 +502,52 @@ public class CacheService {
                 createOrOpen();
     }
 
+    /**
+     * Returns the variable in the cache file that stores the Bloom filter of a region, see
+     * {@link CacheMapSettings#BLOOM_FILTER_EXPECTED_ENTRIES}. The region must have been opened before.
+     *
+     * @return The variable or <tt>null</tt> if the cache file is in memory or read-only and does not contain the
+     * variable.
+     */
+    Atomic.Var<byte[]> getBloomFilterVar(File dbFile, String regionName, Map<String, Object> mapSettings) {
+        return getRegionVar(dbFile, regionName + "$bloomFilter", Serializer.BYTE_ARRAY, mapSettings);
+    }
+
+    /**
+     * Removes the Bloom filter stored for a region, if any, so that it is created from the keys of the region when
+     * the region is opened next. Must be called when the region has been written without updating the filter.
+     */
+    void discardBloomFilter(File dbFile, String regionName) {
+        final OpenDb openDb = dbs.get(getCanonicalPath(dbFile));
+        final DB db = openDb != null ? openDb.db : null;
+        final String varName = regionName + "$bloomFilter";
+        if (db != null && !openDb.readOnly && db.exists(varName))
+            db.atomicVar(varName, Serializer.BYTE_ARRAY).open().set(null);
+    }
+
+    /**
+     * Returns the variable in the cache file that stores the number of allocated vector slots of a
+     * {@link CacheMapDataType#VECTOR} region. The region must have been opened before.
+     *
+     * @return The variable or <tt>null</tt> if the cache file is in memory or read-only and does not contain the
+     * variable.
+     */
+    Atomic.Var<Long> getVectorSlotCountVar(File dbFile, String regionName, Map<String, Object> mapSettings) {
+        return getRegionVar(dbFile, regionName + "$vectorSlots", Serializer.LONG, mapSettings);
+    }
+
+    private <E> Atomic.Var<E> getRegionVar(File dbFile, String varName, Serializer<E> serializer, Map<String, Object> mapSettings) {
+        if (mapSettings.get(PERSIST_TYPE) == CachePersistenceType.MEM)
+            return null;
+        final OpenDb openDb = dbs.get(getCanonicalPath(dbFile));
+        final DB db = openDb != null ? openDb.db : null;
+        if (db == null)
+            throw new IllegalStateException("The cache file " + dbFile + " has not been opened.");
+        if (isDbReadOnly(dbFile))
+            return db.exists(varName) ? db.atomicVar(varName, serializer).open() : null;
+        return db.atomicVar(varName, serializer).createOrOpen();
+    }
+
     <K, V> HTreeMap<K, V> getHTreeCache(File dbFile, String regionName, GroupSerializer<K> keySerializer, GroupSerializer<V> valueSerializer) {
         return getHTreeCache(dbFile, regionName, keySerializer, valueSerializer, Collections.emptyMap());
     }
@@ -252,65 +566,98 @@ public class CacheService {
         return getHTreeCache(dbFile, regionName, keySerializer, valueSerializer);
     }
 
+    /**
+     * Commits all cache files opened by this service, regardless of whether they are accessed via a
+     * {@link CacheAccess} object or directly as done by the {@link CacheServer}.
+     */
+    void commitAllDbs() {
+        for (OpenDb openDb : dbs.values()) {
+            if (!openDb.readOnly)
+                openDb.commit();
+        }
+    }
+
     public void commitAllCaches() {
         // We issue commit commands to all the cache accesses that
-        synchronized (cacheAccesses) {
-            cacheAccesses.stream().filter(ca -> !ca.isClosed()).forEach(CacheAccess::commit);
-        }
+        cacheAccesses.stream().filter(ca -> !ca.isClosed()).forEach(CacheAccess::commit);
     }
 
     private DB getFiledb(File cacheDir, boolean transactionsSupported) {
-        try {
-            DB db = dbs.get(cacheDir.getCanonicalPath());
-            if (db == null || db.isClosed() || db.getStore().isClosed()) {
-                DBMaker.Maker dbmaker;
-                synchronized (this) {
-                    if (!dbs.containsKey(cacheDir.getCanonicalPath()) || (db != null && (db.isClosed() || db.getStore().isClosed()))) {
-                        dbmaker = DBMaker
-                                .fileDB(cacheDir.getAbsolutePath())
-                                .fileMmapEnable()
-                                .closeOnJvmShutdown();
-                        if (transactionsSupported)
-                            dbmaker.transactionEnable();
-                        if (configuration.getCacheType() == LOCAL && configuration.isReadOnly() && cacheDir.exists()) {
-                            dbmaker.readOnly();
-                            readOnly.add(cacheDir.getCanonicalPath());
-                        }
-                        db = dbmaker.make();
-                        dbs.put(cacheDir.getCanonicalPath(), db);
-                    } else {
-                        db = dbs.get(cacheDir.getCanonicalPath());
+        final OpenDb openDb = dbs.computeIfAbsent(getCanonicalPath(cacheDir), path -> new OpenDb());
+        DB db = openDb.db;
+        if (db == null || db.isClosed() || db.getStore().isClosed()) {
+            synchronized (openDb) {
+                db = openDb.db;
+                if (db == null || db.isClosed() || db.getStore().isClosed()) {
+                    final DBMaker.Maker dbmaker = DBMaker
+                            .fileDB(cacheDir.getAbsolutePath())
+                            .fileMmapEnable()
+                            .closeOnJvmShutdown();
+                    if (transactionsSupported)
+                        dbmaker.transactionEnable();
+                    boolean readOnly = false;
+                    if (configuration.getCacheType() == LOCAL && configuration.isReadOnly() && cacheDir.exists()) {
+                        dbmaker.readOnly();
+                        readOnly = true;
                     }
+                    db = dbmaker.make();
+                    openDb.readOnly = readOnly;
+                    openDb.db = db;
                 }
             }
-            return db;
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
         }
+        return db;
     }
 
     private DB getMemdb(String name) {
-        DB db = dbs.get(name);
+        final OpenDb openDb = dbs.computeIfAbsent(name, n -> new OpenDb());
+        DB db = openDb.db;
         if (db == null || db.isClosed()) {
-            DBMaker.Maker dbmaker;
-            synchronized (this) {
-                if (!dbs.containsKey(name) || db.isClosed()) {
-                    dbmaker = DBMaker
+            synchronized (openDb) {
+                db = openDb.db;
+                if (db == null || db.isClosed()) {
+                    db = DBMaker
                             .memoryDB()
-                            .closeOnJvmShutdown();
-                    db = dbmaker.make();
-                    dbs.put(name, db);
-                } else {
-                    db = dbs.get(name);
+                            .closeOnJvmShutdown()
+                            .make();
+                    openDb.db = db;
                 }
             }
         }
         return db;
     }
 
-    public enum CacheType {LOCAL, REMOTE}
+    /**
+     * A cache file opened by the service. Guards the opening and committing of the file.
+     */
+    private static class OpenDb {
+        private volatile DB db;
+        private volatile boolean readOnly;
+
+        private synchronized void commit() {
+            if (db != null && !db.isClosed())
+                db.commit();
+        }
+
+        private synchronized void close() {
+            if (db != null)
+                db.close();
+        }
+    }
+
+    /**
+     * Where the caches are stored. {@link #TIERED} caches keep a local cache file in front of the cache server, see
+     * {@link TieredCacheAccess}.
+     */
+    public enum CacheType {LOCAL, REMOTE, TIERED}
 
-    public enum CacheMapDataType {HTREE, BTREE}
+    /**
+     * The data structure of a cache region. {@link #VECTOR} regions store float vectors of a fixed dimension in a
+     * memory mapped file next to the cache file, see {@link VectorCacheAccess}. They are only available for local
+     * caches. {@link #SNAPSHOT} regions are immutable, memory mapped snapshots of other regions that can be shared
+     * by multiple JVMs on the same host, see {@link SnapshotCacheAccess}. They are only available for local caches, too.
+     */
+    public enum CacheMapDataType {HTREE, BTREE, VECTOR, SNAPSHOT}
 
     public enum CachePersistenceType {MEM, DISC}
 }
@@ -0,0 +1,143 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.serializer.GroupSerializer;
+import org.mapdb.serializer.GroupSerializerObjectArray;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static de.julielab.java.utilities.cache.CacheMapSettings.*;
+
+/**
+ * <p>Wraps the value serializer of a cache region to compress the serialized values with Deflate, see
+ * {@link CacheMapSettings#VALUE_COMPRESSION_LEVEL}.</p>
+ * <p>Values whose serialized form is smaller than the threshold or that do not become smaller by compression are
+ * stored uncompressed. Each value starts with a byte telling whether it is compressed, followed by the packed length of
+ * the serialized value and, if compressed, the packed length of the compressed bytes.</p>
+ * <p>An optional preset dictionary, e.g. a sample of typical values, improves the compression of small values that
+ * share a lot of content with each other. The same dictionary must be given each time the region is opened; the
+ * decompression of a value fails if it has been compressed with another dictionary.</p>
+ */
+class CompressingSerializer<V> extends GroupSerializerObjectArray<V> {
+    private static final byte UNCOMPRESSED = 0;
+    private static final byte DEFLATED = 1;
+    private final GroupSerializer<V> serializer;
+    private final int level;
+    private final int threshold;
+    private final byte[] dictionary;
+    private final ThreadLocal<Deflater> deflater;
+    private final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * @param serializer The serializer of the uncompressed values.
+     * @param level      The Deflate compression level from 1 (fastest) to 9 (smallest).
+     * @param threshold  The minimum size in bytes of a serialized value to be compressed.
+     * @param dictionary The preset dictionary or <tt>null</tt>.
+     */
+    CompressingSerializer(GroupSerializer<V> serializer, int level, int threshold, byte[] dictionary) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("The compression level must be between " + Deflater.BEST_SPEED + " and " + Deflater.BEST_COMPRESSION + " but was " + level + ".");
+        this.serializer = serializer;
+        this.level = level;
+        this.threshold = threshold;
+        this.dictionary = dictionary;
+        this.deflater = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    /**
+     * @return <tt>serializer</tt> wrapped by a compressing serializer if compression is enabled in the settings,
+     * otherwise <tt>serializer</tt> itself.
+     */
+    static <V> GroupSerializer<V> wrap(GroupSerializer<V> serializer, Map<String, Object> mapSettings) {
+        final Object level = mapSettings.get(VALUE_COMPRESSION_LEVEL);
+        if (level == null || ((Number) level).intValue() == Deflater.NO_COMPRESSION)
+            return serializer;
+        final int threshold = ((Number) mapSettings.getOrDefault(VALUE_COMPRESSION_THRESHOLD, 256)).intValue();
+        return new CompressingSerializer<>(serializer, ((Number) level).intValue(), threshold, (byte[]) mapSettings.get(VALUE_COMPRESSION_DICTIONARY));
+    }
+
+    @Override
+    public void serialize(DataOutput2 out, V value) throws IOException {
+        final DataOutput2 serialized = new DataOutput2();
+        serializer.serialize(serialized, value);
+        if (serialized.pos >= threshold) {
+            final Deflater deflater = this.deflater.get();
+            deflater.reset();
+            if (dictionary != null)
+                deflater.setDictionary(dictionary);
+            deflater.setInput(serialized.buf, 0, serialized.pos);
+            deflater.finish();
+            // Only store the compressed bytes if they are smaller than the original
+            final byte[] compressed = new byte[serialized.pos];
+            int compressedLength = 0;
+            while (!deflater.finished() && compressedLength < compressed.length)
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            if (deflater.finished() && compressedLength < serialized.pos) {
+                out.writeByte(DEFLATED);
+                out.packInt(serialized.pos);
+                out.packInt(compressedLength);
+                out.write(compressed, 0, compressedLength);
+                return;
+            }
+        }
+        out.writeByte(UNCOMPRESSED);
+        out.packInt(serialized.pos);
+        out.write(serialized.buf, 0, serialized.pos);
+    }
+
+    @Override
+    public V deserialize(DataInput2 input, int available) throws IOException {
+        final byte type = input.readByte();
+        final byte[] serialized = new byte[input.unpackInt()];
+        if (type == UNCOMPRESSED) {
+            input.readFully(serialized);
+        } else if (type == DEFLATED) {
+            final byte[] compressed = new byte[input.unpackInt()];
+            input.readFully(compressed);
+            final Inflater inflater = this.inflater.get();
+            inflater.reset();
+            inflater.setInput(compressed);
+            try {
+                int length = inflater.inflate(serialized);
+                if (length == 0 && inflater.needsDictionary()) {
+                    if (dictionary == null)
+                        throw new IOException("The cache value has been compressed with a dictionary but no dictionary is configured.");
+                    inflater.setDictionary(dictionary);
+                    length = inflater.inflate(serialized);
+                }
+                if (length != serialized.length)
+                    throw new IOException("Could not decompress a cache value: expected " + serialized.length + " bytes but got " + length + ".");
+            } catch (DataFormatException | IllegalArgumentException e) {
+                throw new IOException("Could not decompress a cache value.", e);
+            }
+        } else {
+            throw new IOException("Unknown compression type " + type + " of a cache value.");
+        }
+        return serializer.deserialize(new DataInput2.ByteArray(serialized), serialized.length);
+    }
+
+    @Override
+    public boolean isTrusted() {
+        return serializer.isTrusted();
+    }
+
+    @Override
+    public boolean equals(V first, V second) {
+        return serializer.equals(first, second);
+    }
+
+    @Override
+    public int hashCode(V value, int seed) {
+        return serializer.hashCode(value, seed);
+    }
+
+    @Override
+    public int compare(V first, V second) {
+        return serializer.compare(first, second);
+    }
+}
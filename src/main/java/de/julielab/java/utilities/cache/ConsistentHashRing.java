@@ -0,0 +1,151 @@
+package de.julielab.java.utilities.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * <p>A consistent hash ring assigning keys to nodes.</p>
+ * <p>Each node is placed on the ring at multiple positions, the virtual nodes. Their number is proportional to the
+ * weight of the node, so a node with weight 2 receives about twice the keys of a node with weight 1. A key is assigned
+ * to the node owning the first virtual node at or after the hash of the key. When a node is added, it only takes over
+ * keys from the other nodes in proportion to its weight; the assignment of all other keys stays the same.</p>
+ * <p>Lookups do not lock. Adding or removing nodes creates a new ring snapshot which is published atomically.</p>
+ *
+ * @param <N> The node type.
+ */
+public class ConsistentHashRing<N> {
+    /**
+     * The default number of virtual nodes per unit of node weight.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+    private final HashFunction hashFunction;
+    private final int virtualNodesPerWeight;
+    private final Map<N, Integer> weights = new LinkedHashMap<>();
+    private volatile NavigableMap<Long, N> ring = new TreeMap<>();
+
+    public ConsistentHashRing() {
+        this(HashFunction.MURMUR64, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param hashFunction          The hash function for keys and virtual node positions.
+     * @param virtualNodesPerWeight The number of virtual nodes per unit of node weight.
+     */
+    public ConsistentHashRing(HashFunction hashFunction, int virtualNodesPerWeight) {
+        if (virtualNodesPerWeight < 1)
+            throw new IllegalArgumentException("The number of virtual nodes must be positive but was " + virtualNodesPerWeight + ".");
+        this.hashFunction = hashFunction;
+        this.virtualNodesPerWeight = virtualNodesPerWeight;
+    }
+
+    /**
+     * Adds a node or changes the weight of an existing node. The positions of the virtual nodes are derived from the
+     * <tt>toString()</tt> representation of the node, so it must identify the node across JVMs.
+     *
+     * @param node   The node to add.
+     * @param weight The positive weight of the node.
+     */
+    public synchronized void addNode(N node, int weight) {
+        if (weight < 1)
+            throw new IllegalArgumentException("The weight of node " + node + " must be positive but was " + weight + ".");
+        weights.put(node, weight);
+        rebuild();
+    }
+
+    public synchronized void removeNode(N node) {
+        if (weights.remove(node) != null)
+            rebuild();
+    }
+
+    private void rebuild() {
+        final NavigableMap<Long, N> newRing = new TreeMap<>();
+        for (Map.Entry<N, Integer> entry : weights.entrySet()) {
+            final String nodeId = entry.getKey().toString();
+            for (int i = 0; i < entry.getValue() * virtualNodesPerWeight; i++) {
+                // On the unlikely collision of two virtual nodes, the position belongs to the node added first
+                newRing.putIfAbsent(hashFunction.hash((nodeId + "#" + i).getBytes(StandardCharsets.UTF_8)), entry.getKey());
+            }
+        }
+        ring = newRing;
+    }
+
+    /**
+     * @param key The serialized key.
+     * @return The node responsible for the key.
+     * @throws IllegalStateException If the ring does not contain any nodes.
+     */
+    public N getNode(byte[] key) {
+        final NavigableMap<Long, N> ring = this.ring;
+        if (ring.isEmpty())
+            throw new IllegalStateException("The hash ring does not contain any nodes.");
+        Map.Entry<Long, N> entry = ring.ceilingEntry(hashFunction.hash(key));
+        if (entry == null)
+            entry = ring.firstEntry();
+        return entry.getValue();
+    }
+
+    /**
+     * @return The nodes of the ring in the order they were added.
+     */
+    public synchronized List<N> getNodes() {
+        return new ArrayList<>(weights.keySet());
+    }
+
+    /**
+     * A hash function mapping bytes to positions on the ring. It must return the same values in every JVM.
+     */
+    @FunctionalInterface
+    public interface HashFunction {
+        /**
+         * The 64 bit MurmurHash2 variant MurmurHash64A by Austin Appleby with seed 0.
+         */
+        HashFunction MURMUR64 = ConsistentHashRing::murmurHash64A;
+
+        long hash(byte[] data);
+    }
+
+    static long murmurHash64A(byte[] data) {
+        final long m = 0xc6a4a7935bd1e995L;
+        final int r = 47;
+        long h = data.length * m;
+        final int numBlocks = data.length / 8;
+        for (int i = 0; i < numBlocks; i++) {
+            final int offset = i * 8;
+            long k = (data[offset] & 0xffL)
+                    | (data[offset + 1] & 0xffL) << 8
+                    | (data[offset + 2] & 0xffL) << 16
+                    | (data[offset + 3] & 0xffL) << 24
+                    | (data[offset + 4] & 0xffL) << 32
+                    | (data[offset + 5] & 0xffL) << 40
+                    | (data[offset + 6] & 0xffL) << 48
+                    | (data[offset + 7] & 0xffL) << 56;
+            k *= m;
+            k ^= k >>> r;
+            k *= m;
+            h ^= k;
+            h *= m;
+        }
+        final int tail = numBlocks * 8;
+        switch (data.length & 7) {
+            case 7:
+                h ^= (data[tail + 6] & 0xffL) << 48;
+            case 6:
+                h ^= (data[tail + 5] & 0xffL) << 40;
+            case 5:
+                h ^= (data[tail + 4] & 0xffL) << 32;
+            case 4:
+                h ^= (data[tail + 3] & 0xffL) << 24;
+            case 3:
+                h ^= (data[tail + 2] & 0xffL) << 16;
+            case 2:
+                h ^= (data[tail + 1] & 0xffL) << 8;
+            case 1:
+                h ^= data[tail] & 0xffL;
+                h *= m;
+        }
+        h ^= h >>> r;
+        h *= m;
+        h ^= h >>> r;
+        return h;
+    }
+}
@@ -0,0 +1,202 @@
+package de.julielab.java.utilities.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>An on-heap cache of deserialized objects in front of a persistent or remote cache.</p>
+ * <p>The cache is backed by Caffeine which reads without locking and evicts entries according to the W-TinyLFU
+ * policy: new entries are only admitted if they are expected to be accessed more frequently than the entries they
+ * would replace. Thus, a scan over many keys that are requested only once does not flush out the frequently used
+ * entries.</p>
+ * <p>The size of the cache is either bounded by the number of entries or by the estimated number of bytes occupied by
+ * the keys and values, see {@link #estimateSize(Object)}. If neither bound is positive, the cache is disabled and
+ * never returns a value.</p>
+ * <p>Values are stored by reference. Modifications of a cached object are visible to all subsequent reads that hit
+ * the front cache.</p>
+ */
+class FrontCache<K, V> {
+    private static final int MAX_ESTIMATION_DEPTH = 8;
+    private final Cache<K, V> cache;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxSize   The maximum number of entries. Ignored if <tt>maxWeight</tt> is positive.
+     * @param maxWeight The maximum estimated size of all entries in bytes.
+     * @param metrics   The metrics to record evictions to.
+     */
+    FrontCache(long maxSize, long maxWeight, CacheMetrics metrics) {
+        if (maxWeight <= 0 && maxSize <= 0) {
+            cache = null;
+            return;
+        }
+        Caffeine<Object, Object> builder = Caffeine.newBuilder();
+        if (maxWeight > 0)
+            builder = builder.maximumWeight(maxWeight).weigher((k, v) -> (int) Math.min(Integer.MAX_VALUE, (long) estimateSize(k) + estimateSize(v)));
+        else
+            builder = builder.maximumSize(maxSize);
+        if (metrics.isEnabled()) {
+            builder = builder.removalListener((k, v, cause) -> {
+                if (cause.wasEvicted())
+                    metrics.recordFrontCacheEviction();
+            });
+        }
+        cache = builder.build();
+    }
+
+    /**
+     * <p>Returns a rough estimate of the number of bytes occupied by <tt>o</tt> on the heap.</p>
+     * <p>Strings, boxed primitives, arrays, collections and maps are measured including their elements. Other objects
+     * are assumed to take 64 bytes.</p>
+     */
+    static int estimateSize(Object o) {
+        return (int) Math.min(Integer.MAX_VALUE, estimateSize(o, 0));
+    }
+
+    private static long estimateSize(Object o, int depth) {
+        if (o == null)
+            return 0;
+        if (depth > MAX_ESTIMATION_DEPTH)
+            return 64;
+        if (o instanceof String)
+            return 40 + 2L * ((String) o).length();
+        if (o instanceof Long || o instanceof Double)
+            return 24;
+        if (o instanceof Number || o instanceof Boolean || o instanceof Character)
+            return 16;
+        if (o instanceof byte[])
+            return 16 + ((byte[]) o).length;
+        if (o instanceof boolean[])
+            return 16 + ((boolean[]) o).length;
+        if (o instanceof char[])
+            return 16 + 2L * ((char[]) o).length;
+        if (o instanceof short[])
+            return 16 + 2L * ((short[]) o).length;
+        if (o instanceof int[])
+            return 16 + 4L * ((int[]) o).length;
+        if (o instanceof float[])
+            return 16 + 4L * ((float[]) o).length;
+        if (o instanceof long[])
+            return 16 + 8L * ((long[]) o).length;
+        if (o instanceof double[])
+            return 16 + 8L * ((double[]) o).length;
+        if (o instanceof Object[]) {
+            long size = 16;
+            for (Object element : (Object[]) o)
+                size += 4 + estimateSize(element, depth + 1);
+            return size;
+        }
+        if (o instanceof Collection) {
+            long size = 48;
+            for (Object element : (Collection<?>) o)
+                size += 32 + estimateSize(element, depth + 1);
+            return size;
+        }
+        if (o instanceof Map) {
+            long size = 64;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) o).entrySet())
+                size += 48 + estimateSize(entry.getKey(), depth + 1) + estimateSize(entry.getValue(), depth + 1);
+            return size;
+        }
+        return 64;
+    }
+
+    boolean isEnabled() {
+        return cache != null;
+    }
+
+    V get(K key) {
+        return cache != null ? cache.getIfPresent(key) : null;
+    }
+
+    /**
+     * @return A modifiable map of the entries of the front cache for those of <tt>keys</tt> that are present.
+     */
+    Map<K, V> getAllPresent(Collection<? extends K> keys) {
+        return cache != null ? new HashMap<>(cache.getAllPresent(keys)) : new HashMap<>();
+    }
+
+    void put(K key, V value) {
+        if (cache != null && value != null)
+            cache.put(key, value);
+    }
+
+    /**
+     * Returns the current invalidation count to be passed to {@link #putLoaded(Object, Object, long)} after loading
+     * a value from the underlying cache.
+     */
+    long getLoadStamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * <p>Adds a value that has been loaded from the underlying cache.</p>
+     * <p>If any key has been invalidated since <tt>loadStamp</tt> was obtained, the loaded value might be outdated
+     * and is removed again. This way, a read that races with a write of the same key cannot leave the old value in
+     * the front cache.</p>
+     */
+    void putLoaded(K key, V value, long loadStamp) {
+        if (cache != null && value != null) {
+            cache.put(key, value);
+            if (invalidations.get() != loadStamp)
+                cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Adds a value that has just been written to the underlying cache. Loads of any key that are in progress are
+     * treated as outdated, see {@link #putLoaded(Object, Object, long)}.
+     */
+    void putWritten(K key, V value) {
+        if (cache != null) {
+            invalidations.incrementAndGet();
+            if (value != null)
+                cache.put(key, value);
+            else
+                cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Removes the entry for <tt>key</tt>. Must be called after the new value has been written to the underlying cache.
+     */
+    void invalidate(K key) {
+        if (cache != null) {
+            invalidations.incrementAndGet();
+            cache.invalidate(key);
+        }
+    }
+
+    void invalidateAll() {
+        if (cache != null) {
+            invalidations.incrementAndGet();
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * @param n The maximum number of keys to return.
+     * @return The keys the eviction policy considers most valuable, i.e. those accessed most frequently and recently,
+     * the most valuable first. Empty if the cache is disabled.
+     */
+    List<K> getHottestKeys(int n) {
+        if (cache == null)
+            return Collections.emptyList();
+        return cache.policy().eviction().map(eviction -> (List<K>) new ArrayList<>(eviction.hottest(n).keySet())).orElse(Collections.emptyList());
+    }
+
+    /**
+     * @return The approximate number of entries in the front cache.
+     */
+    long size() {
+        return cache != null ? cache.estimatedSize() : 0;
+    }
+}
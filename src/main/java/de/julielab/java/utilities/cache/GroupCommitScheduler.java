@@ -0,0 +1,82 @@
+package de.julielab.java.utilities.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * <p>Coalesces commit requests for the same cache file into a single commit.</p>
+ * <p>The first commit request for a file schedules the commit to be executed after the group commit window has
+ * passed. All further requests for the same file that arrive before the commit is executed are answered by this
+ * very commit. Requests arriving while the commit is running schedule a new commit because their writes might not
+ * be covered by the running one.</p>
+ */
+class GroupCommitScheduler {
+    private final static Logger log = LoggerFactory.getLogger(GroupCommitScheduler.class);
+    private final Map<File, CompletableFuture<Void>> pendingCommits = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+    private final long windowMillis;
+    private final Consumer<File> committer;
+
+    /**
+     * @param windowMillis The time in milliseconds to wait for further commit requests before committing a file.
+     * @param committer    The function performing the actual commit of a file.
+     */
+    GroupCommitScheduler(long windowMillis, Consumer<File> committer) {
+        this.windowMillis = windowMillis;
+        this.committer = committer;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "GroupCommitScheduler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @param dbFile The cache file to commit.
+     * @return A future that is completed when a commit of <tt>dbFile</tt> that started after this call has finished.
+     */
+    CompletableFuture<Void> requestCommit(File dbFile) {
+        final CompletableFuture<Void> commit = new CompletableFuture<>();
+        final CompletableFuture<Void> pendingCommit = pendingCommits.putIfAbsent(dbFile, commit);
+        if (pendingCommit != null)
+            return pendingCommit;
+        try {
+            executor.schedule(() -> runCommit(dbFile, commit), windowMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            pendingCommits.remove(dbFile, commit);
+            commit.completeExceptionally(new IllegalStateException("The group commit scheduler has been shut down."));
+        }
+        return commit;
+    }
+
+    private void runCommit(File dbFile, CompletableFuture<Void> commit) {
+        // From now on, new requests must wait for the next commit
+        pendingCommits.remove(dbFile, commit);
+        try {
+            log.trace("Committing cache file {}", dbFile);
+            committer.accept(dbFile);
+            commit.complete(null);
+        } catch (Throwable t) {
+            log.error("Could not commit cache file {}", dbFile, t);
+            commit.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Lets the already scheduled commits run and waits for them to finish. Later commit requests fail.
+     */
+    void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES))
+                log.warn("Scheduled commits did not finish within one minute.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package de.julielab.java.utilities.cache;
+
+import java.util.*;
+
+/**
+ * <p>Finds the most frequently requested keys in constant memory with the Space-Saving algorithm of Metwally et al.,
+ * "Efficient Computation of Frequent and Top-k Elements in Data Streams", 2005.</p>
+ * <p>At most <tt>capacity</tt> keys are counted. A key that is not counted yet replaces the counted key with the
+ * smallest count and starts with this count plus one. The inherited count is its maximum overestimation, the error.
+ * Thus, every key
+ * requested more than <tt>n / capacity</tt> times out of <tt>n</tt> requests is counted, and the counts of the top keys
+ * are accurate if the capacity is sufficiently larger than the number of keys of interest.</p>
+ * <p>The counters are kept in a min-heap, so recording a key takes logarithmic time in the capacity.</p>
+ */
+public class HotKeyTracker<T> {
+    private final int capacity;
+    private final Map<T, Integer> positions;
+    private final Object[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private int size;
+
+    /**
+     * @param capacity The maximum number of keys counted.
+     */
+    public HotKeyTracker(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity must be positive but was " + capacity + ".");
+        this.capacity = capacity;
+        positions = new HashMap<>(capacity * 2);
+        keys = new Object[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+    }
+
+    /**
+     * Counts a request of <tt>key</tt>. The key is referenced by the tracker until it is evicted, so it should not be
+     * a view on a larger object.
+     */
+    public synchronized void record(T key) {
+        final Integer position = positions.get(key);
+        if (position != null) {
+            ++counts[position];
+            siftDown(position);
+        } else if (size < capacity) {
+            keys[size] = key;
+            counts[size] = 1;
+            errors[size] = 0;
+            positions.put(key, size);
+            siftUp(size++);
+        } else {
+            // Replace the key with the smallest count
+            positions.remove(keys[0]);
+            keys[0] = key;
+            errors[0] = counts[0];
+            ++counts[0];
+            positions.put(key, 0);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @param n The maximum number of keys to return.
+     * @return The counted keys with the highest counts, the highest first.
+     */
+    public synchronized List<HotKey<T>> getHotKeys(int n) {
+        final List<HotKey<T>> ret = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            ret.add(new HotKey<>((T) keys[i], counts[i], errors[i]));
+        ret.sort(Comparator.comparingLong(HotKey<T>::getCount).reversed());
+        return ret.size() > n ? new ArrayList<>(ret.subList(0, n)) : ret;
+    }
+
+    public synchronized void reset() {
+        positions.clear();
+        Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            final int parent = (position - 1) / 2;
+            if (counts[parent] <= counts[position])
+                break;
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            final int left = 2 * position + 1;
+            if (left >= size)
+                break;
+            final int right = left + 1;
+            final int smallest = right < size && counts[right] < counts[left] ? right : left;
+            if (counts[position] <= counts[smallest])
+                break;
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        final Object key = keys[i];
+        final long count = counts[i];
+        final long error = errors[i];
+        keys[i] = keys[j];
+        counts[i] = counts[j];
+        errors[i] = errors[j];
+        keys[j] = key;
+        counts[j] = count;
+        errors[j] = error;
+        positions.put((T) keys[i], i);
+        positions.put((T) keys[j], j);
+    }
+
+    /**
+     * A counted key. The true number of requests of the key is between <tt>count - error</tt> and <tt>count</tt>.
+     */
+    public static class HotKey<T> {
+        private final T key;
+        private final long count;
+        private final long error;
+
+        private HotKey(T key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public T getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return key + ": " + count + (error > 0 ? " (at most " + error + " too high)" : "");
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package de.julielab.java.utilities.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A histogram of latencies with logarithmic buckets.</p>
+ * <p>Bucket <tt>i</tt> counts the latencies between 2<sup>i</sup> and 2<sup>i+1</sup> nanoseconds. Thus, recording
+ * a value is a constant time, contention-free operation and percentiles are accurate up to a factor of two, which is
+ * sufficient to spot changes in the order of magnitude of response times.</p>
+ */
+public class LatencyHistogram {
+    private static final int NUM_BUCKETS = 64;
+    private final LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * @param nanos The latency to record in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets[NUM_BUCKETS - 1 - Long.numberOfLeadingZeros(nanos | 1)].increment();
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanMicros() {
+        final long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / (double) n / 1000;
+    }
+
+    public double getMaxMicros() {
+        return maxNanos.get() / 1000d;
+    }
+
+    /**
+     * @param percentile A value between 0 and 100.
+     * @return The upper bound in microseconds of the bucket containing the given percentile of the recorded latencies.
+     */
+    public double getPercentileMicros(double percentile) {
+        final long[] counts = new long[NUM_BUCKETS];
+        long n = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+        if (n == 0)
+            return 0;
+        final long rank = (long) Math.ceil(percentile / 100 * n);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(Math.pow(2, i + 1), maxNanos.get()) / TimeUnit.MICROSECONDS.toNanos(1);
+        }
+        return getMaxMicros();
+    }
+
+    public void reset() {
+        for (LongAdder bucket : buckets)
+            bucket.reset();
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+}
@@ -0,0 +1,247 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.Atomic;
+import org.mapdb.serializer.GroupSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+import static de.julielab.java.utilities.cache.CacheMapSettings.*;
+
+/**
+ * <p>The in-memory state of a region of a local cache file. It is shared by all {@link LocalFileCacheAccess} objects
+ * of the region in the JVM, so that the values cached or buffered by one access are visible to all others and a
+ * put through one access invalidates the front cache of all of them. In particular, there is only one Bloom filter
+ * per region; a filter per access would miss the keys written through the other accesses and the filter stored last
+ * would overwrite the others.</p>
+ * <p>The state is created by the first access to the region with the settings of this access. The settings of
+ * subsequent accesses do not change it. The accesses to the region are counted; the state is closed and discarded
+ * when the last access is closed.</p>
+ */
+class LocalCacheRegion<K, V> {
+    private final static Logger log = LoggerFactory.getLogger(LocalCacheRegion.class);
+    private final File cacheFile;
+    private final String regionName;
+    private final GroupSerializer<K> keySerializer;
+    private final boolean readOnly;
+    private final FrontCache<K, V> frontCache;
+    private final NegativeCache<K> negativeCache;
+    private final WriteBehindBuffer<K, V> writeBehindBuffer;
+    private BloomFilter bloomFilter;
+    /**
+     * Where the Bloom filter is stored in the cache file. <tt>null</tt> if the filter is not persisted.
+     */
+    private Atomic.Var<byte[]> bloomFilterVar;
+    /**
+     * Whether keys have been added to the Bloom filter since it has been stored. While dirty, the stored filter is
+     * removed so that a commit of the cache file by other means than {@link #prepareCommit()} does not leave an
+     * outdated filter.
+     */
+    private volatile boolean bloomFilterDirty;
+    /**
+     * The number of open accesses to the region. Guarded by the region map of the {@link CacheService}.
+     */
+    private int numAccesses;
+    private volatile boolean closed;
+
+    /**
+     * @param cacheFile     The cache file.
+     * @param regionName    The name of the region.
+     * @param cache         The persistent cache map of the region or <tt>null</tt> if the region is not persisted.
+     * @param keySerializer The key serializer of the region.
+     * @param readOnly      Whether the cache file is read-only.
+     * @param mapSettings   The settings of the first access to the region.
+     * @param metrics       The metrics of the region.
+     */
+    LocalCacheRegion(File cacheFile, String regionName, Map<K, V> cache, GroupSerializer<K> keySerializer, boolean readOnly, Map<String, Object> mapSettings, CacheMetrics metrics) {
+        this.cacheFile = cacheFile;
+        this.regionName = regionName;
+        this.keySerializer = keySerializer;
+        this.readOnly = readOnly;
+        frontCache = new FrontCache<>(((Number) mapSettings.getOrDefault(MEM_CACHE_SIZE, 0)).longValue(), ((Number) mapSettings.getOrDefault(MEM_CACHE_MAX_WEIGHT, 0)).longValue(), metrics);
+        negativeCache = new NegativeCache<>(((Number) mapSettings.getOrDefault(NEGATIVE_CACHE_SIZE, 0)).longValue(), ((Number) mapSettings.getOrDefault(NEGATIVE_CACHE_TTL, 60000)).longValue());
+        final long bloomFilterExpectedEntries = ((Number) mapSettings.getOrDefault(BLOOM_FILTER_EXPECTED_ENTRIES, 0)).longValue();
+        if (bloomFilterExpectedEntries > 0 && cache != null)
+            initBloomFilter(cache, bloomFilterExpectedEntries, ((Number) mapSettings.getOrDefault(BLOOM_FILTER_FPP, 0.01)).doubleValue(), mapSettings);
+        final int writeBehindQueueSize = ((Number) mapSettings.getOrDefault(WRITE_BEHIND_QUEUE_SIZE, 0)).intValue();
+        if (writeBehindQueueSize > 0 && cache != null) {
+            final int writeBehindBatchSize = ((Number) mapSettings.getOrDefault(WRITE_BEHIND_BATCH_SIZE, 1000)).intValue();
+            writeBehindBuffer = createWriteBehindBuffer(cache, writeBehindQueueSize, writeBehindBatchSize, cacheFile.getName() + ":" + regionName, metrics);
+        } else {
+            writeBehindBuffer = null;
+        }
+    }
+
+    /**
+     * Creates the write-behind buffer of the region, see
+     * {@link WriteBehindBuffer#WriteBehindBuffer(Map, int, int, String, CacheMetrics)}. Called from the constructor.
+     */
+    WriteBehindBuffer<K, V> createWriteBehindBuffer(Map<K, V> cache, int queueSize, int batchSize, String name, CacheMetrics metrics) {
+        return new WriteBehindBuffer<>(cache, queueSize, batchSize, name, metrics);
+    }
+
+    /**
+     * Loads the Bloom filter stored in the cache file or, if there is none or it has been created with other
+     * parameters, creates it from the keys of the region.
+     */
+    private void initBloomFilter(Map<K, V> cache, long expectedEntries, double falsePositiveProbability, Map<String, Object> mapSettings) {
+        bloomFilterVar = CacheService.getInstance().getBloomFilterVar(cacheFile, regionName, mapSettings);
+        try {
+            final byte[] storedFilter = bloomFilterVar != null ? bloomFilterVar.get() : null;
+            if (storedFilter != null) {
+                bloomFilter = BloomFilter.fromBytes(storedFilter);
+                if (bloomFilter.hasParameters(expectedEntries, falsePositiveProbability))
+                    return;
+            }
+            log.info("Cache {}, region {}: Creating the Bloom filter from the keys of the region.", cacheFile, regionName);
+            bloomFilter = BloomFilter.create(expectedEntries, falsePositiveProbability);
+            for (K key : cache.keySet())
+                bloomFilter.add(CacheProtocol.serialize(keySerializer, key));
+            bloomFilterDirty = true;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not initialize the Bloom filter of cache " + cacheFile + ", region " + regionName, e);
+        }
+    }
+
+    /**
+     * @return The front cache of the region. For regions that are not persisted, it is the only storage.
+     */
+    FrontCache<K, V> getFrontCache() {
+        return frontCache;
+    }
+
+    NegativeCache<K> getNegativeCache() {
+        return negativeCache;
+    }
+
+    /**
+     * @return The buffer for puts written in the background or <tt>null</tt> if write-behind is disabled.
+     */
+    WriteBehindBuffer<K, V> getWriteBehindBuffer() {
+        return writeBehindBuffer;
+    }
+
+    boolean hasBloomFilter() {
+        return bloomFilter != null;
+    }
+
+    private byte[] serializeKey(K key) {
+        try {
+            return CacheProtocol.serialize(keySerializer, key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return Whether the region might contain <tt>key</tt>. Always <tt>true</tt> if there is no Bloom filter.
+     */
+    boolean mightContain(K key) {
+        return bloomFilter == null || bloomFilter.mightContain(serializeKey(key));
+    }
+
+    /**
+     * Adds the key to the Bloom filter, if enabled. Must be called before the value is written.
+     */
+    void addToBloomFilter(K key) {
+        if (bloomFilter == null)
+            return;
+        bloomFilter.add(serializeKey(key));
+        if (!bloomFilterDirty && bloomFilterVar != null) {
+            synchronized (bloomFilter) {
+                if (!bloomFilterDirty) {
+                    bloomFilterDirty = true;
+                    bloomFilterVar.set(null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the Bloom filter in the cache file if it has changed. Must be called before the cache file is
+     * committed.
+     */
+    private void storeBloomFilter() {
+        if (bloomFilterVar == null || !bloomFilterDirty || readOnly)
+            return;
+        synchronized (bloomFilter) {
+            if (bloomFilterDirty) {
+                // Keys added from now on mark the filter dirty again and thus remove the stored filter
+                bloomFilterDirty = false;
+                try {
+                    bloomFilterVar.set(bloomFilter.toBytes());
+                } catch (IOException e) {
+                    bloomFilterDirty = true;
+                    log.error("Could not store the Bloom filter of cache {}, region {}.", cacheFile, regionName, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered entries and the Bloom filter to the cache file so that they are covered by the next commit.
+     */
+    void prepareCommit() {
+        if (writeBehindBuffer != null)
+            writeBehindBuffer.flush();
+        if (bloomFilter != null)
+            storeBloomFilter();
+    }
+
+    /**
+     * Writes the buffered entries to the cache file. Must be called before the region is written by other means than
+     * its accesses, e.g. by {@link CacheRegionTransfer#importRegion(File, String, CacheMapSettings, java.io.InputStream)},
+     * so that older buffered values do not overwrite the written ones.
+     */
+    void flushWriteBehind() {
+        if (writeBehindBuffer != null)
+            writeBehindBuffer.flush();
+    }
+
+    /**
+     * Discards the values and missing keys remembered in memory. Must be called after the region has been written by
+     * other means than its accesses.
+     */
+    void invalidateAll() {
+        frontCache.invalidateAll();
+        negativeCache.invalidateAll();
+    }
+
+    /**
+     * Registers another access to the region.
+     */
+    void retain() {
+        ++numAccesses;
+    }
+
+    /**
+     * Unregisters an access to the region and closes the region if it was the last one.
+     *
+     * @return Whether the region has been closed.
+     */
+    boolean release() {
+        if (--numAccesses > 0)
+            return false;
+        close();
+        return true;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Writes the buffered entries and stops the background threads of the region.
+     */
+    void close() {
+        closed = true;
+        if (writeBehindBuffer != null)
+            writeBehindBuffer.close();
+        frontCache.invalidateAll();
+        negativeCache.invalidateAll();
+    }
+}
@@ -8,9 +8,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.util.AbstractMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static de.julielab.java.utilities.cache.CacheMapSettings.*;
 
@@ -20,8 +19,24 @@ public class LocalFileCacheAccess<K, V> extends CacheAccess<K, V> {
     private final File cacheFile;
     private final File cacheDir;
     private Map<K, V> cache;
-    private final Map<K, V> persistentCache;
-    private boolean hasMemCache;
+    private final boolean usePersistentCache;
+    /**
+     * Determined once when the cache file is opened, so writes do not have to look it up.
+     */
+    private final boolean readOnly;
+    private final FrontCache<K, V> frontCache;
+    private final NegativeCache<K> negativeCache;
+    /**
+     * The state of the region shared with the other accesses to the region.
+     */
+    private final LocalCacheRegion<K, V> region;
+    private final WriteBehindBuffer<K, V> writeBehindBuffer;
+    /**
+     * Receives the number of written entries if the cache file is committed automatically, otherwise <tt>null</tt>.
+     */
+    private AutoCommitScheduler.FileCommits autoCommit;
+    private final Runnable commitPreparer = this::prepareCommit;
+    private volatile boolean closed;
 
     public LocalFileCacheAccess(String cacheId, String cacheRegion, String keySerializer, String valueSerializer, File cacheDir) {
         this(cacheId, cacheRegion, keySerializer, valueSerializer, cacheDir, 100);
@@ -35,17 +50,25 @@ public class LocalFileCacheAccess<K, V> extends CacheAccess<K, V> {
         cacheService = CacheService.getInstance();
         cacheFile = new File(getCacheDir(), cacheId);
 
-        boolean usePersistentCache = (boolean) mapSettings.getOrDefault(USE_PERSISTENT_CACHE, true);
-        Long memCacheSize = (Long) mapSettings.getOrDefault(MEM_CACHE_SIZE, 0);
+        usePersistentCache = (boolean) mapSettings.getOrDefault(USE_PERSISTENT_CACHE, true);
+        final long memCacheSize = ((Number) mapSettings.getOrDefault(MEM_CACHE_SIZE, 0)).longValue();
+        final long memCacheMaxWeight = ((Number) mapSettings.getOrDefault(MEM_CACHE_MAX_WEIGHT, 0)).longValue();
 
-        if (!usePersistentCache && memCacheSize == 0) {
+        if (!usePersistentCache && memCacheSize == 0 && memCacheMaxWeight == 0)
             log.warn("Cache {}:{}: The cache settings do not specify the usage of a persistent cache and the in-memory cache is set to size 0 which deactivates it. There is no caching.", cacheId, cacheRegion);
-            // To avoid NPE, the cache is now a Map that does nothing.
+
+        if (usePersistentCache) {
+            if (mapSettings.get(MAP_TYPE) == CacheService.CacheMapDataType.HTREE)
+                cache = cacheService.getHTreeCache(cacheFile, cacheRegion, keySerializer1, valueSerializer1, mapSettings);
+            else
+                cache = cacheService.getBTreeCache(cacheFile, cacheRegion, keySerializer1, valueSerializer1, mapSettings);
+        } else {
+            // To avoid NPE, the cache is now a Map that does nothing. The values are only kept in the front cache.
             cache = new AbstractMap<K, V>() {
                 @NotNull
                 @Override
                 public Set<Entry<K, V>> entrySet() {
-                    return null;
+                    return Collections.emptySet();
                 }
 
                 @Override
@@ -65,29 +88,26 @@ public class LocalFileCacheAccess<K, V> extends CacheAccess<K, V> {
             };
         }
 
-        if (usePersistentCache) {
-            if (mapSettings.get(MAP_TYPE) == CacheService.CacheMapDataType.HTREE)
-                cache = cacheService.getHTreeCache(cacheFile, cacheRegion, keySerializer1, valueSerializer1, mapSettings);
-            else
-                cache = cacheService.getBTreeCache(cacheFile, cacheRegion, keySerializer1, valueSerializer1, mapSettings);
-        }
-
-        persistentCache = cache;
+        readOnly = cacheService.isDbReadOnly(cacheFile);
+        initAccessLog(keySerializer1, mapSettings, cacheDir, null);
 
-        if (memCacheSize > 0) {
-            File memCacheName = new File(cacheId + ".mem");
-            CacheMapSettings memCacheSettings = new CacheMapSettings(PERSIST_TYPE, CacheService.CachePersistenceType.MEM, EXPIRE_AFTER_CREATE, true, MAX_SIZE, memCacheSize);
-            if (persistentCache != null)
-                memCacheSettings.put(OVERFLOW_DB, cache);
-            cache = cacheService.getHTreeCache(memCacheName, cacheRegion + ".mem", keySerializer1, valueSerializer1, memCacheSettings);
-            hasMemCache = true;
-        }
+        final Map<K, V> persistentCache = usePersistentCache ? cache : null;
+        region = cacheService.acquireLocalRegion(cacheFile, cacheRegion, () -> new LocalCacheRegion<>(cacheFile, cacheRegion, persistentCache, keySerializer1, readOnly, mapSettings, metrics));
+        frontCache = region.getFrontCache();
+        negativeCache = region.getNegativeCache();
+        writeBehindBuffer = region.getWriteBehindBuffer();
+        if (usePersistentCache && !readOnly)
+            autoCommit = cacheService.registerAutoCommit(cacheFile, commitPreparer, mapSettings);
     }
 
     public LocalFileCacheAccess(String cacheId, String cacheRegion, String keySerializer, String valueSerializer, File cacheDir, long memCacheSize) {
         this(cacheId, cacheRegion, keySerializer, valueSerializer, cacheDir, new CacheMapSettings(MEM_CACHE_SIZE, memCacheSize));
     }
 
+    /**
+     * @return The underlying persistent cache map. Does not contain values buffered in memory for write-behind.
+     * Writes to the map bypass the negative cache and the Bloom filter.
+     */
     public Map<K, V> getCache() {
         return cache;
     }
@@ -99,31 +119,101 @@ public class LocalFileCacheAccess<K, V> extends CacheAccess<K, V> {
         return cacheDir;
     }
 
+    /**
+     * Looks up the value in the in-memory front cache first. Values read from the persistent cache are added to the
+     * front cache, so subsequent reads of the same key return the same deserialized object. Keys known to be missing
+     * from the negative cache or the Bloom filter, if enabled, are not looked up in the persistent cache.
+     */
     @Override
     public V get(K key) {
-        V value = null;
+        final long startTime = metrics.startTimer();
+        V value = frontCache.get(key);
+        // The stamps must be taken before the write-behind lookup. Otherwise, a value buffered and invalidated right
+        // after the lookup would go unnoticed and the old value read from the persistent cache would be kept.
+        final long loadStamp = frontCache.getLoadStamp();
+        final long negativeLoadStamp = negativeCache.getLoadStamp();
+        if (value == null && writeBehindBuffer != null)
+            value = writeBehindBuffer.get(key);
+        final boolean frontCacheHit = value != null;
         if (value == null) {
-            value = cache.get(key);
+            if (negativeCache.contains(key)) {
+                metrics.recordNegativeCacheHit();
+            } else if (!region.mightContain(key)) {
+                metrics.recordBloomFilterRejection();
+            } else {
+                value = cache.get(key);
+                if (value != null)
+                    frontCache.putLoaded(key, value, loadStamp);
+                else
+                    negativeCache.addLoaded(key, negativeLoadStamp);
+            }
         }
+        metrics.recordGet(startTime, frontCacheHit, value != null);
         return value;
     }
 
+    @Override
+    protected List<K> getHottestKeys(int n) {
+        return frontCache.getHottestKeys(n);
+    }
+
+    /**
+     * Performs the lookup in a thread of the executor of the {@link CacheService}.
+     */
+    @Override
+    public CompletableFuture<V> getAsync(K key) {
+        return CompletableFuture.supplyAsync(() -> get(key), cacheService.getAsyncExecutor());
+    }
+
+    /**
+     * Performs the put in a thread of the executor of the {@link CacheService}.
+     */
+    @Override
+    public CompletableFuture<Boolean> putAsync(K key, V value) {
+        return CompletableFuture.supplyAsync(() -> put(key, value), cacheService.getAsyncExecutor()).exceptionally(e -> {
+            log.error("Could not put data into cache {}:", cacheFile, e);
+            return false;
+        });
+    }
+
+    /**
+     * Writes all buffered puts to the cache map, if write-behind is enabled, and commits the cache file.
+     */
     @Override
     public void commit() {
-        if (hasMemCache && persistentCache != null) {
-            // Add the remaining in-memory items to the persistent cache without clearing the in-memory cache
-            for (K key : cache.keySet()) {
-                if (!persistentCache.containsKey(key))
-                    persistentCache.put(key, cache.get(key));
-            }
-        }
+        final long startTime = metrics.startTimer();
+        prepareCommit();
         cacheService.commitCache(cacheFile);
+        metrics.recordCommit(startTime);
+    }
+
+    /**
+     * Writes the buffered entries and the Bloom filter of the region to the cache file so that they are covered by
+     * the next commit.
+     */
+    private void prepareCommit() {
+        region.prepareCommit();
     }
 
     @Override
     public boolean put(K key, V value) {
-        if (!cacheService.isDbReadOnly(cacheFile)) {
-            cache.put(key, value);
+        if (!readOnly) {
+            final long startTime = metrics.startTimer();
+            region.addToBloomFilter(key);
+            if (!usePersistentCache)
+                frontCache.put(key, value);
+            else if (writeBehindBuffer != null)
+                writeBehindBuffer.put(key, value);
+            else
+                cache.put(key, value);
+            // The front cache only holds values read from the persistent cache, thus a put does not store the
+            // object reference there
+            if (usePersistentCache)
+                frontCache.invalidate(key);
+            negativeCache.invalidate(key);
+            if (autoCommit != null)
+                autoCommit.recordWrites(1);
+            metrics.recordPut(startTime);
             return true;
         } else {
             log.debug("Could not write value to cache {} because it is read-only.", cacheFile);
@@ -131,13 +221,110 @@ public class LocalFileCacheAccess<K, V> extends CacheAccess<K, V> {
         return false;
     }
 
+    /**
+     * Stores a value loaded from a lower cache tier, see {@link TieredCacheAccess}. Other than
+     * {@link #put(Object, Object)}, the value is also added to the front cache because its object has not been passed
+     * in by the application.
+     */
+    void putLoaded(K key, V value) {
+        put(key, value);
+        frontCache.put(key, value);
+    }
+
+    /**
+     * Stores values loaded from a lower cache tier, see {@link #putLoaded(Object, Object)}.
+     */
+    void putAllLoaded(Map<K, V> entries) {
+        putAll(entries);
+        for (Map.Entry<K, V> entry : entries.entrySet())
+            frontCache.put(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Looks up all keys in the front cache at once and the remaining keys in the persistent cache. Keys known to be
+     * missing are filtered out before. The keys of BTree regions are looked up in ascending order, so consecutive
+     * lookups mostly descend through the tree nodes read by the previous lookup.
+     */
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        final Map<K, V> ret = frontCache.getAllPresent(keys);
+        final long loadStamp = frontCache.getLoadStamp();
+        final long negativeLoadStamp = negativeCache.getLoadStamp();
+        final List<K> missingKeys = new ArrayList<>(keys.size() - ret.size());
+        for (K key : keys) {
+            if (ret.containsKey(key))
+                continue;
+            final V bufferedValue = writeBehindBuffer != null ? writeBehindBuffer.get(key) : null;
+            if (bufferedValue != null)
+                ret.put(key, bufferedValue);
+            else if (negativeCache.contains(key))
+                metrics.recordNegativeCacheHit();
+            else if (!region.mightContain(key))
+                metrics.recordBloomFilterRejection();
+            else
+                missingKeys.add(key);
+        }
+        final int numFrontCacheHits = ret.size();
+        if (cache instanceof BTreeMap)
+            missingKeys.sort(((BTreeMap<K, V>) cache).comparator());
+        for (K key : missingKeys) {
+            final V value = cache.get(key);
+            if (value != null) {
+                ret.put(key, value);
+                frontCache.putLoaded(key, value, loadStamp);
+            } else {
+                negativeCache.addLoaded(key, negativeLoadStamp);
+            }
+        }
+        metrics.recordGets(keys.size(), numFrontCacheHits, ret.size() - numFrontCacheHits);
+        return ret;
+    }
+
+    @Override
+    public boolean putAll(Map<? extends K, ? extends V> entries) {
+        if (!readOnly) {
+            metrics.recordPuts(entries.size());
+            if (!usePersistentCache) {
+                for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+                    frontCache.put(entry.getKey(), entry.getValue());
+                    negativeCache.invalidate(entry.getKey());
+                }
+                return true;
+            }
+            if (region.hasBloomFilter()) {
+                for (K key : entries.keySet())
+                    region.addToBloomFilter(key);
+            }
+            if (writeBehindBuffer != null) {
+                for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet())
+                    writeBehindBuffer.put(entry.getKey(), entry.getValue());
+            } else {
+                cache.putAll(entries);
+            }
+            for (K key : entries.keySet()) {
+                frontCache.invalidate(key);
+                negativeCache.invalidate(key);
+            }
+            if (autoCommit != null)
+                autoCommit.recordWrites(entries.size());
+            return true;
+        } else {
+            log.debug("Could not write values to cache {} because it is read-only.", cacheFile);
+        }
+        return false;
+    }
+
     @Override
     public boolean isReadOnly() {
-        return cacheService.isDbReadOnly(cacheFile);
+        return readOnly;
     }
 
     @Override
     public boolean isClosed() {
+        if (closed)
+            return true;
+        if (!usePersistentCache)
+            return false;
         if (cache instanceof HTreeMap)
             return ((HTreeMap<K, V>) cache).isClosed();
         else if (cache instanceof BTreeMap)
@@ -146,16 +333,21 @@ public class LocalFileCacheAccess<K, V> extends CacheAccess<K, V> {
         return false;
     }
 
-    public void close() {
+    /**
+     * Closes this access. The write-behind buffer, the in-memory caches and the cache map of the region are shared
+     * with the other accesses to the region and are only closed with the last of them.
+     */
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        if (autoCommit != null)
+            autoCommit.unregister(commitPreparer);
+        if (!cacheService.releaseLocalRegion(cacheFile, cacheRegion, region))
+            return;
         if (cache instanceof HTreeMap)
             ((HTreeMap<K, V>) cache).close();
         else if (cache instanceof BTreeMap)
             ((BTreeMap<K, V>) cache).close();
-        if (persistentCache != null) {
-            if (persistentCache instanceof HTreeMap)
-                ((HTreeMap<K, V>) persistentCache).close();
-            else if (persistentCache instanceof BTreeMap)
-                ((BTreeMap<K, V>) persistentCache).close();
-        }
     }
 }
@@ -0,0 +1,75 @@
+package de.julielab.java.utilities.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Remembers keys for which the underlying cache had no value so that repeated lookups of missing keys do not
+ * reach the persistent cache or the cache server.</p>
+ * <p>The number of keys is bounded and each key expires after a fixed time. The expiration bounds the time a
+ * value written by another party, e.g. another client of the same cache server, stays invisible. Puts through the
+ * owning {@link CacheAccess} remove the key right away.</p>
+ */
+class NegativeCache<K> {
+    private final Cache<K, Boolean> cache;
+    /**
+     * Counts invalidations, see {@link FrontCache#getLoadStamp()} for the purpose.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxSize   The maximum number of keys. If not positive, the negative cache is disabled.
+     * @param ttlMillis The time in milliseconds after which a key is removed.
+     */
+    NegativeCache(long maxSize, long ttlMillis) {
+        if (maxSize > 0)
+            cache = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS).build();
+        else
+            cache = null;
+    }
+
+    boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * @return Whether <tt>key</tt> is known to be missing from the underlying cache.
+     */
+    boolean contains(K key) {
+        return cache != null && cache.getIfPresent(key) != null;
+    }
+
+    long getLoadStamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Adds a key whose lookup in the underlying cache has returned nothing. If any key has been invalidated since
+     * <tt>loadStamp</tt> has been obtained, a value might have been written in the meantime and the key is removed
+     * again.
+     */
+    void addLoaded(K key, long loadStamp) {
+        if (cache != null) {
+            cache.put(key, Boolean.TRUE);
+            if (invalidations.get() != loadStamp)
+                cache.invalidate(key);
+        }
+    }
+
+    void invalidate(K key) {
+        if (cache != null) {
+            invalidations.incrementAndGet();
+            cache.invalidate(key);
+        }
+    }
+
+    void invalidateAll() {
+        if (cache != null) {
+            invalidations.incrementAndGet();
+            cache.invalidateAll();
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package de.julielab.java.utilities.cache;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
 public class NoOpCacheAccess<K, V> extends CacheAccess<K, V> {
     public NoOpCacheAccess(String cacheId, String cacheRegion) {
         super(cacheId, cacheRegion);
@@ -15,6 +19,16 @@ public class NoOpCacheAccess<K, V> extends CacheAccess<K, V> {
         return false;
     }
 
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public boolean putAll(Map<? extends K, ? extends V> entries) {
+        return false;
+    }
+
     @Override
     public boolean isReadOnly() {
         return false;
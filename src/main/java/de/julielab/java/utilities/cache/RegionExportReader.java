@@ -0,0 +1,131 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.DataInput2;
+import org.mapdb.serializer.GroupSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the entries of a cache region exported by a {@link RegionExportWriter}, one block at a time.
+ */
+class RegionExportReader<K, V> implements Closeable {
+    private final DataInputStream in;
+    private final String keySerializerName;
+    private final String valueSerializerName;
+    private final GroupSerializer<K> keySerializer;
+    private final GroupSerializer<V> valueSerializer;
+    private final boolean sorted;
+    private final Inflater inflater = new Inflater();
+    private byte[] compressed = new byte[0];
+    private DataInput2.ByteArray block;
+    private int remainingBlockEntries;
+    private boolean finished;
+    private K key;
+    private V value;
+
+    /**
+     * @param in The stream to read from. It is closed by {@link #close()}.
+     * @throws IOException If the stream does not start with a header of a supported version.
+     */
+    RegionExportReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        if (this.in.readInt() != RegionExportWriter.MAGIC)
+            throw new IOException("The input is not a cache region export.");
+        final byte version = this.in.readByte();
+        if (version != RegionExportWriter.VERSION)
+            throw new IOException("Unsupported cache region export version " + version + ", expected " + RegionExportWriter.VERSION + ".");
+        keySerializerName = this.in.readUTF();
+        valueSerializerName = this.in.readUTF();
+        sorted = this.in.readBoolean();
+        keySerializer = CacheAccess.getSerializerByName(keySerializerName);
+        valueSerializer = CacheAccess.getSerializerByName(valueSerializerName);
+    }
+
+    String getKeySerializerName() {
+        return keySerializerName;
+    }
+
+    String getValueSerializerName() {
+        return valueSerializerName;
+    }
+
+    GroupSerializer<K> getKeySerializer() {
+        return keySerializer;
+    }
+
+    /**
+     * @return Whether the entries are sorted in the key order of the key serializer.
+     */
+    boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Advances to the next entry.
+     *
+     * @return <tt>false</tt> if there are no more entries.
+     */
+    boolean next() throws IOException {
+        if (remainingBlockEntries == 0 && !readBlock())
+            return false;
+        key = CacheProtocol.deserialize(keySerializer, block, block.unpackInt());
+        value = CacheProtocol.deserialize(valueSerializer, block, block.unpackInt());
+        --remainingBlockEntries;
+        return true;
+    }
+
+    private boolean readBlock() throws IOException {
+        if (finished)
+            return false;
+        final int numEntries = in.readInt();
+        if (numEntries == 0) {
+            finished = true;
+            return false;
+        }
+        final int length = in.readInt();
+        final int compressedLength = in.readInt();
+        if (numEntries < 0 || length < 0 || compressedLength < 0)
+            throw new IOException("Corrupt block header in cache region export.");
+        if (compressed.length < compressedLength)
+            compressed = new byte[compressedLength];
+        in.readFully(compressed, 0, compressedLength);
+        final byte[] bytes = new byte[length];
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try {
+            if (inflater.inflate(bytes) != length)
+                throw new IOException("Corrupt block in cache region export.");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block in cache region export.", e);
+        }
+        block = new DataInput2.ByteArray(bytes);
+        remainingBlockEntries = numEntries;
+        return true;
+    }
+
+    /**
+     * @return The key of the current entry.
+     */
+    K getKey() {
+        return key;
+    }
+
+    /**
+     * @return The value of the current entry.
+     */
+    V getValue() {
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+}
@@ -0,0 +1,113 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.DataOutput2;
+import org.mapdb.serializer.GroupSerializer;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Writes the entries of a cache region in the export format read by {@link RegionExportReader}.</p>
+ * <p>The format starts with a header consisting of {@link #MAGIC}, {@link #VERSION}, the names of the key and value
+ * serializers of the region and a flag telling whether the entries are sorted by key. The entries follow in blocks.
+ * Each block starts with the number of entries, the uncompressed and the compressed length of the block and is
+ * followed by the deflated entries. An entry consists of the key and the value as serialized by the region's
+ * serializers, each prefixed by its length. A block with zero entries ends the export.</p>
+ */
+class RegionExportWriter<K, V> implements Closeable {
+    static final int MAGIC = 0x4A4C4345;
+    static final byte VERSION = 1;
+    /**
+     * The uncompressed size in bytes at which a block is written.
+     */
+    private static final int BLOCK_SIZE = 1 << 20;
+    private final DataOutputStream out;
+    private final GroupSerializer<K> keySerializer;
+    private final GroupSerializer<V> valueSerializer;
+    private final DataOutput2 block = new DataOutput2();
+    private final DataOutput2 entry = new DataOutput2();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] compressed = new byte[BLOCK_SIZE];
+    private int blockEntries;
+    private long numEntries;
+
+    /**
+     * @param out                 The stream to write to. It is closed by {@link #close()}.
+     * @param keySerializerName   The key serializer of the region.
+     * @param valueSerializerName The value serializer of the region.
+     * @param sorted              Whether the entries are written in the key order of the key serializer.
+     */
+    RegionExportWriter(OutputStream out, String keySerializerName, String valueSerializerName, boolean sorted) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.keySerializer = CacheAccess.getSerializerByName(keySerializerName);
+        this.valueSerializer = CacheAccess.getSerializerByName(valueSerializerName);
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+        this.out.writeUTF(keySerializerName);
+        this.out.writeUTF(valueSerializerName);
+        this.out.writeBoolean(sorted);
+    }
+
+    void write(K key, V value) throws IOException {
+        writeObject(keySerializer, key);
+        writeObject(valueSerializer, value);
+        ++blockEntries;
+        ++numEntries;
+        if (block.pos >= BLOCK_SIZE)
+            writeBlock();
+    }
+
+    private <T> void writeObject(GroupSerializer<T> serializer, T object) throws IOException {
+        entry.pos = 0;
+        serializer.serialize(entry, object);
+        block.packInt(entry.pos);
+        block.write(entry.buf, 0, entry.pos);
+    }
+
+    private void writeBlock() throws IOException {
+        deflater.reset();
+        deflater.setInput(block.buf, 0, block.pos);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                final byte[] newCompressed = new byte[compressed.length * 2];
+                System.arraycopy(compressed, 0, newCompressed, 0, compressedLength);
+                compressed = newCompressed;
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        out.writeInt(blockEntries);
+        out.writeInt(block.pos);
+        out.writeInt(compressedLength);
+        out.write(compressed, 0, compressedLength);
+        block.pos = 0;
+        blockEntries = 0;
+    }
+
+    /**
+     * @return The number of entries written so far.
+     */
+    long getNumEntries() {
+        return numEntries;
+    }
+
+    /**
+     * Writes the remaining entries and the end of the export and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (blockEntries > 0)
+                writeBlock();
+            out.writeInt(0);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+}
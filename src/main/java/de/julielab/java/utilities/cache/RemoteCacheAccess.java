@@ -1,135 +1,687 @@
 package de.julielab.java.utilities.cache;
 
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.serializer.GroupSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.InetAddress;
-import java.net.Socket;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
+/**
+ * <p>Gives access to a cache region stored by a {@link CacheServer}.</p>
+ * <p>All methods are thread-safe. The connections to the server are taken from the {@link RemoteCacheConnectionPool}
+ * that is shared by all instances accessing the same server. Concurrent requests are pipelined over the pooled
+ * connections, i.e. they do not wait for the responses of each other. The batch methods {@link #getAll(Collection)} and {@link #putAll(Map)}
+ * transfer their entries in few large requests instead of one round trip per entry. {@link #getAsync(Object)} and
+ * {@link #putAsync(Object, Object)} do not block the calling thread while waiting for the server.</p>
+ * <p>If the server has read replicas (see {@link CacheNode#getReadReplicas()}), reads are sent to the server or
+ * replica with the lowest load score, i.e. the recent response latency multiplied by the number of pending requests,
+ * see {@link RemoteCacheConnectionPool#getLoadScore()}. Occasionally, a random replica is chosen to keep the latency
+ * estimates of all replicas current. Since replication is asynchronous, a value missing on a replica is requested
+ * again from the leader server. The same happens if the replica cannot be reached. Writes and commits always go to the
+ * leader.</p>
+ * <p>The in-memory front cache is kept consistent with the server: the server pushes invalidations to the client when
+ * other clients write to the region, see {@link CacheServer}. Thus, the front cache can be large without serving
+ * outdated values for long. Only values written between a connection failure and its detection might be missed.</p>
+ * <p>Optionally, keys that the server does not have are remembered in a negative cache, see
+ * {@link CacheMapSettings#NEGATIVE_CACHE_SIZE}, so repeated lookups of missing keys do not cause round trips. The
+ * negative cache is invalidated like the front cache.</p>
+ */
 public class RemoteCacheAccess<K, V> extends CacheAccess<K, V> {
     private final static Logger log = LoggerFactory.getLogger(RemoteCacheAccess.class);
-    private final String keySerializer;
-    private final String valueSerializer;
+    /**
+     * One in this many reads is sent to a random replica instead of the one with the lowest load score.
+     */
+    private static final int READ_REPLICA_PROBE_RATE = 64;
+    /**
+     * The maximum pause in milliseconds between the requests of {@link #computeAndPut(Object, Function)} while another
+     * client computes the value.
+     */
+    private static final long MAX_LOCK_POLL_PAUSE = 200;
+    private final String keySerializerName;
+    private final String valueSerializerName;
+    private final GroupSerializer<K> keySerializer;
+    private final GroupSerializer<V> valueSerializer;
     private final String host;
     private final int port;
-    private ObjectOutputStream oos;
-    private ObjectInputStream ois;
-    private boolean connectionOpen = false;
-    private final Cache<K, V> memCache;
+    private final RemoteCacheConnectionPool connectionPool;
+    /**
+     * The leader pool followed by the pools of the read replicas.
+     */
+    private final List<RemoteCacheConnectionPool> readPools;
+    private final FrontCache<K, V> memCache;
+    private final NegativeCache<K> negativeCache;
+    private final String regionKey;
+    /**
+     * The settings passed to the server when opening the region, see {@link CacheProtocol#REGION_SETTINGS}.
+     */
+    private final CacheMapSettings regionSettings;
+    /**
+     * See {@link CacheMapSettings#COMPUTE_LOCK_TIMEOUT}.
+     */
+    private final long computeLockTimeout;
+    /**
+     * Registered with the connection pools. Only weakly referenced by the pools, thus kept in this field.
+     */
+    private final Consumer<List<byte[]>> invalidationListener = this::invalidateFromServer;
 
     public RemoteCacheAccess(String cacheId, String cacheRegion, String keySerializer, String valueSerializer, String host, int port) {
         this(cacheId, cacheRegion, keySerializer, valueSerializer, host, port, 100);
     }
 
     public RemoteCacheAccess(String cacheId, String cacheRegion, String keySerializer, String valueSerializer, String host, int port, long memCacheSize) {
+        this(cacheId, cacheRegion, keySerializer, valueSerializer, host, port, memCacheSize, 0);
+    }
+
+    /**
+     * @param memCacheSize      The maximum number of entries in the in-memory front cache.
+     * @param memCacheMaxWeight If positive, the maximum estimated size of the entries in the front cache in bytes
+     *                          instead of the number of entries.
+     */
+    public RemoteCacheAccess(String cacheId, String cacheRegion, String keySerializer, String valueSerializer, String host, int port, long memCacheSize, long memCacheMaxWeight) {
+        this(cacheId, cacheRegion, keySerializer, valueSerializer, new CacheNode(host, port), memCacheSize, memCacheMaxWeight);
+    }
+
+    /**
+     * @param node              The cache server, possibly with read replicas.
+     * @param memCacheSize      The maximum number of entries in the in-memory front cache.
+     * @param memCacheMaxWeight If positive, the maximum estimated size of the entries in the front cache in bytes
+     *                          instead of the number of entries.
+     */
+    public RemoteCacheAccess(String cacheId, String cacheRegion, String keySerializer, String valueSerializer, CacheNode node, long memCacheSize, long memCacheMaxWeight) {
+        this(cacheId, cacheRegion, keySerializer, valueSerializer, node, new CacheMapSettings(CacheMapSettings.MEM_CACHE_SIZE, memCacheSize, CacheMapSettings.MEM_CACHE_MAX_WEIGHT, memCacheMaxWeight));
+    }
+
+    /**
+     * @param node        The cache server, possibly with read replicas.
+     * @param mapSettings The client side settings {@link CacheMapSettings#MEM_CACHE_SIZE},
+     *                    {@link CacheMapSettings#MEM_CACHE_MAX_WEIGHT}, {@link CacheMapSettings#NEGATIVE_CACHE_SIZE},
+     *                    {@link CacheMapSettings#NEGATIVE_CACHE_TTL}, {@link CacheMapSettings#ACCESS_LOG_SIZE} and
+     *                    {@link CacheMapSettings#ACCESS_LOG_DIR}. The settings for storing the region on the
+     *                    server, like {@link CacheMapSettings#MAP_TYPE}, {@link CacheMapSettings#MAX_SIZE} or
+     *                    {@link CacheMapSettings#EXPIRE_AFTER_GET}, are passed to the server, see
+     *                    {@link CacheProtocol#REGION_SETTINGS}.
+     */
+    public RemoteCacheAccess(String cacheId, String cacheRegion, String keySerializer, String valueSerializer, CacheNode node, CacheMapSettings mapSettings) {
         super(cacheId, cacheRegion);
-        this.keySerializer = keySerializer;
-        this.valueSerializer = valueSerializer;
-        this.host = host;
-        this.port = port;
-        memCache = CacheBuilder.newBuilder().maximumSize(memCacheSize).build();
+        this.keySerializerName = keySerializer;
+        this.valueSerializerName = valueSerializer;
+        this.keySerializer = getSerializerByName(keySerializer);
+        this.valueSerializer = getSerializerByName(valueSerializer);
+        this.host = node.getHost();
+        this.port = node.getPort();
+        this.connectionPool = RemoteCacheConnectionPool.getPool(host, port);
+        final List<RemoteCacheConnectionPool> readPools = new ArrayList<>();
+        readPools.add(connectionPool);
+        for (CacheNode replica : node.getReadReplicas())
+            readPools.add(RemoteCacheConnectionPool.getPool(replica.getHost(), replica.getPort()));
+        this.readPools = List.copyOf(readPools);
+        memCache = new FrontCache<>(((Number) mapSettings.getOrDefault(CacheMapSettings.MEM_CACHE_SIZE, 0)).longValue(), ((Number) mapSettings.getOrDefault(CacheMapSettings.MEM_CACHE_MAX_WEIGHT, 0)).longValue(), metrics);
+        negativeCache = new NegativeCache<>(((Number) mapSettings.getOrDefault(CacheMapSettings.NEGATIVE_CACHE_SIZE, 0)).longValue(), ((Number) mapSettings.getOrDefault(CacheMapSettings.NEGATIVE_CACHE_TTL, 60000)).longValue());
+        initAccessLog(this.keySerializer, mapSettings, null, host + "_" + port);
+        regionSettings = CacheProtocol.getRegionSettings(mapSettings);
+        computeLockTimeout = ((Number) mapSettings.getOrDefault(CacheMapSettings.COMPUTE_LOCK_TIMEOUT, 60000)).longValue();
+        regionKey = RemoteCacheConnection.getRegionKey(cacheId, cacheRegion, keySerializerName, valueSerializerName);
+        if (memCache.isEnabled() || negativeCache.isEnabled()) {
+            for (RemoteCacheConnectionPool pool : readPools)
+                pool.addInvalidationListener(regionKey, invalidationListener);
+        }
     }
 
-    public void establishConnection() {
-        if (connectionOpen)
+    /**
+     * Removes the invalidated keys from the front cache and the negative cache.
+     *
+     * @param keys The serialized keys or <tt>null</tt> if the whole region has been invalidated.
+     */
+    private void invalidateFromServer(List<byte[]> keys) {
+        if (keys == null) {
+            memCache.invalidateAll();
+            negativeCache.invalidateAll();
             return;
+        }
         try {
-            log.debug("Establishing new connection to cache server at {}:{} for cache ID {} and region {}", host, port, cacheId, cacheRegion);
-            Socket s = getSocket();
-            oos = new ObjectOutputStream(s.getOutputStream());
-            ois = new ObjectInputStream(s.getInputStream());
-            connectionOpen = true;
-        } catch (IOException e) {
-            throw new IllegalArgumentException(e);
+            for (byte[] keyBytes : keys) {
+                final K key = keySerializer.deserialize(new DataInput2.ByteArray(keyBytes), keyBytes.length);
+                memCache.invalidate(key);
+                negativeCache.invalidate(key);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Could not deserialize invalidated key of cache ID {} and region {}, invalidating all entries: {}", cacheId, cacheRegion, e.getMessage());
+            memCache.invalidateAll();
+            negativeCache.invalidateAll();
         }
+    }
 
+    /**
+     * Invalidates the written keys in the front caches of the other accesses of this region in the JVM. The server
+     * does not push invalidations to the connection that has written the keys.
+     *
+     * @param keys The serialized keys or <tt>null</tt> to invalidate the whole region.
+     */
+    private void invalidateLocalPeers(List<byte[]> keys) {
+        connectionPool.invalidate(regionKey, keys, invalidationListener);
     }
 
-    private Socket getSocket() {
+    public void establishConnection() {
         try {
-            return new Socket(InetAddress.getByName(host), port);
-        } catch (IOException e) {
-            log.error("Could not create a socket to {}:{}", host, port, e);
-            throw new IllegalStateException(e);
+            getConnection();
+        } catch (IOException | IllegalStateException e) {
+            throw new IllegalArgumentException(e);
         }
     }
 
+    private RemoteCacheConnection getConnection() throws IOException {
+        return connectionPool.getConnection();
+    }
+
+    /**
+     * @return The pool to send the next read request to.
+     */
+    private RemoteCacheConnectionPool selectReadPool() {
+        if (readPools.size() == 1)
+            return connectionPool;
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextInt(READ_REPLICA_PROBE_RATE) == 0)
+            return readPools.get(random.nextInt(readPools.size()));
+        RemoteCacheConnectionPool best = connectionPool;
+        double bestScore = connectionPool.getLoadScore();
+        for (int i = 1; i < readPools.size(); i++) {
+            final double score = readPools.get(i).getLoadScore();
+            if (score < bestScore) {
+                best = readPools.get(i);
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private int getHandle(RemoteCacheConnection connection) throws IOException {
+        return connection.getHandle(cacheId, cacheRegion, keySerializerName, valueSerializerName, regionSettings);
+    }
+
+    private CompletableFuture<Integer> getHandleAsync(RemoteCacheConnection connection) {
+        return connection.getHandleAsync(cacheId, cacheRegion, keySerializerName, valueSerializerName, regionSettings);
+    }
+
+    /**
+     * Sends the request over the given connection and records the transferred bytes in the metrics.
+     */
+    private CompletableFuture<byte[]> send(RemoteCacheConnection connection, DataOutput2 request) {
+        final CompletableFuture<byte[]> response = connection.send(request);
+        if (metrics.isEnabled()) {
+            metrics.recordBytesSent(4 + request.pos);
+            response.thenAccept(r -> metrics.recordBytesReceived(4 + r.length));
+        }
+        return response;
+    }
+
     @Override
-    public synchronized V get(K key) {
-        V value = memCache.getIfPresent(key);
-        if (value == null) {
-            establishConnection();
-            try {
-                writeDefaultInformation(CacheServer.METHOD_GET, key, oos);
-                value = (V) ois.readObject();
-                if (value != null)
-                    memCache.put(key, value);
-            } catch (IOException e) {
-                log.trace("Closing connection to {}:{}, cache ID {} and region {} due to exception in get().", host, port, cacheId, cacheRegion, e);
+    protected List<K> getHottestKeys(int n) {
+        return memCache.getHottestKeys(n);
+    }
+
+    @Override
+    public V get(K key) {
+        final long startTime = metrics.startTimer();
+        V value = memCache.get(key);
+        final boolean frontCacheHit = value != null;
+        if (value == null && negativeCache.contains(key)) {
+            metrics.recordNegativeCacheHit();
+        } else if (value == null) {
+            final long loadStamp = memCache.getLoadStamp();
+            final long negativeLoadStamp = negativeCache.getLoadStamp();
+            final RemoteCacheConnectionPool pool = selectReadPool();
+            if (pool != connectionPool) {
                 try {
-                    oos.close();
-                } catch (IOException ex) {
-                    //
+                    value = getFrom(pool, key, loadStamp);
+                } catch (IOException | RuntimeException e) {
+                    log.debug("Read from replica {} failed, reading from leader {}:{}: {}", pool, host, port, e.getMessage());
+                    pool.recordFailure();
                 }
+            }
+            if (value == null) {
                 try {
-                    ois.close();
-                } catch (IOException ex) {
-                    ex.printStackTrace();
+                    value = getFrom(connectionPool, key, loadStamp);
+                } catch (IOException | UncheckedIOException e) {
+                    log.trace("Request to {}:{}, cache ID {} and region {} failed in get().", host, port, cacheId, cacheRegion, e);
+                    throw new IllegalStateException(e);
                 }
-                connectionOpen = false;
-                throw new IllegalStateException(e);
-            } catch (ClassNotFoundException e) {
-                throw new IllegalStateException(e);
+                if (value == null)
+                    negativeCache.addLoaded(key, negativeLoadStamp);
             }
         }
+        metrics.recordGet(startTime, frontCacheHit, value != null);
         return value;
     }
 
-    private void writeDefaultInformation(String method, K key, ObjectOutputStream oos) throws IOException {
-        oos.writeUTF(method);
-        oos.writeUTF(cacheId);
-        oos.writeUTF(cacheRegion);
-        oos.writeUTF(keySerializer);
-        oos.writeUTF(valueSerializer);
-        oos.writeObject(key);
+    private V getFrom(RemoteCacheConnectionPool pool, K key, long loadStamp) throws IOException {
+        final long requestTime = System.nanoTime();
+        final RemoteCacheConnection connection = pool.getConnection();
+        final V value = readGetResponse(key, RemoteCacheConnection.await(send(connection, createGetRequest(getHandle(connection), key))), loadStamp);
+        pool.recordLatency(System.nanoTime() - requestTime);
+        return value;
     }
 
+    /**
+     * <p>Sends the request for <tt>key</tt> without waiting for the response, unless the value is found in the
+     * in-memory cache.</p>
+     * <p>The returned future is completed by the I/O thread of the connection. Expensive dependent actions should
+     * be registered with one of the <tt>*Async</tt> methods of {@link CompletableFuture}.</p>
+     */
     @Override
-    public synchronized boolean put(K key, V value) {
-        establishConnection();
+    public CompletableFuture<V> getAsync(K key) {
+        final long startTime = metrics.startTimer();
+        final V value = memCache.get(key);
+        if (value != null) {
+            metrics.recordGet(startTime, true, true);
+            return CompletableFuture.completedFuture(value);
+        }
+        if (negativeCache.contains(key)) {
+            metrics.recordNegativeCacheHit();
+            metrics.recordGet(startTime, false, false);
+            return CompletableFuture.completedFuture(null);
+        }
+        final long loadStamp = memCache.getLoadStamp();
+        final long negativeLoadStamp = negativeCache.getLoadStamp();
+        final RemoteCacheConnectionPool pool = selectReadPool();
+        CompletableFuture<V> result = getAsyncFrom(pool, key, loadStamp);
+        if (pool != connectionPool) {
+            result = result.handle((v, e) -> {
+                if (e != null) {
+                    log.debug("Read from replica {} failed, reading from leader {}:{}: {}", pool, host, port, e.getMessage());
+                    pool.recordFailure();
+                }
+                return v != null ? CompletableFuture.completedFuture(v) : getAsyncFrom(connectionPool, key, loadStamp);
+            }).thenCompose(f -> f);
+        }
+        if (negativeCache.isEnabled()) {
+            result = result.thenApply(v -> {
+                if (v == null)
+                    negativeCache.addLoaded(key, negativeLoadStamp);
+                return v;
+            });
+        }
+        if (metrics.isEnabled())
+            result.thenAccept(v -> metrics.recordGet(startTime, false, v != null));
+        return result;
+    }
+
+    private CompletableFuture<V> getAsyncFrom(RemoteCacheConnectionPool pool, K key, long loadStamp) {
         try {
-            if (value != null)
-                memCache.put(key, value);
-            writeDefaultInformation(CacheServer.METHOD_PUT, key, oos);
-            oos.writeObject(value);
-            oos.flush();
-            final String response = ois.readUTF();
-            if (response.equalsIgnoreCase(CacheServer.RESPONSE_FAILURE)) {
-                Exception e = (Exception) ois.readObject();
-                log.error("Could not put data into the remote cache:", e);
+            final long requestTime = System.nanoTime();
+            final RemoteCacheConnection connection = pool.getConnection();
+            return getHandleAsync(connection)
+                    .thenCompose(handle -> send(connection, createGetRequest(handle, key)))
+                    .thenApply(response -> {
+                        pool.recordLatency(System.nanoTime() - requestTime);
+                        return readGetResponse(key, response, loadStamp);
+                    });
+        } catch (IOException e) {
+            final CompletableFuture<V> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            return failure;
+        }
+    }
+
+    private DataOutput2 createGetRequest(int handle, K key) {
+        try {
+            final DataOutput2 request = new DataOutput2();
+            request.writeByte(CacheProtocol.OP_GET);
+            request.packInt(handle);
+            keySerializer.serialize(request, key);
+            return request;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private V readGetResponse(K key, byte[] response, long loadStamp) {
+        try {
+            final DataInput2 responseInput = new DataInput2.ByteArray(response);
+            V value = null;
+            if (CacheProtocol.readStatus(responseInput) == CacheProtocol.STATUS_OK) {
+                value = CacheProtocol.deserialize(valueSerializer, responseInput, response.length - responseInput.getPos());
+                memCache.putLoaded(key, value, loadStamp);
             }
-            return response.equals(CacheServer.RESPONSE_OK);
+            return value;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        try {
+            return RemoteCacheConnection.await(getAllAsync(keys));
+        } catch (IOException e) {
+            log.trace("Request to {}:{}, cache ID {} and region {} failed in getAll().", host, port, cacheId, cacheRegion, e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sends the requests of {@link #getAll(Collection)} without waiting for the responses, unless all values are
+     * found in the in-memory cache. The returned future is completed by the I/O thread of a connection.
+     */
+    public CompletableFuture<Map<K, V>> getAllAsync(Collection<? extends K> keys) {
+        final Map<K, V> ret = new HashMap<>();
+        final List<K> missingKeys = new ArrayList<>();
+        for (K key : keys) {
+            final V value = memCache.get(key);
+            if (value != null)
+                ret.put(key, value);
+            else if (negativeCache.contains(key))
+                metrics.recordNegativeCacheHit();
+            else
+                missingKeys.add(key);
+        }
+        final int numFrontCacheHits = ret.size();
+        if (missingKeys.isEmpty()) {
+            metrics.recordGets(keys.size(), numFrontCacheHits, 0);
+            return CompletableFuture.completedFuture(ret);
+        }
+        final long loadStamp = memCache.getLoadStamp();
+        final long negativeLoadStamp = negativeCache.getLoadStamp();
+        final RemoteCacheConnectionPool pool = selectReadPool();
+        CompletableFuture<Map<K, V>> replicaResult = CompletableFuture.completedFuture(Collections.emptyMap());
+        if (pool != connectionPool) {
+            replicaResult = getAllFrom(pool, missingKeys, loadStamp).exceptionally(e -> {
+                log.debug("Read from replica {} failed, reading from leader {}:{}: {}", pool, host, port, e.getMessage());
+                pool.recordFailure();
+                return Collections.emptyMap();
+            });
+        }
+        return replicaResult.thenCompose(replicaFound -> {
+            ret.putAll(replicaFound);
+            missingKeys.removeIf(ret::containsKey);
+            if (missingKeys.isEmpty())
+                return CompletableFuture.completedFuture(ret);
+            return getAllFrom(connectionPool, missingKeys, loadStamp).thenApply(found -> {
+                ret.putAll(found);
+                for (K key : missingKeys) {
+                    if (!ret.containsKey(key))
+                        negativeCache.addLoaded(key, negativeLoadStamp);
+                }
+                return ret;
+            });
+        }).thenApply(result -> {
+            metrics.recordGets(keys.size(), numFrontCacheHits, result.size() - numFrontCacheHits);
+            return result;
+        });
+    }
+
+    /**
+     * Requests the values of <tt>keys</tt> from the server of <tt>pool</tt> without waiting for the responses.
+     *
+     * @return A future that is completed with the found entries.
+     */
+    private CompletableFuture<Map<K, V>> getAllFrom(RemoteCacheConnectionPool pool, List<K> keys, long loadStamp) {
+        final long requestTime = System.nanoTime();
+        final RemoteCacheConnection connection;
+        try {
+            connection = pool.getConnection();
         } catch (IOException e) {
-            log.trace("Closing connection to {}:{}, cache ID {} and region {} due to exception in put().", host, port, cacheId, cacheRegion, e);
-            connectionOpen = false;
+            final CompletableFuture<Map<K, V>> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            return failure;
+        }
+        return getHandleAsync(connection).thenCompose(handle -> {
+            // Send all batches before waiting for the first response
+            final List<CompletableFuture<byte[]>> responses = new ArrayList<>();
             try {
-                oos.close();
-            } catch (IOException ex) {
-                //
+                for (int i = 0; i < keys.size(); i += CacheProtocol.MAX_BATCH_SIZE) {
+                    final List<K> batch = keys.subList(i, Math.min(i + CacheProtocol.MAX_BATCH_SIZE, keys.size()));
+                    final DataOutput2 request = new DataOutput2();
+                    request.writeByte(CacheProtocol.OP_GET_ALL);
+                    request.packInt(handle);
+                    request.packInt(batch.size());
+                    for (K key : batch)
+                        CacheProtocol.writeBytes(request, CacheProtocol.serialize(keySerializer, key));
+                    responses.add(send(connection, request));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
+            return CompletableFuture.allOf(responses.toArray(new CompletableFuture[0])).thenApply(v -> {
+                // Collect the entries first so that a failure does not leave a partial result
+                final Map<K, V> found = new HashMap<>();
+                try {
+                    for (int i = 0; i < responses.size(); i++) {
+                        final DataInput2 response = new DataInput2.ByteArray(responses.get(i).join());
+                        CacheProtocol.readStatus(response);
+                        final int numKeys = response.unpackInt();
+                        for (int j = 0; j < numKeys; j++) {
+                            if (response.readBoolean()) {
+                                final K key = keys.get(i * CacheProtocol.MAX_BATCH_SIZE + j);
+                                found.put(key, CacheProtocol.deserialize(valueSerializer, response, response.unpackInt()));
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                pool.recordLatency((System.nanoTime() - requestTime) / responses.size());
+                for (Map.Entry<K, V> entry : found.entrySet())
+                    memCache.putLoaded(entry.getKey(), entry.getValue(), loadStamp);
+                return found;
+            });
+        });
+    }
+
+    @Override
+    public boolean put(K key, V value) {
+        try {
+            final long startTime = metrics.startTimer();
+            final RemoteCacheConnection connection = getConnection();
+            final byte[] keyBytes = CacheProtocol.serialize(keySerializer, key);
+            memCache.putWritten(key, value);
+            final byte[] response = RemoteCacheConnection.await(send(connection, createPutRequest(getHandle(connection), keyBytes, value)));
+            // Only now, reads cannot find the key missing on the server anymore
+            negativeCache.invalidate(key);
+            final boolean success = readPutResponse(response);
+            invalidateLocalPeers(Collections.singletonList(keyBytes));
+            metrics.recordPut(startTime);
+            return success;
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Could not put data into cache ID {} and region {} on {}:{}.", cacheId, cacheRegion, host, port, e);
+        } catch (IllegalStateException e) {
+            log.error("Could not put data into the remote cache:", e);
         }
         return false;
     }
 
+    /**
+     * Sends the value to the server without waiting for the response. Failures are logged and cause the returned
+     * future to be completed with <tt>false</tt>.
+     */
+    @Override
+    public CompletableFuture<Boolean> putAsync(K key, V value) {
+        final long startTime = metrics.startTimer();
+        memCache.putWritten(key, value);
+        CompletableFuture<Boolean> result;
+        try {
+            final RemoteCacheConnection connection = getConnection();
+            final byte[] keyBytes = CacheProtocol.serialize(keySerializer, key);
+            result = getHandleAsync(connection)
+                    .thenCompose(handle -> send(connection, createPutRequest(handle, keyBytes, value)))
+                    .thenApply(response -> {
+                        negativeCache.invalidate(key);
+                        invalidateLocalPeers(Collections.singletonList(keyBytes));
+                        return readPutResponse(response);
+                    });
+            if (metrics.isEnabled())
+                result.thenAccept(success -> metrics.recordPut(startTime));
+        } catch (IOException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        return result.exceptionally(e -> {
+            log.error("Could not put data into the remote cache:", e);
+            return false;
+        });
+    }
+
+    /**
+     * Requests the value from the server and, if it is missing, the lock on the key. Without the lock, the request is
+     * repeated with increasing pauses until the client holding the lock has put the value or the lock has expired or
+     * has been released. With the lock, the value is computed and put, which releases the lock on the server.
+     */
+    @Override
+    protected V computeAndPut(K key, Function<? super K, ? extends V> loader) {
+        try {
+            final byte[] keyBytes = CacheProtocol.serialize(keySerializer, key);
+            RemoteCacheConnection lockConnection;
+            long pause = 1;
+            while (true) {
+                final long loadStamp = memCache.getLoadStamp();
+                final RemoteCacheConnection connection = getConnection();
+                final DataOutput2 request = new DataOutput2();
+                request.writeByte(CacheProtocol.OP_GET_OR_LOCK);
+                request.packInt(getHandle(connection));
+                request.packLong(computeLockTimeout);
+                request.write(keyBytes);
+                final byte[] response = RemoteCacheConnection.await(send(connection, request));
+                final DataInput2 responseInput = new DataInput2.ByteArray(response);
+                if (CacheProtocol.readStatus(responseInput) == CacheProtocol.STATUS_OK) {
+                    final V value = CacheProtocol.deserialize(valueSerializer, responseInput, response.length - responseInput.getPos());
+                    memCache.putLoaded(key, value, loadStamp);
+                    negativeCache.invalidate(key);
+                    return value;
+                }
+                if (responseInput.readBoolean()) {
+                    lockConnection = connection;
+                    break;
+                }
+                Thread.sleep(pause);
+                pause = Math.min(pause * 2, MAX_LOCK_POLL_PAUSE);
+            }
+            final V value;
+            try {
+                value = loader.apply(key);
+            } catch (RuntimeException | Error e) {
+                unlock(lockConnection, keyBytes);
+                throw e;
+            }
+            if (value == null || !put(key, value))
+                unlock(lockConnection, keyBytes);
+            return value;
+        } catch (IOException e) {
+            log.trace("Request to {}:{}, cache ID {} and region {} failed in getOrCompute().", host, port, cacheId, cacheRegion, e);
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for another client to compute the value of key " + key + " in cache " + cacheId + ", region " + cacheRegion + ".", e);
+        }
+    }
+
+    /**
+     * Releases the lock on a key obtained in {@link #computeAndPut(Object, Function)} without putting a value. If this
+     * fails, the lock expires after {@link CacheMapSettings#COMPUTE_LOCK_TIMEOUT}.
+     *
+     * @param connection The connection that has received the lock. The server ignores the request on other
+     *                   connections.
+     */
+    private void unlock(RemoteCacheConnection connection, byte[] keyBytes) {
+        try {
+            final DataOutput2 request = new DataOutput2();
+            request.writeByte(CacheProtocol.OP_UNLOCK);
+            request.packInt(getHandle(connection));
+            request.write(keyBytes);
+            CacheProtocol.readStatus(new DataInput2.ByteArray(RemoteCacheConnection.await(send(connection, request))));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not release the lock on a key of cache ID {} and region {} on {}:{}. It expires after {}ms.", cacheId, cacheRegion, host, port, computeLockTimeout, e);
+        }
+    }
+
+    private DataOutput2 createPutRequest(int handle, byte[] keyBytes, V value) {
+        try {
+            final DataOutput2 request = new DataOutput2();
+            request.writeByte(CacheProtocol.OP_PUT);
+            request.packInt(handle);
+            CacheProtocol.writeBytes(request, keyBytes);
+            valueSerializer.serialize(request, value);
+            return request;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean readPutResponse(byte[] response) {
+        try {
+            return CacheProtocol.readStatus(new DataInput2.ByteArray(response)) == CacheProtocol.STATUS_OK;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean putAll(Map<? extends K, ? extends V> entries) {
+        return putAllAsync(entries).join();
+    }
+
+    /**
+     * Sends the entries of {@link #putAll(Map)} without waiting for the responses. Failures are logged and cause the
+     * returned future to be completed with <tt>false</tt>.
+     */
+    public CompletableFuture<Boolean> putAllAsync(Map<? extends K, ? extends V> entries) {
+        CompletableFuture<Boolean> result;
+        try {
+            final RemoteCacheConnection connection = getConnection();
+            final int handle = getHandle(connection);
+            final List<CompletableFuture<byte[]>> responses = new ArrayList<>();
+            // Like the server, invalidate the whole region in the other front caches for larger writes
+            final List<byte[]> writtenKeys = entries.size() <= CacheProtocol.MAX_INVALIDATION_KEYS && connectionPool.hasOtherInvalidationListeners(regionKey, invalidationListener) ? new ArrayList<>() : null;
+            final Iterator<? extends Map.Entry<? extends K, ? extends V>> entryIt = entries.entrySet().iterator();
+            while (entryIt.hasNext()) {
+                final DataOutput2 request = new DataOutput2();
+                final List<Map.Entry<? extends K, ? extends V>> batch = new ArrayList<>();
+                while (entryIt.hasNext() && batch.size() < CacheProtocol.MAX_BATCH_SIZE)
+                    batch.add(entryIt.next());
+                request.writeByte(CacheProtocol.OP_PUT_ALL);
+                request.packInt(handle);
+                request.packInt(batch.size());
+                for (Map.Entry<? extends K, ? extends V> entry : batch) {
+                    memCache.putWritten(entry.getKey(), entry.getValue());
+                    final byte[] keyBytes = CacheProtocol.serialize(keySerializer, entry.getKey());
+                    if (writtenKeys != null)
+                        writtenKeys.add(keyBytes);
+                    CacheProtocol.writeBytes(request, keyBytes);
+                    CacheProtocol.writeBytes(request, CacheProtocol.serialize(valueSerializer, entry.getValue()));
+                }
+                responses.add(send(connection, request));
+            }
+            result = CompletableFuture.allOf(responses.toArray(new CompletableFuture[0])).thenApply(v -> {
+                boolean success = true;
+                try {
+                    for (CompletableFuture<byte[]> response : responses)
+                        success &= CacheProtocol.readStatus(new DataInput2.ByteArray(response.join())) == CacheProtocol.STATUS_OK;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                for (K key : entries.keySet())
+                    negativeCache.invalidate(key);
+                invalidateLocalPeers(writtenKeys);
+                metrics.recordPuts(entries.size());
+                return success;
+            });
+        } catch (IOException | IllegalStateException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        return result.exceptionally(e -> {
+            log.error("Could not put data into cache ID {} and region {} on {}:{}.", cacheId, cacheRegion, host, port, e);
+            return false;
+        });
+    }
+
     @Override
     public boolean isReadOnly() {
         return false;
@@ -140,31 +692,24 @@ public class RemoteCacheAccess<K, V> extends CacheAccess<K, V> {
         return false;
     }
 
+    /**
+     * Commits the cache file of this cache region on the server. The commit covers all writes whose
+     * <tt>put</tt> operations have completed. The server might combine commit requests of multiple clients into a
+     * single commit, thus this method might return slightly delayed.
+     */
     @Override
-    public synchronized void commit() {
-        establishConnection();
+    public void commit() {
         try {
-            // Sending a null key will cause all caches to be committed. If we should need the commit
-            // of individual caches in the future, that feature would need to be implemented because it is not
-            // possible currently.
-            writeDefaultInformation(CacheServer.METHOD_PUT, null, oos);
-            oos.close();
-            ois.close();
-            connectionOpen = false;
+            final long startTime = metrics.startTimer();
+            final RemoteCacheConnection connection = getConnection();
+            final DataOutput2 request = new DataOutput2();
+            request.writeByte(CacheProtocol.OP_COMMIT);
+            request.packInt(getHandle(connection));
+            // The pooled connection stays open for subsequent requests of this and other cache accesses
+            CacheProtocol.readStatus(new DataInput2.ByteArray(RemoteCacheConnection.await(send(connection, request))));
+            metrics.recordCommit(startTime);
         } catch (IOException e) {
-            log.trace("Closing connection to {}:{}, cache ID {} and region {} due to exception in commit().", host, port, cacheId, cacheRegion, e);
-            try {
-                oos.close();
-            } catch (IOException ex) {
-                //
-            }
-            try {
-                ois.close();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            }
-            connectionOpen = false;
-            e.printStackTrace();
+            log.error("Could not commit cache ID {} and region {} on {}:{}.", cacheId, cacheRegion, host, port, e);
         }
     }
 }
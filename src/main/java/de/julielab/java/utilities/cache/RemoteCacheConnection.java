@@ -0,0 +1,333 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A client connection to a {@link CacheServer}.</p>
+ * <p>Requests may be sent concurrently by multiple threads. They are written to the socket in the order of the calls
+ * to {@link #send(DataOutput2)} without waiting for the responses of earlier requests. Since the server answers the
+ * requests of a connection in order, a single reader thread assigns the incoming responses to the pending requests
+ * in FIFO order. Thus, multiple outstanding requests share the same connection.</p>
+ * <p>The futures returned by this class are completed by the reader thread. Dependent actions that are not
+ * registered with an explicit executor run in that thread and delay the processing of subsequent responses,
+ * so they should be short.</p>
+ * <p>If the connection has an {@link InvalidationListener}, it subscribes to the invalidations of all regions it
+ * opens. The invalidation messages pushed by the server are passed to the listener by the reader thread. When the
+ * connection is closed, the listener receives an invalidation of all regions because subsequent writes are not
+ * reported anymore.</p>
+ */
+class RemoteCacheConnection implements Closeable {
+    private final static Logger log = LoggerFactory.getLogger(RemoteCacheConnection.class);
+    private final String host;
+    private final int port;
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final Queue<CompletableFuture<byte[]>> pendingResponses = new ConcurrentLinkedQueue<>();
+    private final Map<String, CompletableFuture<Integer>> handles = new ConcurrentHashMap<>();
+    private final Map<Integer, String> regionKeysByHandle = new ConcurrentHashMap<>();
+    private final InvalidationListener invalidationListener;
+    private final AtomicInteger numPendingRequests = new AtomicInteger();
+    private volatile long lastUsedTime = System.nanoTime();
+    private volatile boolean closed;
+
+    RemoteCacheConnection(String host, int port) throws IOException {
+        this(host, port, null);
+    }
+
+    /**
+     * @param invalidationListener Receives the invalidations pushed by the server. If <tt>null</tt>, the connection
+     *                             does not subscribe to invalidations.
+     */
+    RemoteCacheConnection(String host, int port, InvalidationListener invalidationListener) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.invalidationListener = invalidationListener;
+        log.debug("Establishing new connection to cache server at {}:{}", host, port);
+        socket = new Socket(InetAddress.getByName(host), port);
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        final Thread readerThread = new Thread(this::readResponses, "CacheServerConnection-" + host + ":" + port);
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        final DataOutput2 hello = new DataOutput2();
+        hello.writeByte(CacheProtocol.OP_HELLO);
+        hello.writeInt(CacheProtocol.MAGIC);
+        hello.writeByte(CacheProtocol.VERSION);
+        try {
+            CacheProtocol.readStatus(new DataInput2.ByteArray(await(send(hello))));
+        } catch (IOException | IllegalStateException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the handle for the given cache region, opening the region on the server if this has not yet happened
+     * on this connection.
+     *
+     * @param regionSettings The settings of the region for the server, see {@link CacheProtocol#REGION_SETTINGS}.
+     *                       Only used when the region is opened.
+     */
+    int getHandle(String cacheId, String cacheRegion, String keySerializerName, String valueSerializerName, Map<String, Object> regionSettings) throws IOException {
+        return await(getHandleAsync(cacheId, cacheRegion, keySerializerName, valueSerializerName, regionSettings));
+    }
+
+    /**
+     * Non-blocking variant of {@link #getHandle(String, String, String, String, Map)}.
+     */
+    CompletableFuture<Integer> getHandleAsync(String cacheId, String cacheRegion, String keySerializerName, String valueSerializerName, Map<String, Object> regionSettings) {
+        final String regionKey = getRegionKey(cacheId, cacheRegion, keySerializerName, valueSerializerName);
+        CompletableFuture<Integer> handle = handles.get(regionKey);
+        if (handle == null || handle.isCompletedExceptionally()) {
+            final CompletableFuture<Integer> newHandle = new CompletableFuture<>();
+            handle = handles.compute(regionKey, (k, v) -> v == null || v.isCompletedExceptionally() ? newHandle : v);
+            if (handle == newHandle) {
+                try {
+                    final DataOutput2 open = new DataOutput2();
+                    open.writeByte(CacheProtocol.OP_OPEN);
+                    open.writeUTF(cacheId);
+                    open.writeUTF(cacheRegion);
+                    open.writeUTF(keySerializerName);
+                    open.writeUTF(valueSerializerName);
+                    open.writeBoolean(invalidationListener != null);
+                    CacheProtocol.writeRegionSettings(open, regionSettings);
+                    send(open).thenApply(response -> {
+                        try {
+                            final DataInput2 responseInput = new DataInput2.ByteArray(response);
+                            CacheProtocol.readStatus(responseInput);
+                            final int h = responseInput.unpackInt();
+                            regionKeysByHandle.put(h, regionKey);
+                            return h;
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    }).whenComplete((h, e) -> {
+                        if (e != null)
+                            newHandle.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                        else
+                            newHandle.complete(h);
+                    });
+                } catch (IOException e) {
+                    newHandle.completeExceptionally(e);
+                }
+            }
+        }
+        return handle;
+    }
+
+    /**
+     * @return The key identifying a region opened with specific serializers, as passed to the
+     * {@link InvalidationListener}.
+     */
+    static String getRegionKey(String cacheId, String cacheRegion, String keySerializerName, String valueSerializerName) {
+        return cacheId + '\u0000' + cacheRegion + '\u0000' + keySerializerName + '\u0000' + valueSerializerName;
+    }
+
+    /**
+     * Waits for the result of a future created by this connection.
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the cache server response.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Sends a request without waiting for the response. The returned future is completed with the response payload,
+     * starting with the status byte, or exceptionally with an {@link IOException} if the connection fails.
+     */
+    CompletableFuture<byte[]> send(DataOutput2 request) {
+        lastUsedTime = System.nanoTime();
+        return sendRequest(request);
+    }
+
+    /**
+     * Sends a {@link CacheProtocol#OP_PING} request. Does not count as usage of the connection with respect to
+     * {@link #getLastUsedTime()}.
+     */
+    CompletableFuture<byte[]> ping() {
+        final DataOutput2 ping = new DataOutput2();
+        try {
+            ping.writeByte(CacheProtocol.OP_PING);
+        } catch (IOException e) {
+            final CompletableFuture<byte[]> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            return failure;
+        }
+        return sendRequest(ping);
+    }
+
+    private CompletableFuture<byte[]> sendRequest(DataOutput2 request) {
+        final CompletableFuture<byte[]> response = new CompletableFuture<>();
+        numPendingRequests.incrementAndGet();
+        response.whenComplete((r, e) -> numPendingRequests.decrementAndGet());
+        synchronized (out) {
+            pendingResponses.add(response);
+            try {
+                CacheProtocol.writeFrame(out, request);
+                out.flush();
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+        // The connection might have been closed before the response was enqueued, see close(IOException)
+        if (closed)
+            failPendingResponses(new IOException("The connection to the cache server at " + host + ":" + port + " is closed."));
+        return response;
+    }
+
+    private void readResponses() {
+        try {
+            while (!closed) {
+                final byte[] response = CacheProtocol.readFrame(in);
+                if (CacheProtocol.isPush(response)) {
+                    handlePush(response);
+                    continue;
+                }
+                final CompletableFuture<byte[]> pendingResponse = pendingResponses.poll();
+                if (pendingResponse == null)
+                    throw new IOException("Received a response from the cache server without a pending request.");
+                pendingResponse.complete(response);
+            }
+        } catch (IOException e) {
+            if (!closed)
+                log.debug("Connection to cache server at {}:{} failed: {}", host, port, e.getMessage());
+            close(e);
+        }
+    }
+
+    private void handlePush(byte[] push) throws IOException {
+        if (invalidationListener == null)
+            return;
+        final DataInput2 in = new DataInput2.ByteArray(push);
+        final byte type = in.readByte();
+        // Invalidations may arrive before the response to the OPEN request; nothing can be cached for such handles yet
+        final String regionKey = regionKeysByHandle.get(in.unpackInt());
+        if (regionKey == null)
+            return;
+        if (type == CacheProtocol.PUSH_INVALIDATE_REGION) {
+            invalidationListener.invalidate(regionKey, null);
+        } else {
+            final int numKeys = in.unpackInt();
+            final List<byte[]> keys = new ArrayList<>(numKeys);
+            for (int i = 0; i < numKeys; i++) {
+                final byte[] key = new byte[in.unpackInt()];
+                in.readFully(key);
+                keys.add(key);
+            }
+            invalidationListener.invalidate(regionKey, keys);
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Marks the connection as used by a request about to be sent so that {@link #closeIfIdle(long)} does not close
+     * it in the meantime.
+     *
+     * @return <tt>false</tt> if the connection has already been closed and cannot be used.
+     */
+    synchronized boolean reserve() {
+        if (closed)
+            return false;
+        lastUsedTime = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Closes the connection if it has no pending requests and has neither been used nor reserved, see
+     * {@link #reserve()}, for the given time.
+     *
+     * @return Whether the connection is closed.
+     */
+    synchronized boolean closeIfIdle(long idleTimeoutMillis) {
+        if (numPendingRequests.get() == 0 && TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastUsedTime) >= idleTimeoutMillis)
+            close();
+        return closed;
+    }
+
+    /**
+     * @return The number of requests that have been sent but not yet been answered.
+     */
+    int getNumPendingRequests() {
+        return numPendingRequests.get();
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} of the last request sent via {@link #send(DataOutput2)}.
+     */
+    long getLastUsedTime() {
+        return lastUsedTime;
+    }
+
+    @Override
+    public void close() {
+        close(new IOException("The connection to the cache server at " + host + ":" + port + " has been closed."));
+    }
+
+    private void close(IOException cause) {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //
+        }
+        failPendingResponses(cause);
+        if (invalidationListener != null) {
+            for (String regionKey : regionKeysByHandle.values())
+                invalidationListener.invalidate(regionKey, null);
+            regionKeysByHandle.clear();
+        }
+    }
+
+    private void failPendingResponses(IOException cause) {
+        CompletableFuture<byte[]> pendingResponse;
+        while ((pendingResponse = pendingResponses.poll()) != null)
+            pendingResponse.completeExceptionally(cause);
+    }
+
+    /**
+     * Receives the invalidations pushed by the server.
+     */
+    @FunctionalInterface
+    interface InvalidationListener {
+        /**
+         * @param regionKey The region as returned by {@link #getRegionKey(String, String, String, String)}.
+         * @param keys      The serialized keys that have been written or <tt>null</tt> if the whole region is
+         *                  invalid.
+         */
+        void invalidate(String regionKey, List<byte[]> keys);
+    }
+}
@@ -0,0 +1,298 @@
+package de.julielab.java.utilities.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * <p>A pool of connections to a single {@link CacheServer}. There is one pool per host and port in the JVM which
+ * is shared by all {@link RemoteCacheAccess} instances connecting to this server.</p>
+ * <p>Connections are not checked out exclusively. Since requests are pipelined (see {@link RemoteCacheConnection}),
+ * each connection serves multiple threads at the same time. A request is sent over the open connection with the
+ * fewest pending requests. New connections are opened while all existing connections are busy and the maximum pool
+ * size has not yet been reached.</p>
+ * <p>A background task closes connections that have not been used for longer than the idle timeout. Connections
+ * that have been idle for at least the health check interval receive a ping; if the server does not answer in
+ * time, the connection is closed and removed from the pool before a cache access tries to use it.</p>
+ * <p>The connections of the pool subscribe to the invalidations of the regions they open. The pool passes them on to
+ * the invalidation listeners registered for the region, i.e. the near caches of the {@link RemoteCacheAccess}
+ * instances. Since the server does not report writes back to the writing connection, writes of one cache access are
+ * also passed to the listeners of the other accesses of the region in this JVM.</p>
+ * <p>The pool keeps a moving average of the response latency of the server reported by the cache accesses. Together
+ * with the number of pending requests, it determines the {@link #getLoadScore() load score} by which reads are
+ * distributed over read replicas.</p>
+ * <p>The pool is configured via the Java system properties {@link #POOL_SIZE_PROP}, {@link #IDLE_TIMEOUT_PROP}
+ * and {@link #HEALTH_CHECK_INTERVAL_PROP} which are read when the pool for a server is created.</p>
+ */
+public class RemoteCacheConnectionPool {
+    /**
+     * The maximum number of connections to a single cache server. Defaults to 4.
+     */
+    public static final String POOL_SIZE_PROP = "de.julielab.java.utilities.cache.remote.poolsize";
+    /**
+     * The time in milliseconds after which an unused connection is closed. Defaults to 5 minutes.
+     */
+    public static final String IDLE_TIMEOUT_PROP = "de.julielab.java.utilities.cache.remote.idletimeout";
+    /**
+     * The interval in milliseconds in which idle connections are checked for health. Defaults to 30 seconds.
+     */
+    public static final String HEALTH_CHECK_INTERVAL_PROP = "de.julielab.java.utilities.cache.remote.healthcheckinterval";
+    private final static Logger log = LoggerFactory.getLogger(RemoteCacheConnectionPool.class);
+    private static final double LATENCY_EWMA_ALPHA = 0.2;
+    /**
+     * The latency recorded for a failed request so that the server is avoided until it answers again.
+     */
+    private static final long FAILURE_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final Map<String, RemoteCacheConnectionPool> pools = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService maintenanceExecutor;
+    private final String host;
+    private final int port;
+    private final int maxSize;
+    private final long idleTimeout;
+    private final long healthCheckInterval;
+    private final List<RemoteCacheConnection> connections = new CopyOnWriteArrayList<>();
+    /**
+     * The periodic maintenance of this pool and the executor running it. Guarded by the class lock.
+     */
+    private ScheduledFuture<?> maintenanceTask;
+    private ScheduledExecutorService maintenanceTaskExecutor;
+    /**
+     * Guarded by the class lock.
+     */
+    private boolean closed;
+    /**
+     * The listeners by region key, see {@link RemoteCacheConnection#getRegionKey(String, String, String, String)}.
+     * The listeners are held weakly so that they are removed together with their cache access.
+     */
+    private final Map<String, Set<Consumer<List<byte[]>>>> invalidationListeners = new ConcurrentHashMap<>();
+    private volatile double latencyEwma;
+
+    private RemoteCacheConnectionPool(String host, int port) {
+        this.host = host;
+        this.port = port;
+        maxSize = Integer.parseInt(System.getProperty(POOL_SIZE_PROP, "4"));
+        idleTimeout = Long.parseLong(System.getProperty(IDLE_TIMEOUT_PROP, String.valueOf(TimeUnit.MINUTES.toMillis(5))));
+        healthCheckInterval = Long.parseLong(System.getProperty(HEALTH_CHECK_INTERVAL_PROP, String.valueOf(TimeUnit.SECONDS.toMillis(30))));
+        if (maxSize < 1)
+            throw new IllegalArgumentException("The connection pool size must be positive but was " + maxSize + ".");
+    }
+
+    /**
+     * @param host The cache server host.
+     * @param port The cache server port.
+     * @return The connection pool of the JVM for the given server.
+     */
+    public static RemoteCacheConnectionPool getPool(String host, int port) {
+        final RemoteCacheConnectionPool pool = pools.computeIfAbsent(host + ":" + port, k -> new RemoteCacheConnectionPool(host, port));
+        // Scheduled outside of computeIfAbsent because closeAll() removes the pools while holding the class lock
+        pool.ensureMaintenance();
+        return pool;
+    }
+
+    /**
+     * Closes the connections of all pools and stops the thread that maintains them. Subsequent cache accesses will
+     * create new pools.
+     */
+    public static void closeAll() {
+        // Holding the class lock, no pool can schedule its maintenance on the executor that is shut down here. Pools
+        // created afterwards schedule it on a new executor.
+        synchronized (RemoteCacheConnectionPool.class) {
+            for (String server : pools.keySet()) {
+                final RemoteCacheConnectionPool pool = pools.remove(server);
+                if (pool != null)
+                    pool.close();
+            }
+            if (maintenanceExecutor != null) {
+                maintenanceExecutor.shutdownNow();
+                maintenanceExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * Schedules the periodic maintenance of this pool in a daemon thread shared by all pools unless it is already
+     * scheduled on the current executor. The thread is created on first use and stopped by {@link #closeAll()}.
+     */
+    private void ensureMaintenance() {
+        synchronized (RemoteCacheConnectionPool.class) {
+            if (closed || (maintenanceTask != null && maintenanceTaskExecutor == maintenanceExecutor))
+                return;
+            if (maintenanceExecutor == null) {
+                maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    final Thread t = new Thread(r, "RemoteCacheConnectionPool-maintenance");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            maintenanceTaskExecutor = maintenanceExecutor;
+            maintenanceTask = maintenanceExecutor.scheduleWithFixedDelay(this::maintain, healthCheckInterval, healthCheckInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return The least busy open connection, possibly newly created.
+     * @throws IOException If a new connection is required but cannot be established.
+     */
+    RemoteCacheConnection getConnection() throws IOException {
+        // Reserving the connection keeps the maintenance from closing it as idle before the caller sends
+        RemoteCacheConnection leastBusy = findLeastBusyConnection();
+        if (leastBusy != null && (leastBusy.getNumPendingRequests() == 0 || connections.size() >= maxSize) && leastBusy.reserve())
+            return leastBusy;
+        synchronized (this) {
+            leastBusy = findLeastBusyConnection();
+            if (leastBusy != null && (leastBusy.getNumPendingRequests() == 0 || connections.size() >= maxSize) && leastBusy.reserve())
+                return leastBusy;
+            final RemoteCacheConnection connection = new RemoteCacheConnection(host, port, (regionKey, keys) -> invalidate(regionKey, keys, null));
+            connections.add(connection);
+            log.debug("Opened connection {} of at most {} to cache server at {}:{}", connections.size(), maxSize, host, port);
+            return connection;
+        }
+    }
+
+    private RemoteCacheConnection findLeastBusyConnection() {
+        RemoteCacheConnection leastBusy = null;
+        for (RemoteCacheConnection connection : connections) {
+            if (connection.isClosed()) {
+                connections.remove(connection);
+                continue;
+            }
+            if (leastBusy == null || connection.getNumPendingRequests() < leastBusy.getNumPendingRequests())
+                leastBusy = connection;
+        }
+        return leastBusy;
+    }
+
+    /**
+     * Registers a listener for the invalidations of a region. The listener is only weakly referenced by the pool, so
+     * the caller must keep a strong reference as long as it should receive invalidations.
+     *
+     * @param regionKey The region key, see {@link RemoteCacheConnection#getRegionKey(String, String, String, String)}.
+     * @param listener  Receives the serialized keys to invalidate or <tt>null</tt> for the whole region.
+     */
+    void addInvalidationListener(String regionKey, Consumer<List<byte[]>> listener) {
+        invalidationListeners.computeIfAbsent(regionKey, k -> Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()))).add(listener);
+    }
+
+    /**
+     * Passes an invalidation to the listeners of the region.
+     *
+     * @param regionKey The region key.
+     * @param keys      The serialized keys or <tt>null</tt> for the whole region.
+     * @param source    A listener that should not be notified because it caused the invalidation, may be
+     *                  <tt>null</tt>.
+     */
+    void invalidate(String regionKey, List<byte[]> keys, Consumer<List<byte[]>> source) {
+        final Set<Consumer<List<byte[]>>> listeners = invalidationListeners.get(regionKey);
+        if (listeners == null)
+            return;
+        final List<Consumer<List<byte[]>>> listenersCopy;
+        synchronized (listeners) {
+            listenersCopy = new ArrayList<>(listeners);
+        }
+        for (Consumer<List<byte[]>> listener : listenersCopy) {
+            if (listener != source)
+                listener.accept(keys);
+        }
+    }
+
+    /**
+     * @return Whether there are listeners for the region other than <tt>source</tt>.
+     */
+    boolean hasOtherInvalidationListeners(String regionKey, Consumer<List<byte[]>> source) {
+        final Set<Consumer<List<byte[]>>> listeners = invalidationListeners.get(regionKey);
+        if (listeners == null)
+            return false;
+        synchronized (listeners) {
+            return listeners.size() > (listeners.contains(source) ? 1 : 0);
+        }
+    }
+
+    /**
+     * Adds the response latency of a request to the moving average of this server.
+     *
+     * @param nanos The time between sending the request and receiving the response in nanoseconds.
+     */
+    synchronized void recordLatency(long nanos) {
+        latencyEwma = latencyEwma == 0 ? nanos : latencyEwma + LATENCY_EWMA_ALPHA * (nanos - latencyEwma);
+    }
+
+    /**
+     * Records a failed request with a high latency.
+     */
+    void recordFailure() {
+        recordLatency(FAILURE_LATENCY_NANOS);
+    }
+
+    /**
+     * @return The moving average of the response latency in nanoseconds or 0 if no request has been recorded yet.
+     */
+    public double getLatencyEwma() {
+        return latencyEwma;
+    }
+
+    /**
+     * The expected time a new request would take: the average latency multiplied by the number of requests queued on
+     * the least busy connection plus one. A server without recorded latency has a score of 0 so that it is tried
+     * first.
+     *
+     * @return The load score of the server, lower is better.
+     */
+    public double getLoadScore() {
+        final RemoteCacheConnection leastBusy = findLeastBusyConnection();
+        final int numPendingRequests = leastBusy != null ? leastBusy.getNumPendingRequests() : 0;
+        return latencyEwma * (1 + numPendingRequests);
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+
+    /**
+     * @return The number of connections currently held by this pool.
+     */
+    public int getNumConnections() {
+        return connections.size();
+    }
+
+    private void maintain() {
+        final long now = System.nanoTime();
+        for (RemoteCacheConnection connection : connections) {
+            final long idleTime = TimeUnit.NANOSECONDS.toMillis(now - connection.getLastUsedTime());
+            if (connection.isClosed()) {
+                connections.remove(connection);
+            } else if (connection.getNumPendingRequests() == 0 && idleTime >= idleTimeout) {
+                // Removed first so that it is not handed out anymore. A caller that has obtained it before has
+                // reserved it, which makes closeIfIdle keep it open.
+                connections.remove(connection);
+                if (connection.closeIfIdle(idleTimeout))
+                    log.debug("Closed connection to cache server at {}:{} after being idle for {}ms", host, port, idleTime);
+                else
+                    connections.add(connection);
+            } else if (connection.getNumPendingRequests() == 0 && idleTime >= healthCheckInterval) {
+                connection.ping().orTimeout(healthCheckInterval, TimeUnit.MILLISECONDS).whenComplete((response, e) -> {
+                    if (e != null) {
+                        log.debug("Closing connection to cache server at {}:{} because the health check failed: {}", host, port, e.toString());
+                        connections.remove(connection);
+                        connection.close();
+                    }
+                });
+            }
+        }
+    }
+
+    private void close() {
+        synchronized (RemoteCacheConnectionPool.class) {
+            closed = true;
+            if (maintenanceTask != null)
+                maintenanceTask.cancel(false);
+        }
+        for (RemoteCacheConnection connection : connections)
+            connection.close();
+        connections.clear();
+    }
+}
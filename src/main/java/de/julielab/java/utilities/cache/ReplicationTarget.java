@@ -0,0 +1,127 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.DataOutput2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Forwards the write requests received by a {@link CacheServer} to a follower server.</p>
+ * <p>Replication is asynchronous: the requests are queued and sent by a single background thread in the order they
+ * were received, without waiting for the follower's responses. When the queue is full or the follower is not
+ * reachable, requests are dropped and counted, so a slow follower never slows down the leader. Since the follower is
+ * a cache, a dropped entry only means that it has to be computed again by a client reading from the follower.</p>
+ */
+class ReplicationTarget {
+    private final static Logger log = LoggerFactory.getLogger(ReplicationTarget.class);
+    private static final long RECONNECT_DELAY_MILLIS = 5000;
+    private final String host;
+    private final int port;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong droppedRequests = new AtomicLong();
+    /**
+     * Only accessed by the replication thread.
+     */
+    private RemoteCacheConnection connection;
+    private long reconnectNotBefore;
+
+    ReplicationTarget(String host, int port, int queueSize) {
+        this.host = host;
+        this.port = port;
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+            final Thread t = new Thread(r, "CacheReplication-" + host + ":" + port);
+            t.setDaemon(true);
+            return t;
+        }, (r, e) -> {
+            if (droppedRequests.getAndIncrement() % 10000 == 0)
+                log.warn("The replication queue to follower {}:{} is full or closed, dropping requests. {} requests have been dropped so far.", host, port, droppedRequests.get());
+        });
+    }
+
+    /**
+     * Enqueues a write request for replication.
+     *
+     * @param cacheName           The cache ID of the region.
+     * @param cacheRegion         The region name.
+     * @param keySerializerName   The key serializer of the region.
+     * @param valueSerializerName The value serializer of the region.
+     * @param regionSettings      The settings the region has been opened with on the leader.
+     * @param request             The request as received by the leader.
+     * @param payloadOffset       The position in <tt>request</tt> directly after the region handle. The leader's
+     *                            handle is replaced by the follower's handle.
+     */
+    void replicate(String cacheName, String cacheRegion, String keySerializerName, String valueSerializerName, Map<String, Object> regionSettings, byte[] request, int payloadOffset) {
+        executor.execute(() -> send(cacheName, cacheRegion, keySerializerName, valueSerializerName, regionSettings, request, payloadOffset));
+    }
+
+    private void send(String cacheName, String cacheRegion, String keySerializerName, String valueSerializerName, Map<String, Object> regionSettings, byte[] request, int payloadOffset) {
+        final RemoteCacheConnection connection = getConnection();
+        if (connection == null) {
+            droppedRequests.incrementAndGet();
+            return;
+        }
+        try {
+            final DataOutput2 out = new DataOutput2();
+            out.writeByte(request[0]);
+            out.packInt(connection.getHandle(cacheName, cacheRegion, keySerializerName, valueSerializerName, regionSettings));
+            out.write(request, payloadOffset, request.length - payloadOffset);
+            connection.send(out).whenComplete((response, e) -> {
+                if (e != null)
+                    log.debug("Replication of a request to follower {}:{} failed: {}", host, port, e.getMessage());
+                else if (response.length > 0 && response[0] == CacheProtocol.STATUS_FAILURE)
+                    log.debug("Follower {}:{} could not apply a replicated request.", host, port);
+            });
+        } catch (IOException | RuntimeException e) {
+            log.debug("Replication of a request to follower {}:{} failed: {}", host, port, e.getMessage());
+            droppedRequests.incrementAndGet();
+        }
+    }
+
+    private RemoteCacheConnection getConnection() {
+        if (connection != null && !connection.isClosed())
+            return connection;
+        if (System.currentTimeMillis() < reconnectNotBefore)
+            return null;
+        try {
+            connection = new RemoteCacheConnection(host, port);
+            log.info("Connected to replication follower {}:{}", host, port);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not connect to replication follower {}:{}, retrying in {}ms: {}", host, port, RECONNECT_DELAY_MILLIS, e.getMessage());
+            connection = null;
+            reconnectNotBefore = System.currentTimeMillis() + RECONNECT_DELAY_MILLIS;
+            return null;
+        }
+    }
+
+    /**
+     * @return The number of requests that could not be replicated.
+     */
+    long getDroppedRequests() {
+        return droppedRequests.get();
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+
+    /**
+     * Sends the queued requests and closes the connection to the follower.
+     */
+    void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS))
+                log.warn("Could not replicate all queued requests to follower {}:{} within 10 seconds.", host, port);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (connection != null)
+            connection.close();
+    }
+}
@@ -0,0 +1,87 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.Serializer;
+import org.mapdb.serializer.GroupSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Maps serializer names to the MapDB serializers for the keys and values of cache regions, see
+ * {@link CacheAccess#getSerializerByName(String)}.</p>
+ * <p>Besides the built-in serializers named by the constants of {@link CacheAccess}, applications can add their own
+ * serializers with {@link #register(String, GroupSerializer)} or by providing a {@link CacheSerializerProvider} as a
+ * Java service, i.e. listing the implementation in
+ * <tt>META-INF/services/de.julielab.java.utilities.cache.CacheSerializerProvider</tt>. Since the {@link CacheServer}
+ * deserializes keys and values with the serializers of the region, custom serializers of remote cache regions must
+ * also be available to the server. The service mechanism does this by putting the providing JAR on the class path of
+ * the server.</p>
+ * <p>Names are case insensitive. A region must always be opened with the same serializers.</p>
+ */
+public class SerializerRegistry {
+    private final static Logger log = LoggerFactory.getLogger(SerializerRegistry.class);
+    private static final Map<String, GroupSerializer<?>> serializers = new ConcurrentHashMap<>();
+
+    static {
+        serializers.put(CacheAccess.STRING, Serializer.STRING);
+        serializers.put(CacheAccess.STRING_DELTA, Serializer.STRING_DELTA);
+        serializers.put(CacheAccess.BOOL, Serializer.BOOLEAN);
+        serializers.put(CacheAccess.JAVA, Serializer.JAVA);
+        serializers.put(CacheAccess.BYTEARRAY, Serializer.BYTE_ARRAY);
+        serializers.put(CacheAccess.DOUBLEARRAY, Serializer.DOUBLE_ARRAY);
+        serializers.put(CacheAccess.FLOATARRAY, Serializer.FLOAT_ARRAY);
+        serializers.put(CacheAccess.LONGARRAY, Serializer.LONG_ARRAY);
+        serializers.put(CacheAccess.INTEGER, Serializer.INTEGER);
+        serializers.put(CacheAccess.LONG, Serializer.LONG);
+        for (CacheSerializerProvider provider : ServiceLoader.load(CacheSerializerProvider.class)) {
+            for (Map.Entry<String, GroupSerializer<?>> serializer : provider.getSerializers().entrySet()) {
+                log.debug("Registering cache serializer '{}' from {}.", serializer.getKey(), provider.getClass().getName());
+                try {
+                    register(serializer.getKey(), serializer.getValue());
+                } catch (IllegalArgumentException e) {
+                    log.error("Could not register the cache serializer '{}' from {}: {}", serializer.getKey(), provider.getClass().getName(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private SerializerRegistry() {
+    }
+
+    /**
+     * Adds a serializer. Must be called before any cache region using the serializer is opened.
+     *
+     * @param name       The name of the serializer.
+     * @param serializer The serializer.
+     * @throws IllegalArgumentException If a different serializer with this name has already been registered.
+     */
+    public static void register(String name, GroupSerializer<?> serializer) {
+        final GroupSerializer<?> existing = serializers.putIfAbsent(name.toLowerCase(), serializer);
+        if (existing != null && existing != serializer)
+            throw new IllegalArgumentException("A different cache serializer with the name '" + name + "' has already been registered.");
+    }
+
+    /**
+     * @param name The name of the serializer.
+     * @return The serializer with the given name.
+     * @throws IllegalArgumentException If there is no serializer with this name.
+     */
+    public static <T> GroupSerializer<T> get(String name) {
+        final GroupSerializer<T> serializer = (GroupSerializer<T>) serializers.get(name.toLowerCase());
+        if (serializer == null)
+            throw new IllegalArgumentException("Unsupported cache serializer '" + name + "'.");
+        return serializer;
+    }
+
+    /**
+     * @return The names of all registered serializers.
+     */
+    public static Set<String> getNames() {
+        return new TreeSet<>(serializers.keySet());
+    }
+}
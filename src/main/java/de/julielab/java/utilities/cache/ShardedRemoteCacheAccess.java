@@ -0,0 +1,169 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.serializer.GroupSerializer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * <p>Gives access to a cache region whose keys are distributed over multiple {@link CacheServer} instances.</p>
+ * <p>The server for a key is determined by a {@link ConsistentHashRing} over the serialized key. Each server holds
+ * its own MapDB file for the region and is accessed by a {@link RemoteCacheAccess}. Batch operations are split by
+ * server and sent to all servers before waiting for the first response, so a batch spanning multiple servers costs a
+ * single round trip. Since all clients must agree on the assignment of keys to servers, they need to be configured
+ * with the same servers, weights and hash function. Reads are distributed over the read replicas of each server, if
+ * any.</p>
+ */
+public class ShardedRemoteCacheAccess<K, V> extends CacheAccess<K, V> {
+    private final GroupSerializer<K> keySerializer;
+    private final ConsistentHashRing<CacheNode> ring;
+    private final Map<CacheNode, RemoteCacheAccess<K, V>> shards = new LinkedHashMap<>();
+
+    /**
+     * @param nodes        The cache servers to distribute the keys over.
+     * @param hashFunction The hash function to assign keys to servers.
+     * @param memCacheSize The maximum number of entries in the in-memory front cache of each server's shard.
+     */
+    public ShardedRemoteCacheAccess(String cacheId, String cacheRegion, String keySerializer, String valueSerializer, List<CacheNode> nodes, ConsistentHashRing.HashFunction hashFunction, long memCacheSize) {
+        this(cacheId, cacheRegion, keySerializer, valueSerializer, nodes, hashFunction, memCacheSize, 0);
+    }
+
+    public ShardedRemoteCacheAccess(String cacheId, String cacheRegion, String keySerializer, String valueSerializer, List<CacheNode> nodes, ConsistentHashRing.HashFunction hashFunction, long memCacheSize, long memCacheMaxWeight) {
+        this(cacheId, cacheRegion, keySerializer, valueSerializer, nodes, hashFunction, new CacheMapSettings(CacheMapSettings.MEM_CACHE_SIZE, memCacheSize, CacheMapSettings.MEM_CACHE_MAX_WEIGHT, memCacheMaxWeight));
+    }
+
+    /**
+     * @param nodes        The cache servers to distribute the keys over.
+     * @param hashFunction The hash function to assign keys to servers.
+     * @param mapSettings  The client side settings for each server's shard, see
+     *                     {@link RemoteCacheAccess#RemoteCacheAccess(String, String, String, String, CacheNode, CacheMapSettings)}.
+     */
+    public ShardedRemoteCacheAccess(String cacheId, String cacheRegion, String keySerializer, String valueSerializer, List<CacheNode> nodes, ConsistentHashRing.HashFunction hashFunction, CacheMapSettings mapSettings) {
+        super(cacheId, cacheRegion);
+        if (nodes.isEmpty())
+            throw new IllegalArgumentException("At least one cache server must be given.");
+        this.keySerializer = getSerializerByName(keySerializer);
+        ring = new ConsistentHashRing<>(hashFunction, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        for (CacheNode node : nodes) {
+            ring.addNode(node, node.getWeight());
+            shards.put(node, new RemoteCacheAccess<>(cacheId, cacheRegion, keySerializer, valueSerializer, node, mapSettings));
+        }
+    }
+
+    /**
+     * @return The access to the cache server responsible for <tt>key</tt>.
+     */
+    public RemoteCacheAccess<K, V> getShard(K key) {
+        try {
+            return shards.get(ring.getNode(CacheProtocol.serialize(keySerializer, key)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public List<CacheNode> getNodes() {
+        return ring.getNodes();
+    }
+
+    @Override
+    public V get(K key) {
+        return getShard(key).get(key);
+    }
+
+    @Override
+    public CompletableFuture<V> getAsync(K key) {
+        return getShard(key).getAsync(key);
+    }
+
+    @Override
+    public boolean put(K key, V value) {
+        return getShard(key).put(key, value);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putAsync(K key, V value) {
+        return getShard(key).putAsync(key, value);
+    }
+
+    /**
+     * Computes missing values under the lock of the server responsible for the key.
+     */
+    @Override
+    public V getOrCompute(K key, Function<? super K, ? extends V> loader) {
+        return getShard(key).getOrCompute(key, loader);
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        final Map<RemoteCacheAccess<K, V>, List<K>> keysByShard = new HashMap<>();
+        for (K key : keys)
+            keysByShard.computeIfAbsent(getShard(key), k -> new ArrayList<>()).add(key);
+        final List<CompletableFuture<Map<K, V>>> results = new ArrayList<>(keysByShard.size());
+        for (Map.Entry<RemoteCacheAccess<K, V>, List<K>> shardKeys : keysByShard.entrySet())
+            results.add(shardKeys.getKey().getAllAsync(shardKeys.getValue()));
+        final Map<K, V> ret = new HashMap<>();
+        try {
+            for (CompletableFuture<Map<K, V>> result : results)
+                ret.putAll(RemoteCacheConnection.await(result));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean putAll(Map<? extends K, ? extends V> entries) {
+        final Map<RemoteCacheAccess<K, V>, Map<K, V>> entriesByShard = new HashMap<>();
+        for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet())
+            entriesByShard.computeIfAbsent(getShard(entry.getKey()), k -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+        final List<CompletableFuture<Boolean>> results = new ArrayList<>(entriesByShard.size());
+        for (Map.Entry<RemoteCacheAccess<K, V>, Map<K, V>> shardEntries : entriesByShard.entrySet())
+            results.add(shardEntries.getKey().putAllAsync(shardEntries.getValue()));
+        boolean success = true;
+        for (CompletableFuture<Boolean> result : results)
+            success &= result.join();
+        return success;
+    }
+
+    /**
+     * Writes the access logs of all servers' shards.
+     */
+    @Override
+    public void writeAccessLog() {
+        for (RemoteCacheAccess<K, V> shard : shards.values())
+            shard.writeAccessLog();
+    }
+
+    /**
+     * Warms up the shards of all servers in parallel from their access logs.
+     */
+    @Override
+    public CompletableFuture<Integer> warmUp(long budgetMillis) {
+        CompletableFuture<Integer> ret = CompletableFuture.completedFuture(0);
+        for (RemoteCacheAccess<K, V> shard : shards.values())
+            ret = ret.thenCombine(shard.warmUp(budgetMillis), Integer::sum);
+        return ret;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return false;
+    }
+
+    /**
+     * Commits the cache region on all servers.
+     */
+    @Override
+    public void commit() {
+        for (RemoteCacheAccess<K, V> shard : shards.values())
+            shard.commit();
+    }
+}
@@ -0,0 +1,408 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.DataInput2;
+import org.mapdb.serializer.GroupSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Gives read-only access to an immutable snapshot of a cache region, i.e. a region of type
+ * {@link CacheService.CacheMapDataType#SNAPSHOT}. Snapshots are created from existing regions with
+ * {@link CacheRegionTransfer#exportSnapshot(File, String, String, String, CacheMapSettings, File)}.</p>
+ * <p>The snapshot file is memory mapped read-only without opening a MapDB store. Thus, any number of JVMs on the same
+ * host can open the same snapshot concurrently and share a single copy of it in the operating system's page cache.
+ * This suits large lookup caches that are computed once and then only read.</p>
+ * <p>The file contains the entries in the key order of the exported region followed by an open addressing hash index
+ * of eight bytes per slot. A lookup hashes the key, probes the index and compares the key bytes in the mapped file.
+ * Keys of the {@link CacheAccess#STRING}, {@link CacheAccess#STRING_DELTA} and {@link CacheAccess#BYTEARRAY}
+ * serializers are stored as plain UTF-8 or raw bytes so that their lookup does not allocate any objects; only the
+ * found value is deserialized. Keys of other serializers are serialized for each lookup.</p>
+ * <pre>
+ * header (64 bytes): int magic, int version, long numEntries, long numSlots, long indexOffset, long dataOffset,
+ *                    long dataLength, byte keyEncoding
+ * names:             int length, UTF-8 key serializer name, int length, UTF-8 value serializer name
+ * data:              numEntries times (int key length, int value length, key bytes, value bytes)
+ * index:             numSlots times long ((entry offset + 1) &lt;&lt; 24 | 24 bit key hash fingerprint), 0 if empty
+ * </pre>
+ * <p>All numbers are little-endian. An entry never crosses a multiple of {@link #SEGMENT_SIZE} in the file so that it
+ * can be read from a single mapped segment.</p>
+ */
+public class SnapshotCacheAccess<K, V> extends CacheAccess<K, V> {
+    private final static Logger log = LoggerFactory.getLogger(SnapshotCacheAccess.class);
+    static final int MAGIC = 0x4A4C4353;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final long SEGMENT_SIZE = 1L << 30;
+    static final byte KEYS_SERIALIZED = 0;
+    static final byte KEYS_UTF8 = 1;
+    static final byte KEYS_RAW = 2;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private final File snapshotFile;
+    private final GroupSerializer<K> keySerializer;
+    private final GroupSerializer<V> valueSerializer;
+    private final byte keyEncoding;
+    private final long numEntries;
+    private final long numSlots;
+    private final long indexOffset;
+    private volatile ByteBuffer[] segments;
+
+    /**
+     * @param keySerializer   The name of the key serializer, must be the one of the snapshot.
+     * @param valueSerializer The name of the value serializer, must be the one of the snapshot.
+     * @param cacheDir        The directory of the snapshot file, see {@link #getSnapshotFile(File, String, String)}.
+     * @param mapSettings     The settings of the region. Snapshots do not have settings of their own.
+     */
+    public SnapshotCacheAccess(String cacheId, String cacheRegion, String keySerializer, String valueSerializer, File cacheDir, CacheMapSettings mapSettings) {
+        this(cacheId, cacheRegion, keySerializer, valueSerializer, getSnapshotFile(cacheDir, cacheId, cacheRegion));
+    }
+
+    SnapshotCacheAccess(String cacheId, String cacheRegion, String keySerializer, String valueSerializer, File snapshotFile) {
+        super(cacheId, cacheRegion);
+        this.snapshotFile = snapshotFile;
+        this.keySerializer = getSerializerByName(keySerializer);
+        this.valueSerializer = getSerializerByName(valueSerializer);
+        if (!snapshotFile.exists())
+            throw new IllegalStateException("The snapshot file " + snapshotFile + " of cache " + cacheId + ", region " + cacheRegion + " does not exist.");
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++)
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, i * SEGMENT_SIZE, Math.min(SEGMENT_SIZE, size - i * SEGMENT_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+            if (size < HEADER_SIZE || segments[0].getInt(0) != MAGIC)
+                throw new IllegalStateException("The file " + snapshotFile + " is not a cache snapshot.");
+            final ByteBuffer header = segments[0];
+            if (header.getInt(4) != VERSION)
+                throw new IllegalStateException("Unsupported version " + header.getInt(4) + " of the cache snapshot " + snapshotFile + ", expected " + VERSION + ".");
+            numEntries = header.getLong(8);
+            numSlots = header.getLong(16);
+            indexOffset = header.getLong(24);
+            keyEncoding = header.get(48);
+            final int keyNameLength = header.getInt(HEADER_SIZE);
+            final String snapshotKeySerializer = readName(header, HEADER_SIZE + 4, keyNameLength);
+            final String snapshotValueSerializer = readName(header, HEADER_SIZE + 8 + keyNameLength, header.getInt(HEADER_SIZE + 4 + keyNameLength));
+            if (!snapshotKeySerializer.equalsIgnoreCase(keySerializer) || !snapshotValueSerializer.equalsIgnoreCase(valueSerializer))
+                throw new IllegalStateException("The cache snapshot " + snapshotFile + " has been created with the serializers '" + snapshotKeySerializer + "' and '" + snapshotValueSerializer + "' but is opened with '" + keySerializer + "' and '" + valueSerializer + "'.");
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open the cache snapshot " + snapshotFile, e);
+        }
+        log.debug("Opened cache snapshot {} with {} entries.", snapshotFile, numEntries);
+    }
+
+    /**
+     * @return The file of the snapshot of the given cache region.
+     */
+    public static File getSnapshotFile(File cacheDir, String cacheId, String cacheRegion) {
+        return new File(cacheDir, (cacheId + "." + cacheRegion).replaceAll("[^\\w.-]", "_") + ".snapshot");
+    }
+
+    /**
+     * @return The key encoding of the snapshot for keys of the given serializer.
+     */
+    static byte getKeyEncoding(String keySerializerName) {
+        if (keySerializerName.equalsIgnoreCase(STRING) || keySerializerName.equalsIgnoreCase(STRING_DELTA))
+            return KEYS_UTF8;
+        if (keySerializerName.equalsIgnoreCase(BYTEARRAY))
+            return KEYS_RAW;
+        return KEYS_SERIALIZED;
+    }
+
+    private static String readName(ByteBuffer buffer, int offset, int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = buffer.get(offset + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The hash of <tt>length</tt> bytes of <tt>bytes</tt> starting at <tt>offset</tt>.
+     */
+    static long hash(byte[] bytes, int offset, int length) {
+        long hash = FNV_OFFSET;
+        for (int i = offset; i < offset + length; i++)
+            hash = (hash ^ (bytes[i] & 0xff)) * FNV_PRIME;
+        return mix(hash);
+    }
+
+    /**
+     * @return The hash of the bytes returned by {@link #encodeUtf8(String)} for <tt>s</tt>, computed without encoding
+     * the string.
+     */
+    static long hashUtf8(String s) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                hash = (hash ^ c) * FNV_PRIME;
+            } else if (c < 0x800) {
+                hash = (hash ^ (0xc0 | (c >> 6))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | (c & 0x3f))) * FNV_PRIME;
+            } else if (isSurrogatePair(s, i)) {
+                final int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                hash = (hash ^ (0xf0 | (codePoint >> 18))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | ((codePoint >> 12) & 0x3f))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | ((codePoint >> 6) & 0x3f))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | (codePoint & 0x3f))) * FNV_PRIME;
+            } else {
+                hash = (hash ^ (0xe0 | (c >> 12))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | ((c >> 6) & 0x3f))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | (c & 0x3f))) * FNV_PRIME;
+            }
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Encodes the string as UTF-8. Unlike {@link String#getBytes(java.nio.charset.Charset)}, unpaired surrogates are
+     * encoded as three byte sequences instead of being replaced, so distinct strings have distinct encodings.
+     */
+    static byte[] encodeUtf8(String s) {
+        final byte[] bytes = new byte[utf8Length(s)];
+        int pos = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[pos++] = (byte) (0xc0 | (c >> 6));
+                bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (isSurrogatePair(s, i)) {
+                final int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                bytes[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                bytes[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                bytes[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                bytes[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                bytes[pos++] = (byte) (0xe0 | (c >> 12));
+                bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return bytes;
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (isSurrogatePair(s, i)) {
+                length += 4;
+                ++i;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static boolean isSurrogatePair(String s, int i) {
+        return Character.isHighSurrogate(s.charAt(i)) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1));
+    }
+
+    /**
+     * The finalization step of MurmurHash3 to spread the FNV hash over all bits.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * @return The index slot of a hash.
+     */
+    static long getSlot(long hash, long numSlots) {
+        return hash & (numSlots - 1);
+    }
+
+    /**
+     * @return The part of a hash stored in the index slot to skip most key comparisons of colliding keys.
+     */
+    static long getFingerprint(long hash) {
+        return hash >>> 40;
+    }
+
+    /**
+     * @return The file offset of the entry with the given key or -1 if there is no such entry.
+     */
+    long findKey(K key) {
+        if (keyEncoding == KEYS_UTF8)
+            return findUtf8((String) key);
+        if (keyEncoding == KEYS_RAW)
+            return findBytes((byte[]) key);
+        try {
+            return findBytes(CacheProtocol.serialize(keySerializer, key));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not serialize the key " + key, e);
+        }
+    }
+
+    /**
+     * Looks up a key in a snapshot with {@link #KEYS_UTF8} encoding without allocating objects.
+     */
+    long findUtf8(String key) {
+        final ByteBuffer[] segments = getSegments();
+        final long hash = hashUtf8(key);
+        final long fingerprint = getFingerprint(hash);
+        for (long slot = getSlot(hash, numSlots); ; slot = (slot + 1) & (numSlots - 1)) {
+            final long position = indexOffset + slot * 8;
+            final long entry = segments[(int) (position / SEGMENT_SIZE)].getLong((int) (position % SEGMENT_SIZE));
+            if (entry == 0)
+                return -1;
+            if ((entry & 0xffffff) == fingerprint) {
+                final long offset = (entry >>> 24) - 1;
+                if (matchesUtf8(segments[(int) (offset / SEGMENT_SIZE)], (int) (offset % SEGMENT_SIZE), key))
+                    return offset;
+            }
+        }
+    }
+
+    /**
+     * Looks up the raw bytes of a key in the snapshot without allocating objects.
+     */
+    long findBytes(byte[] key) {
+        final ByteBuffer[] segments = getSegments();
+        final long hash = hash(key, 0, key.length);
+        final long fingerprint = getFingerprint(hash);
+        for (long slot = getSlot(hash, numSlots); ; slot = (slot + 1) & (numSlots - 1)) {
+            final long position = indexOffset + slot * 8;
+            final long entry = segments[(int) (position / SEGMENT_SIZE)].getLong((int) (position % SEGMENT_SIZE));
+            if (entry == 0)
+                return -1;
+            if ((entry & 0xffffff) == fingerprint) {
+                final long offset = (entry >>> 24) - 1;
+                if (matches(segments[(int) (offset / SEGMENT_SIZE)], (int) (offset % SEGMENT_SIZE), key))
+                    return offset;
+            }
+        }
+    }
+
+    private static boolean matches(ByteBuffer segment, int entryPosition, byte[] key) {
+        if (segment.getInt(entryPosition) != key.length)
+            return false;
+        final int keyPosition = entryPosition + 8;
+        for (int i = 0; i < key.length; i++) {
+            if (segment.get(keyPosition + i) != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean matchesUtf8(ByteBuffer segment, int entryPosition, String key) {
+        final int keyLength = segment.getInt(entryPosition);
+        final int keyEnd = entryPosition + 8 + keyLength;
+        int pos = entryPosition + 8;
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            if (c < 0x80) {
+                if (pos + 1 > keyEnd || segment.get(pos++) != (byte) c)
+                    return false;
+            } else if (c < 0x800) {
+                if (pos + 2 > keyEnd || segment.get(pos++) != (byte) (0xc0 | (c >> 6)) || segment.get(pos++) != (byte) (0x80 | (c & 0x3f)))
+                    return false;
+            } else if (isSurrogatePair(key, i)) {
+                final int codePoint = Character.toCodePoint(c, key.charAt(++i));
+                if (pos + 4 > keyEnd || segment.get(pos++) != (byte) (0xf0 | (codePoint >> 18)) || segment.get(pos++) != (byte) (0x80 | ((codePoint >> 12) & 0x3f))
+                        || segment.get(pos++) != (byte) (0x80 | ((codePoint >> 6) & 0x3f)) || segment.get(pos++) != (byte) (0x80 | (codePoint & 0x3f)))
+                    return false;
+            } else {
+                if (pos + 3 > keyEnd || segment.get(pos++) != (byte) (0xe0 | (c >> 12)) || segment.get(pos++) != (byte) (0x80 | ((c >> 6) & 0x3f)) || segment.get(pos++) != (byte) (0x80 | (c & 0x3f)))
+                    return false;
+            }
+        }
+        return pos == keyEnd;
+    }
+
+    private ByteBuffer[] getSegments() {
+        final ByteBuffer[] segments = this.segments;
+        if (segments == null)
+            throw new IllegalStateException("The cache snapshot " + snapshotFile + " has been closed.");
+        return segments;
+    }
+
+    /**
+     * @return The number of entries in the snapshot.
+     */
+    public long getNumEntries() {
+        return numEntries;
+    }
+
+    /**
+     * @return Whether the snapshot contains the key. Does not allocate objects for keys of the
+     * {@link CacheAccess#STRING}, {@link CacheAccess#STRING_DELTA} and {@link CacheAccess#BYTEARRAY} serializers.
+     */
+    public boolean containsKey(K key) {
+        return findKey(key) >= 0;
+    }
+
+    @Override
+    public V get(K key) {
+        final long startTime = metrics.startTimer();
+        final long offset = findKey(key);
+        V value = null;
+        if (offset >= 0) {
+            final ByteBuffer segment = getSegments()[(int) (offset / SEGMENT_SIZE)];
+            final int entryPosition = (int) (offset % SEGMENT_SIZE);
+            final int keyLength = segment.getInt(entryPosition);
+            final int valueLength = segment.getInt(entryPosition + 4);
+            try {
+                value = valueSerializer.deserialize(new DataInput2.ByteBuffer(segment, entryPosition + 8 + keyLength), valueLength);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not deserialize the value of key " + key + " in the cache snapshot " + snapshotFile, e);
+            }
+        }
+        metrics.recordGet(startTime, false, value != null);
+        return value;
+    }
+
+    /**
+     * Snapshots are immutable, thus nothing is put.
+     *
+     * @return <tt>false</tt>
+     */
+    @Override
+    public boolean put(K key, V value) {
+        log.debug("Could not write value to cache snapshot {} because snapshots are read-only.", snapshotFile);
+        return false;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return segments == null;
+    }
+
+    /**
+     * Does nothing because snapshots are immutable.
+     */
+    @Override
+    public void commit() {
+        // Nothing to commit
+    }
+
+    /**
+     * Releases the mapped snapshot. The memory mapping is removed when the buffers are garbage collected.
+     */
+    public void close() {
+        segments = null;
+    }
+}
@@ -0,0 +1,182 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.serializer.GroupSerializer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static de.julielab.java.utilities.cache.SnapshotCacheAccess.*;
+
+/**
+ * <p>Writes a cache snapshot in the format described at {@link SnapshotCacheAccess}.</p>
+ * <p>The entries are appended to a temporary file while their key hashes and offsets are collected in a second
+ * temporary file. {@link #finish()} then builds the hash index directly in the memory mapped snapshot file, so the
+ * heap usage does not depend on the number of entries. Finally, the snapshot replaces an existing file atomically;
+ * JVMs that have mapped the old file keep reading the old version until they open the snapshot again. Closing the
+ * writer without finishing it discards the snapshot.</p>
+ */
+class SnapshotWriter<K, V> implements Closeable {
+    /**
+     * The maximum ratio of entries to index slots.
+     */
+    private static final double MAX_LOAD_FACTOR = 0.7;
+    private static final long MAX_OFFSET = (1L << 40) - 2;
+    private final File snapshotFile;
+    private final File tmpFile;
+    private final File hashFile;
+    private final GroupSerializer<K> keySerializer;
+    private final GroupSerializer<V> valueSerializer;
+    private final byte keyEncoding;
+    private final DataOutputStream out;
+    private final DataOutputStream hashes;
+    private final long dataOffset;
+    private long position;
+    private long numEntries;
+
+    /**
+     * @param snapshotFile        The file to write the snapshot to.
+     * @param keySerializerName   The key serializer of the region.
+     * @param valueSerializerName The value serializer of the region.
+     */
+    SnapshotWriter(File snapshotFile, String keySerializerName, String valueSerializerName) throws IOException {
+        this.snapshotFile = snapshotFile;
+        this.tmpFile = new File(snapshotFile.getPath() + ".tmp");
+        this.hashFile = new File(snapshotFile.getPath() + ".hashes");
+        this.keySerializer = CacheAccess.getSerializerByName(keySerializerName);
+        this.valueSerializer = CacheAccess.getSerializerByName(valueSerializerName);
+        this.keyEncoding = SnapshotCacheAccess.getKeyEncoding(keySerializerName);
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+        hashes = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(hashFile), 1 << 16));
+        // The header is written when the index is complete
+        out.write(new byte[HEADER_SIZE]);
+        position = HEADER_SIZE;
+        writeName(keySerializerName);
+        writeName(valueSerializerName);
+        pad(8);
+        dataOffset = position;
+    }
+
+    private void writeName(String name) throws IOException {
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        out.write(bytes);
+        position += bytes.length;
+    }
+
+    private void writeInt(int i) throws IOException {
+        out.writeInt(Integer.reverseBytes(i));
+        position += 4;
+    }
+
+    private void pad(int alignment) throws IOException {
+        while (position % alignment != 0) {
+            out.write(0);
+            ++position;
+        }
+    }
+
+    /**
+     * Appends an entry. Each key must only be written once.
+     */
+    void write(K key, V value) throws IOException {
+        final byte[] keyBytes;
+        if (keyEncoding == KEYS_UTF8)
+            keyBytes = SnapshotCacheAccess.encodeUtf8((String) key);
+        else if (keyEncoding == KEYS_RAW)
+            keyBytes = (byte[]) key;
+        else
+            keyBytes = CacheProtocol.serialize(keySerializer, key);
+        writeEntry(keyBytes, CacheProtocol.serialize(valueSerializer, value));
+    }
+
+    /**
+     * Appends an entry with the key already in the encoding of the snapshot and the serialized value.
+     */
+    void writeEntry(byte[] key, byte[] value) throws IOException {
+        final long entrySize = 8L + key.length + value.length;
+        if (entrySize > SEGMENT_SIZE)
+            throw new IllegalArgumentException("A cache snapshot entry must not be larger than " + SEGMENT_SIZE + " bytes but has " + entrySize + " bytes.");
+        // Entries must not cross a segment boundary
+        final long remainingSegmentSize = SEGMENT_SIZE - position % SEGMENT_SIZE;
+        if (entrySize > remainingSegmentSize) {
+            for (long i = 0; i < remainingSegmentSize; i++)
+                out.write(0);
+            position += remainingSegmentSize;
+        }
+        if (position > MAX_OFFSET)
+            throw new IllegalStateException("The cache snapshot " + snapshotFile + " exceeds the maximum size.");
+        hashes.writeLong(SnapshotCacheAccess.hash(key, 0, key.length));
+        hashes.writeLong(position);
+        writeInt(key.length);
+        writeInt(value.length);
+        out.write(key);
+        out.write(value);
+        position += key.length + value.length;
+        ++numEntries;
+    }
+
+    long getNumEntries() {
+        return numEntries;
+    }
+
+    /**
+     * Builds the index and moves the complete snapshot to its destination.
+     */
+    void finish() throws IOException {
+        final long dataLength = position - dataOffset;
+        pad(8);
+        final long indexOffset = position;
+        final long numSlots = Math.max(1, Long.highestOneBit((long) Math.ceil(numEntries / MAX_LOAD_FACTOR)) * 2);
+        out.close();
+        hashes.close();
+        try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+             DataInputStream hashIn = new DataInputStream(new BufferedInputStream(new FileInputStream(hashFile), 1 << 16))) {
+            buildIndex(channel, hashIn, indexOffset, numSlots);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(numEntries).putLong(numSlots).putLong(indexOffset).putLong(dataOffset).putLong(dataLength).put(keyEncoding);
+            header.clear();
+            while (header.hasRemaining())
+                channel.write(header, header.position());
+            channel.force(true);
+        }
+        Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the temporary files. If {@link #finish()} has not been called, the snapshot is discarded.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+            hashes.close();
+        } finally {
+            hashFile.delete();
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Inserts the collected hashes and entry offsets into the index with linear probing.
+     */
+    private void buildIndex(FileChannel channel, DataInputStream hashIn, long indexOffset, long numSlots) throws IOException {
+        final long slotsPerSegment = SEGMENT_SIZE / 8;
+        final ByteBuffer[] segments = new ByteBuffer[(int) ((numSlots + slotsPerSegment - 1) / slotsPerSegment)];
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, indexOffset + i * SEGMENT_SIZE, Math.min(slotsPerSegment, numSlots - i * slotsPerSegment) * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (long i = 0; i < numEntries; i++) {
+            final long hash = hashIn.readLong();
+            final long offset = hashIn.readLong();
+            long slot = SnapshotCacheAccess.getSlot(hash, numSlots);
+            while (segments[(int) (slot / slotsPerSegment)].getLong((int) (slot % slotsPerSegment) * 8) != 0)
+                slot = (slot + 1) & (numSlots - 1);
+            segments[(int) (slot / slotsPerSegment)].putLong((int) (slot % slotsPerSegment) * 8, ((offset + 1) << 24) | SnapshotCacheAccess.getFingerprint(hash));
+        }
+    }
+}
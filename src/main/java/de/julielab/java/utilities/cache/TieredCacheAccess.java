@@ -0,0 +1,227 @@
+package de.julielab.java.utilities.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import static de.julielab.java.utilities.cache.CacheMapSettings.*;
+
+/**
+ * <p>Gives access to a cache region in three tiers: the in-memory front cache, a local cache file and the
+ * {@link CacheServer}. This way, worker nodes can keep a large local cache on disk in front of a shared cache server.</p>
+ * <p>Lookups try the tiers in this order. Values found on the server are written to the local cache file and added to
+ * the front cache, so subsequent lookups of the key do not reach the server. Puts are written to the local cache file
+ * and to the server, either synchronously or, with {@link CacheMapSettings#REMOTE_WRITE_BEHIND}, in the background.</p>
+ * <p>The local tiers are a {@link LocalFileCacheAccess} with the given settings, e.g. the front cache size, the
+ * write-behind buffer and the automatic commits of the local cache file. The server tier is a
+ * {@link RemoteCacheAccess} or, for multiple cache servers, a {@link ShardedRemoteCacheAccess} without a front cache of
+ * its own. Invalidations from the server are not applied to the local cache file, so tiered caches should be used
+ * for values that do not change once they are computed.</p>
+ */
+public class TieredCacheAccess<K, V> extends CacheAccess<K, V> {
+    private final static Logger log = LoggerFactory.getLogger(TieredCacheAccess.class);
+    private final CacheService cacheService;
+    private final LocalFileCacheAccess<K, V> local;
+    private final CacheAccess<K, V> remote;
+    private final boolean remoteWriteBehind;
+
+    /**
+     * @param cacheDir     The directory of the local cache file.
+     * @param nodes        The cache servers. The keys are distributed over the servers if there are multiple.
+     * @param hashFunction The hash function to assign keys to servers.
+     * @param mapSettings  The settings of the local tiers, which are also passed to the server, see
+     *                     {@link RemoteCacheAccess#RemoteCacheAccess(String, String, String, String, CacheNode, CacheMapSettings)}.
+     */
+    public TieredCacheAccess(String cacheId, String cacheRegion, String keySerializer, String valueSerializer, File cacheDir, List<CacheNode> nodes, ConsistentHashRing.HashFunction hashFunction, CacheMapSettings mapSettings) {
+        super(cacheId, cacheRegion);
+        if (nodes.isEmpty())
+            throw new IllegalArgumentException("At least one cache server must be given.");
+        cacheService = CacheService.getInstance();
+        local = new LocalFileCacheAccess<>(cacheId, cacheRegion, keySerializer, valueSerializer, cacheDir, mapSettings);
+        // The local tiers already keep the values in memory
+        final CacheMapSettings remoteSettings = new CacheMapSettings();
+        remoteSettings.putAll(mapSettings);
+        remoteSettings.remove(MEM_CACHE_SIZE);
+        remoteSettings.remove(MEM_CACHE_MAX_WEIGHT);
+        remoteSettings.remove(ACCESS_LOG_SIZE);
+        if (nodes.size() > 1)
+            remote = new ShardedRemoteCacheAccess<>(cacheId, cacheRegion, keySerializer, valueSerializer, nodes, hashFunction, remoteSettings);
+        else
+            remote = new RemoteCacheAccess<>(cacheId, cacheRegion, keySerializer, valueSerializer, nodes.get(0), remoteSettings);
+        remoteWriteBehind = (boolean) mapSettings.getOrDefault(REMOTE_WRITE_BEHIND, false);
+    }
+
+    /**
+     * @return The access to the in-memory and local file tiers.
+     */
+    public LocalFileCacheAccess<K, V> getLocalTier() {
+        return local;
+    }
+
+    /**
+     * @return The access to the cache server tier.
+     */
+    public CacheAccess<K, V> getRemoteTier() {
+        return remote;
+    }
+
+    @Override
+    public V get(K key) {
+        V value = local.get(key);
+        if (value == null) {
+            value = remote.get(key);
+            if (value != null)
+                local.putLoaded(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Looks up the local tiers in a thread of the executor of the {@link CacheService} and then, if necessary, the
+     * server without blocking a thread.
+     */
+    @Override
+    public CompletableFuture<V> getAsync(K key) {
+        return local.getAsync(key).thenCompose(value -> {
+            if (value != null)
+                return CompletableFuture.completedFuture(value);
+            return remote.getAsync(key).thenApplyAsync(remoteValue -> {
+                if (remoteValue != null)
+                    local.putLoaded(key, remoteValue);
+                return remoteValue;
+            }, cacheService.getAsyncExecutor());
+        });
+    }
+
+    /**
+     * Computes a value missing from all tiers under the lock of the cache server, so only one client computes it.
+     */
+    @Override
+    protected V computeAndPut(K key, Function<? super K, ? extends V> loader) {
+        V value = local.get(key);
+        if (value == null) {
+            value = remote.getOrCompute(key, loader);
+            if (value != null)
+                local.putLoaded(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Looks up the keys missing from the local tiers with a single batch request to the server.
+     */
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        final Map<K, V> ret = local.getAll(keys);
+        if (ret.size() == keys.size())
+            return ret;
+        final List<K> missingKeys = new ArrayList<>(keys.size() - ret.size());
+        for (K key : keys) {
+            if (!ret.containsKey(key))
+                missingKeys.add(key);
+        }
+        final Map<K, V> remoteValues = remote.getAll(missingKeys);
+        if (!remoteValues.isEmpty()) {
+            local.putAllLoaded(remoteValues);
+            ret.putAll(remoteValues);
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the value to the local cache file and to the server. With {@link CacheMapSettings#REMOTE_WRITE_BEHIND},
+     * the server is written in a thread of the executor of the {@link CacheService} and only the result of the local
+     * write is returned.
+     */
+    @Override
+    public boolean put(K key, V value) {
+        final boolean success = local.put(key, value);
+        if (remoteWriteBehind) {
+            putRemoteAsync(() -> remote.put(key, value));
+            return success;
+        }
+        return remote.put(key, value) && success;
+    }
+
+    /**
+     * Writes the value to the local cache file and to the server without blocking the calling thread. With
+     * {@link CacheMapSettings#REMOTE_WRITE_BEHIND}, the returned future only reflects the local write, like for
+     * {@link #put(Object, Object)}.
+     */
+    @Override
+    public CompletableFuture<Boolean> putAsync(K key, V value) {
+        final CompletableFuture<Boolean> localPut = local.putAsync(key, value);
+        // The remote tier logs its failures itself
+        final CompletableFuture<Boolean> remotePut = remote.putAsync(key, value);
+        if (remoteWriteBehind)
+            return localPut;
+        return localPut.thenCombine(remotePut, Boolean::logicalAnd);
+    }
+
+    @Override
+    public boolean putAll(Map<? extends K, ? extends V> entries) {
+        final boolean success = local.putAll(entries);
+        if (remoteWriteBehind) {
+            final Map<K, V> copy = new HashMap<>(entries);
+            putRemoteAsync(() -> remote.putAll(copy));
+            return success;
+        }
+        return remote.putAll(entries) && success;
+    }
+
+    private void putRemoteAsync(BooleanSupplier write) {
+        CompletableFuture.supplyAsync(write::getAsBoolean, cacheService.getAsyncExecutor()).whenComplete((success, e) -> {
+            if (e != null)
+                log.error("Could not write data of cache {}:{} to the cache server.", cacheId, cacheRegion, e);
+            else if (!success)
+                log.debug("The cache server did not accept data of cache {}:{}.", cacheId, cacheRegion);
+        });
+    }
+
+    @Override
+    public void writeAccessLog() {
+        local.writeAccessLog();
+    }
+
+    @Override
+    public CompletableFuture<Integer> warmUp(long budgetMillis) {
+        return local.warmUp(budgetMillis);
+    }
+
+    /**
+     * @return Whether neither the local cache file nor the server can be written.
+     */
+    @Override
+    public boolean isReadOnly() {
+        return local.isReadOnly() && remote.isReadOnly();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return local.isClosed();
+    }
+
+    /**
+     * Commits the local cache file and the cache region on the server. Writes to the server that are still pending
+     * due to {@link CacheMapSettings#REMOTE_WRITE_BEHIND} might not be covered.
+     */
+    @Override
+    public void commit() {
+        local.commit();
+        remote.commit();
+    }
+
+    /**
+     * Closes the local cache file. The server tier stays open because it does not hold resources of its own: its
+     * connections are pooled and shared with the other remote accesses of the JVM, and they are closed by
+     * {@link CacheService#close()}.
+     */
+    public void close() {
+        local.close();
+    }
+}
@@ -0,0 +1,225 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.Atomic;
+import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+import static de.julielab.java.utilities.cache.CacheMapSettings.*;
+
+/**
+ * <p>Gives access to a cache region of type {@link CacheService.CacheMapDataType#VECTOR} that stores float vectors of
+ * a fixed dimension.</p>
+ * <p>The vectors are stored off-heap in a memory mapped file next to the cache file, one vector per slot of fixed
+ * size. The cache file only contains an index from the keys to the slots. Thus, a lookup is a hash probe in the index
+ * followed by reading the vector at the slot's offset. {@link #getView(Object)} returns the vector without copying
+ * it, {@link #get(Object)} returns a copy. With {@link Precision#HALF}, the components are stored as IEEE 754 half
+ * precision numbers in two bytes each.</p>
+ * <p>Putting a vector for an existing key overwrites its slot in place. Concurrent readers of that key might see a mix
+ * of the old and the new vector. The vectors are written to disk by {@link #commit()} before the index is committed.
+ * If the JVM crashes, vectors put after the last commit might be lost.</p>
+ *
+ * @param <K> The key type.
+ */
+public class VectorCacheAccess<K> extends CacheAccess<K, float[]> {
+    private final static Logger log = LoggerFactory.getLogger(VectorCacheAccess.class);
+    private final CacheService cacheService;
+    private final File cacheFile;
+    /**
+     * The vector file and the slot index shared with the other accesses to the region.
+     */
+    private final VectorRegion<K> region;
+    private final int dimension;
+    private final boolean readOnly;
+    private volatile boolean closed;
+
+    /**
+     * @param keySerializer The name of the key serializer.
+     * @param cacheDir      The directory of the cache file and the vector file.
+     * @param mapSettings   The settings of the region, most importantly {@link CacheMapSettings#VECTOR_DIMENSION} and
+     *                      {@link CacheMapSettings#VECTOR_PRECISION}.
+     */
+    public VectorCacheAccess(String cacheId, String cacheRegion, String keySerializer, File cacheDir, CacheMapSettings mapSettings) {
+        super(cacheId, cacheRegion);
+        dimension = ((Number) mapSettings.getOrDefault(VECTOR_DIMENSION, 0)).intValue();
+        if (dimension <= 0)
+            throw new IllegalArgumentException("The setting " + VECTOR_DIMENSION + " must be positive for cache " + cacheId + ", region " + cacheRegion + ".");
+        if (mapSettings.get(PERSIST_TYPE) == CacheService.CachePersistenceType.MEM)
+            throw new IllegalArgumentException("Vector cache regions cannot be kept in memory because they are stored in a memory mapped file.");
+        final Precision precision = (Precision) mapSettings.getOrDefault(VECTOR_PRECISION, Precision.FLOAT);
+        cacheService = CacheService.getInstance();
+        if (!cacheDir.exists())
+            cacheDir.mkdirs();
+        cacheFile = new File(cacheDir, cacheId);
+        final File vectorFile = new File(cacheDir, (cacheId + "." + cacheRegion).replaceAll("[^\\w.-]", "_") + ".vectors");
+        final HTreeMap<K, Long> index = cacheService.getHTreeCache(cacheFile, cacheRegion, getSerializerByName(keySerializer), Serializer.LONG, mapSettings);
+        readOnly = cacheService.isDbReadOnly(cacheFile);
+        final Atomic.Var<Long> slotCountVar = cacheService.getVectorSlotCountVar(cacheFile, cacheRegion, mapSettings);
+        region = cacheService.acquireVectorRegion(cacheFile, cacheRegion, () -> new VectorRegion<>(cacheFile, cacheRegion, vectorFile, dimension, precision, index, slotCountVar, readOnly));
+        if (region.getDimension() != dimension || region.getPrecision() != precision) {
+            cacheService.releaseVectorRegion(cacheFile, cacheRegion, region);
+            throw new IllegalArgumentException("The region " + cacheRegion + " of cache " + cacheFile + " stores vectors of dimension " + region.getDimension() + " with " + region.getPrecision() + " precision but dimension " + dimension + " with " + precision + " precision has been requested.");
+        }
+    }
+
+    /**
+     * Converts an IEEE 754 half precision number to a float.
+     */
+    static float halfToFloat(short half) {
+        final int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        if (exponent == 0x1f)
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        if (exponent == 0) {
+            if (mantissa == 0)
+                return Float.intBitsToFloat(sign);
+            // Subnormal half, normalize the mantissa
+            exponent = 1;
+            while ((mantissa & 0x400) == 0) {
+                mantissa <<= 1;
+                --exponent;
+            }
+            mantissa &= 0x3ff;
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+
+    /**
+     * Converts a float to the nearest IEEE 754 half precision number. Values beyond the range of half precision
+     * numbers become infinite.
+     */
+    static short floatToHalf(float value) {
+        final int bits = Float.floatToRawIntBits(value);
+        final int sign = (bits >>> 16) & 0x8000;
+        final int abs = bits & 0x7fffffff;
+        // Infinity or NaN
+        if (abs >= 0x7f800000)
+            return (short) (sign | 0x7c00 | (abs > 0x7f800000 ? 0x200 : 0));
+        // Rounds to a value beyond 65504, the largest half
+        if (abs >= 0x477ff000)
+            return (short) (sign | 0x7c00);
+        // Normal half: adjust the exponent bias and round the mantissa
+        if (abs >= 0x38800000)
+            return (short) (sign | ((abs - 0x38000000 + 0x1000) >>> 13));
+        if (abs < 0x33000000)
+            return (short) sign;
+        // Subnormal half
+        final int shift = 126 - (abs >>> 23);
+        final int mantissa = (abs & 0x7fffff) | 0x800000;
+        return (short) (sign | ((mantissa + (1 << (shift - 1))) >>> shift));
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public Precision getPrecision() {
+        return region.getPrecision();
+    }
+
+    /**
+     * @return The number of vectors in the region.
+     */
+    public long getNumVectors() {
+        return region.getNumVectors();
+    }
+
+    /**
+     * @param key The key to look up.
+     * @return A view of the vector stored for <tt>key</tt> that reads the mapped vector file without copying, or
+     * <tt>null</tt> if there is no vector for the key.
+     */
+    public VectorView getView(K key) {
+        return region.getView(key);
+    }
+
+    /**
+     * @return A copy of the vector stored for <tt>key</tt>.
+     */
+    @Override
+    public float[] get(K key) {
+        final long startTime = metrics.startTimer();
+        final VectorView view = getView(key);
+        metrics.recordGet(startTime, false, view != null);
+        return view != null ? view.toArray() : null;
+    }
+
+    /**
+     * Stores the vector in the slot of <tt>key</tt>, allocating a new slot if the key is new.
+     *
+     * @throws IllegalArgumentException If the vector does not have the dimension of the region.
+     */
+    @Override
+    public boolean put(K key, float[] value) {
+        if (readOnly) {
+            log.debug("Could not write value to cache {} because it is read-only.", cacheFile);
+            return false;
+        }
+        if (value.length != dimension)
+            throw new IllegalArgumentException("Cannot store a vector of dimension " + value.length + " in cache " + cacheFile + ", region " + cacheRegion + " of dimension " + dimension + ".");
+        final long startTime = metrics.startTimer();
+        region.put(key, value);
+        metrics.recordPut(startTime);
+        return true;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed || region.isClosed();
+    }
+
+    /**
+     * Writes the mapped vectors to disk and commits the index.
+     */
+    @Override
+    public void commit() {
+        final long startTime = metrics.startTimer();
+        region.force();
+        cacheService.commitCache(cacheFile);
+        metrics.recordCommit(startTime);
+    }
+
+    /**
+     * Closes this access. The index and the vector file are shared with the other accesses to the region and are
+     * closed with the last of them. Views obtained before must not be used anymore.
+     */
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        cacheService.releaseVectorRegion(cacheFile, cacheRegion, region);
+    }
+
+    /**
+     * The number format of the vector components.
+     */
+    public enum Precision {
+        /**
+         * 32 bit floats.
+         */
+        FLOAT(4),
+        /**
+         * 16 bit IEEE 754 half precision floats with about three significant decimal digits.
+         */
+        HALF(2);
+
+        private final int bytes;
+
+        Precision(int bytes) {
+            this.bytes = bytes;
+        }
+
+        int getBytes() {
+            return bytes;
+        }
+    }
+}
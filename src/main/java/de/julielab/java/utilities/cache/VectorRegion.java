@@ -0,0 +1,257 @@
+package de.julielab.java.utilities.cache;
+
+import org.mapdb.Atomic;
+import org.mapdb.HTreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * <p>The vector file and the slot index of a {@link CacheService.CacheMapDataType#VECTOR} region. It is shared by all
+ * {@link VectorCacheAccess} objects of the region in the JVM. Thus, slots are allocated from a single counter and all
+ * accesses see the slots mapped by any of them. Separate counters would give the same slot to different keys.</p>
+ * <p>The accesses to the region are counted; the vector file and the index are closed when the last access is
+ * closed.</p>
+ *
+ * @param <K> The key type.
+ */
+class VectorRegion<K> {
+    private final static Logger log = LoggerFactory.getLogger(VectorRegion.class);
+    private static final int MAGIC = 0x4A4C4356;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+    /**
+     * The number of slots mapped when the first vector is put. The mapped size is doubled when it is exhausted.
+     */
+    private static final int INITIAL_SLOTS = 1024;
+    private final File cacheFile;
+    private final String regionName;
+    private final File vectorFile;
+    private final int dimension;
+    private final VectorCacheAccess.Precision precision;
+    private final int stride;
+    private final int slotsPerSegment;
+    private final HTreeMap<K, Long> index;
+    private final Atomic.Var<Long> slotCountVar;
+    private final boolean readOnly;
+    private final FileChannel channel;
+    /**
+     * The mapped parts of the vector file. All segments but the last have the maximum size.
+     */
+    private volatile ByteBuffer[] segments = new ByteBuffer[0];
+    /**
+     * The number of allocated slots. Guarded by this object.
+     */
+    private long slotCount;
+    /**
+     * The number of open accesses to the region. Guarded by the region map of the {@link CacheService}.
+     */
+    private int numAccesses;
+    private volatile boolean closed;
+
+    /**
+     * @param cacheFile    The cache file containing the index.
+     * @param regionName   The name of the region.
+     * @param vectorFile   The file storing the vectors.
+     * @param dimension    The dimension of the vectors.
+     * @param precision    The number format of the vector components.
+     * @param index        The index from the keys to the slots.
+     * @param slotCountVar The variable storing the number of allocated slots or <tt>null</tt> if there is none.
+     * @param readOnly     Whether the cache file is read-only.
+     */
+    VectorRegion(File cacheFile, String regionName, File vectorFile, int dimension, VectorCacheAccess.Precision precision, HTreeMap<K, Long> index, Atomic.Var<Long> slotCountVar, boolean readOnly) {
+        this.cacheFile = cacheFile;
+        this.regionName = regionName;
+        this.vectorFile = vectorFile;
+        this.dimension = dimension;
+        this.precision = precision;
+        this.index = index;
+        this.slotCountVar = slotCountVar;
+        this.readOnly = readOnly;
+        stride = dimension * precision.getBytes();
+        slotsPerSegment = (int) Math.min(Integer.MAX_VALUE, MAX_SEGMENT_SIZE / stride);
+        if (slotsPerSegment == 0)
+            throw new IllegalArgumentException("The vector dimension " + dimension + " is too large.");
+        slotCount = slotCountVar != null && slotCountVar.get() != null ? slotCountVar.get() : 0;
+        try {
+            if (readOnly && !vectorFile.exists()) {
+                if (slotCount > 0)
+                    throw new IllegalStateException("The vector file " + vectorFile + " of cache " + cacheFile + ", region " + regionName + " is missing.");
+                channel = null;
+                return;
+            }
+            channel = readOnly ? FileChannel.open(vectorFile.toPath(), StandardOpenOption.READ) : FileChannel.open(vectorFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            initHeader();
+            if (slotCount > 0)
+                ensureMapped(slotCount - 1);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open the vector file " + vectorFile, e);
+        }
+    }
+
+    private void initHeader() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (channel.size() == 0) {
+            header.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(precision.ordinal()).rewind();
+            channel.write(header, 0);
+            return;
+        }
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < 16 || header.getInt() != MAGIC)
+            throw new IllegalStateException("The file " + vectorFile + " is not a vector file.");
+        final int version = header.getInt();
+        if (version != VERSION)
+            throw new IllegalStateException("Unsupported version " + version + " of vector file " + vectorFile + ".");
+        final int storedDimension = header.getInt();
+        final VectorCacheAccess.Precision storedPrecision = VectorCacheAccess.Precision.values()[header.getInt()];
+        if (storedDimension != dimension || storedPrecision != precision)
+            throw new IllegalArgumentException("The vector file " + vectorFile + " stores vectors of dimension " + storedDimension + " with " + storedPrecision + " precision but dimension " + dimension + " with " + precision + " precision has been requested.");
+    }
+
+    /**
+     * Maps the vector file up to and including <tt>slot</tt>. Must be called while holding the lock of this object
+     * or from the constructor.
+     */
+    private void ensureMapped(long slot) throws IOException {
+        final int segment = (int) (slot / slotsPerSegment);
+        final long requiredSize = (slot % slotsPerSegment + 1) * stride;
+        final ByteBuffer[] segments = this.segments;
+        if (segment < segments.length && segments[segment].capacity() >= requiredSize)
+            return;
+        final long segmentSize = (long) slotsPerSegment * stride;
+        final ByteBuffer[] newSegments = Arrays.copyOf(segments, Math.max(segments.length, segment + 1));
+        for (int i = 0; i <= segment; i++) {
+            long size = i < segment ? segmentSize : requiredSize;
+            // When writing, grow the mapping geometrically to avoid remapping for each slot
+            if (!readOnly && i == segment)
+                size = Math.min(segmentSize, Math.max(size, Math.max(2L * (newSegments[i] != null ? newSegments[i].capacity() : 0), (long) INITIAL_SLOTS * stride)));
+            if (newSegments[i] == null || newSegments[i].capacity() < size)
+                newSegments[i] = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, HEADER_SIZE + i * segmentSize, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        this.segments = newSegments;
+    }
+
+    int getDimension() {
+        return dimension;
+    }
+
+    VectorCacheAccess.Precision getPrecision() {
+        return precision;
+    }
+
+    boolean isReadOnly() {
+        return readOnly;
+    }
+
+    synchronized long getNumVectors() {
+        return slotCount;
+    }
+
+    /**
+     * @return A view of the vector stored for <tt>key</tt> or <tt>null</tt> if there is none.
+     */
+    VectorView getView(K key) {
+        final Long slot = index.get(key);
+        if (slot == null)
+            return null;
+        final ByteBuffer[] segments = this.segments;
+        return new VectorView(segments[(int) (slot / slotsPerSegment)], (int) (slot % slotsPerSegment) * stride, dimension, precision);
+    }
+
+    /**
+     * Stores the vector in the slot of <tt>key</tt>, allocating a new slot if the key is new.
+     */
+    void put(K key, float[] vector) {
+        Long slot = index.get(key);
+        if (slot == null) {
+            synchronized (this) {
+                slot = index.get(key);
+                if (slot == null) {
+                    slot = slotCount;
+                    try {
+                        ensureMapped(slot);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Could not extend the vector file " + vectorFile, e);
+                    }
+                    write(slot, vector);
+                    slotCountVar.set(++slotCount);
+                    // The slot is published after the vector has been written
+                    index.put(key, slot);
+                    return;
+                }
+            }
+        }
+        write(slot, vector);
+    }
+
+    private void write(long slot, float[] vector) {
+        final ByteBuffer segment = segments[(int) (slot / slotsPerSegment)];
+        final int offset = (int) (slot % slotsPerSegment) * stride;
+        if (precision == VectorCacheAccess.Precision.HALF) {
+            for (int i = 0; i < dimension; i++)
+                segment.putShort(offset + 2 * i, VectorCacheAccess.floatToHalf(vector[i]));
+        } else {
+            for (int i = 0; i < dimension; i++)
+                segment.putFloat(offset + 4 * i, vector[i]);
+        }
+    }
+
+    /**
+     * Writes the mapped vectors to disk. Must be called before the index is committed.
+     */
+    void force() {
+        if (readOnly)
+            return;
+        synchronized (this) {
+            for (ByteBuffer segment : segments)
+                ((MappedByteBuffer) segment).force();
+        }
+    }
+
+    /**
+     * Registers another access to the region.
+     */
+    void retain() {
+        ++numAccesses;
+    }
+
+    /**
+     * Unregisters an access to the region and closes the region if it was the last one.
+     *
+     * @return Whether the region has been closed.
+     */
+    boolean release() {
+        if (--numAccesses > 0)
+            return false;
+        close();
+        return true;
+    }
+
+    boolean isClosed() {
+        return closed || index.isClosed();
+    }
+
+    /**
+     * Closes the index and the vector file. Views obtained before must not be used anymore.
+     */
+    void close() {
+        closed = true;
+        index.close();
+        try {
+            if (channel != null)
+                channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close the vector file {} of cache {}, region {}: {}", vectorFile, cacheFile, regionName, e.getMessage());
+        }
+    }
+}
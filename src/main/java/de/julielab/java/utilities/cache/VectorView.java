@@ -0,0 +1,78 @@
+package de.julielab.java.utilities.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>A read-only view of a vector in the memory mapped file of a {@link VectorCacheAccess}.</p>
+ * <p>The view does not copy the vector. It reads the components from the mapped file on each access and thus
+ * reflects later puts of the same key. A view must not be used after the cache has been closed.</p>
+ */
+public class VectorView {
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int dimension;
+    private final VectorCacheAccess.Precision precision;
+
+    VectorView(ByteBuffer buffer, int offset, int dimension, VectorCacheAccess.Precision precision) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.dimension = dimension;
+        this.precision = precision;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @param i The index of the component.
+     * @return The component at index <tt>i</tt>.
+     */
+    public float get(int i) {
+        if (i < 0 || i >= dimension)
+            throw new IndexOutOfBoundsException("Index " + i + " is out of bounds for a vector of dimension " + dimension + ".");
+        if (precision == VectorCacheAccess.Precision.HALF)
+            return VectorCacheAccess.halfToFloat(buffer.getShort(offset + 2 * i));
+        return buffer.getFloat(offset + 4 * i);
+    }
+
+    /**
+     * @param other A vector of the same dimension.
+     * @return The dot product of this vector and <tt>other</tt>.
+     */
+    public double dot(float[] other) {
+        if (other.length != dimension)
+            throw new IllegalArgumentException("Cannot compute the dot product of vectors with dimensions " + dimension + " and " + other.length + ".");
+        double sum = 0;
+        if (precision == VectorCacheAccess.Precision.HALF) {
+            for (int i = 0; i < dimension; i++)
+                sum += VectorCacheAccess.halfToFloat(buffer.getShort(offset + 2 * i)) * other[i];
+        } else {
+            for (int i = 0; i < dimension; i++)
+                sum += buffer.getFloat(offset + 4 * i) * other[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return A copy of the vector.
+     */
+    public float[] toArray() {
+        final float[] vector = new float[dimension];
+        copyTo(vector);
+        return vector;
+    }
+
+    /**
+     * Copies the vector into <tt>target</tt> which must have at least the dimension of the vector.
+     */
+    public void copyTo(float[] target) {
+        if (precision == VectorCacheAccess.Precision.HALF) {
+            for (int i = 0; i < dimension; i++)
+                target[i] = VectorCacheAccess.halfToFloat(buffer.getShort(offset + 2 * i));
+        } else {
+            for (int i = 0; i < dimension; i++)
+                target[i] = buffer.getFloat(offset + 4 * i);
+        }
+    }
+}
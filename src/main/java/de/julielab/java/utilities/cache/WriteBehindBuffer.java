@@ -0,0 +1,168 @@
+package de.julielab.java.utilities.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>Buffers puts to a cache map and applies them in batches in a background thread.</p>
+ * <p>Producers only pay for inserting the entry into an in-memory map. The keys of buffered entries are kept in a
+ * bounded queue; when the queue is full, {@link #put(Object, Object)} blocks until the background flusher has made
+ * room. Multiple puts of the same key before it is flushed are coalesced into a single write. Buffered values are
+ * visible via {@link #get(Object)} until they have been written to the target map.</p>
+ */
+class WriteBehindBuffer<K, V> {
+    private final static Logger log = LoggerFactory.getLogger(WriteBehindBuffer.class);
+    private final Map<K, V> target;
+    private final int batchSize;
+    private final Map<K, V> pendingValues = new ConcurrentHashMap<>();
+    private final BlockingQueue<K> pendingKeys;
+    /**
+     * Keys whose value changed while they were being flushed. Only accessed while holding the flush lock.
+     */
+    private final Set<K> requeuedKeys = new HashSet<>();
+    private final Object flushLock = new Object();
+    private final CacheMetrics metrics;
+    private final Thread flusher;
+    /**
+     * Held for reading by {@link #put(Object, Object)} and for writing by {@link #close()} so that no put enqueues
+     * its key after the final flush.
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    /**
+     * @param target    The map to eventually write the entries to.
+     * @param queueSize The maximum number of distinct keys that are buffered.
+     * @param batchSize The maximum number of entries written to the target in one <tt>putAll</tt> call.
+     * @param name      A name used for the flusher thread.
+     * @param metrics   The metrics to record the written entries to.
+     */
+    WriteBehindBuffer(Map<K, V> target, int queueSize, int batchSize, String name, CacheMetrics metrics) {
+        this.target = target;
+        this.batchSize = batchSize;
+        this.metrics = metrics;
+        pendingKeys = new ArrayBlockingQueue<>(queueSize);
+        flusher = new Thread(this::runFlusher, "WriteBehind-" + name);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Buffers the entry. Blocks while the buffer is full.
+     */
+    void put(K key, V value) {
+        closeLock.readLock().lock();
+        try {
+            if (closed)
+                throw new IllegalStateException("The write-behind buffer has already been closed.");
+            if (pendingValues.put(key, value) == null) {
+                try {
+                    pendingKeys.put(key);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    // Do not lose the value, write it directly
+                    synchronized (flushLock) {
+                        target.put(key, value);
+                        pendingValues.remove(key, value);
+                    }
+                }
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The buffered value for <tt>key</tt> or <tt>null</tt> if there is none.
+     */
+    V get(K key) {
+        return pendingValues.get(key);
+    }
+
+    /**
+     * Writes all buffered entries to the target map in the calling thread.
+     */
+    void flush() {
+        synchronized (flushLock) {
+            while (!pendingKeys.isEmpty() || !requeuedKeys.isEmpty())
+                writeBatch(null);
+        }
+    }
+
+    /**
+     * Stops the background flusher and writes the remaining entries.
+     */
+    void close() {
+        // Waits for running puts, including those blocked on a full queue which the flusher still drains
+        closeLock.writeLock().lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void runFlusher() {
+        while (!closed) {
+            try {
+                final K first = pendingKeys.take();
+                synchronized (flushLock) {
+                    writeBatch(first);
+                }
+            } catch (InterruptedException e) {
+                // Closing; the remaining entries are written by close()
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes up to {@link #batchSize} entries to the target. Must be called while holding the flush lock.
+     */
+    private void writeBatch(K first) {
+        final List<K> keys = new ArrayList<>(Math.min(batchSize, pendingKeys.size() + requeuedKeys.size() + 1));
+        if (first != null)
+            keys.add(first);
+        final Iterator<K> requeuedIt = requeuedKeys.iterator();
+        while (keys.size() < batchSize && requeuedIt.hasNext()) {
+            keys.add(requeuedIt.next());
+            requeuedIt.remove();
+        }
+        pendingKeys.drainTo(keys, batchSize - keys.size());
+        final Map<K, V> batch = new HashMap<>(keys.size() * 2);
+        for (K key : keys) {
+            final V value = pendingValues.get(key);
+            if (value != null)
+                batch.put(key, value);
+        }
+        try {
+            target.putAll(batch);
+            metrics.recordWriteBehindWrites(batch.size());
+        } catch (Exception e) {
+            log.error("Could not write {} buffered entries to the cache. The entries are discarded.", batch.size(), e);
+        }
+        for (Map.Entry<K, V> entry : batch.entrySet()) {
+            // If the value has been replaced in the meantime, the new value still needs to be written. Since its
+            // key is not in the queue anymore, we need to remember it ourselves.
+            if (!pendingValues.remove(entry.getKey(), entry.getValue()))
+                requeuedKeys.add(entry.getKey());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package de.julielab.java.utilities.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConsistentHashRingTest {
+    private static final int NUM_KEYS = 100000;
+
+    @Test
+    public void testDistribution() {
+        ConsistentHashRing<CacheNode> ring = new ConsistentHashRing<>();
+        CacheNode node1 = new CacheNode("host1", 1000);
+        CacheNode node2 = new CacheNode("host2", 1000);
+        CacheNode node3 = new CacheNode("host3", 1000, 2);
+        ring.addNode(node1, node1.getWeight());
+        ring.addNode(node2, node2.getWeight());
+        ring.addNode(node3, node3.getWeight());
+        Map<CacheNode, Integer> counts = new HashMap<>();
+        for (int i = 0; i < NUM_KEYS; i++)
+            counts.merge(ring.getNode(key(i)), 1, Integer::sum);
+        // The node with weight 2 should receive about half of the keys
+        assertThat(counts.get(node3)).isBetween((int) (NUM_KEYS * 0.4), (int) (NUM_KEYS * 0.6));
+        assertThat(counts.get(node1)).isBetween((int) (NUM_KEYS * 0.15), (int) (NUM_KEYS * 0.35));
+        assertThat(counts.get(node2)).isBetween((int) (NUM_KEYS * 0.15), (int) (NUM_KEYS * 0.35));
+    }
+
+    @Test
+    public void testAddNodeRemapsFraction() {
+        ConsistentHashRing<CacheNode> ring = new ConsistentHashRing<>();
+        for (int i = 0; i < 4; i++)
+            ring.addNode(new CacheNode("host" + i, 1000), 1);
+        CacheNode[] before = new CacheNode[NUM_KEYS];
+        for (int i = 0; i < NUM_KEYS; i++)
+            before[i] = ring.getNode(key(i));
+        CacheNode newNode = new CacheNode("host4", 1000);
+        ring.addNode(newNode, 1);
+        int moved = 0;
+        for (int i = 0; i < NUM_KEYS; i++) {
+            CacheNode after = ring.getNode(key(i));
+            if (after != before[i]) {
+                // Keys only move to the new node, never between the old nodes
+                assertThat(after).isEqualTo(newNode);
+                ++moved;
+            }
+        }
+        // About a fifth of the keys should move to the new node
+        assertThat(moved).isBetween((int) (NUM_KEYS * 0.1), (int) (NUM_KEYS * 0.3));
+    }
+
+    @Test
+    public void testCustomHashFunction() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(data -> new String(data, StandardCharsets.UTF_8).hashCode(), 10);
+        ring.addNode("node", 1);
+        assertThat(ring.getNode(key(1))).isEqualTo("node");
+        assertThat(ring.getNodes()).containsExactly("node");
+    }
+
+    private static byte[] key(int i) {
+        return ("key" + i).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,34 @@
+package de.julielab.java.utilities.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HotKeyTrackerTest {
+
+    @Test
+    public void testHotKeys() {
+        HotKeyTracker<String> tracker = new HotKeyTracker<>(100);
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            // Every tenth request is for one of three hot keys, the rest is spread over many cold keys
+            if (i % 10 == 0)
+                tracker.record("hot" + (i / 10) % 3);
+            else
+                tracker.record("cold" + random.nextInt(100000));
+        }
+        List<HotKeyTracker.HotKey<String>> hotKeys = tracker.getHotKeys(3);
+        assertThat(hotKeys).hasSize(3);
+        for (HotKeyTracker.HotKey<String> hotKey : hotKeys) {
+            assertThat(hotKey.getKey()).startsWith("hot");
+            // Each hot key has been requested about 3333 times
+            assertThat(hotKey.getCount() - hotKey.getError()).isLessThanOrEqualTo(3334);
+            assertThat(hotKey.getCount()).isGreaterThanOrEqualTo(3333);
+        }
+        tracker.reset();
+        assertThat(tracker.getHotKeys(3)).isEmpty();
+    }
+}
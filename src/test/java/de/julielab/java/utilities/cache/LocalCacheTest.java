@@ -4,10 +4,26 @@ import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.Serializer;
 
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -83,4 +99,471 @@ public class LocalCacheTest {
         }
 
     }
+
+    @Test
+    public void testGetAllPutAll() {
+        CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("testcache", "BatchTest", CacheAccess.STRING, CacheAccess.STRING);
+        Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < 20; i++)
+            entries.put("key" + i, "val" + i);
+        assertTrue(ca.putAll(entries));
+        Map<String, String> values = ca.getAll(Arrays.asList("key0", "key19", "nokey"));
+        assertEquals(2, values.size());
+        assertEquals("val0", values.get("key0"));
+        assertEquals("val19", values.get("key19"));
+        // Mixes values from the front cache with values read from the cache file in key order
+        values = ca.getAll(Arrays.asList("key19", "key5", "key12", "key0", "nokey"));
+        assertEquals(4, values.size());
+        assertEquals("val5", values.get("key5"));
+        assertEquals("val12", values.get("key12"));
+        assertEquals("val19", values.get("key19"));
+    }
+
+    @Test
+    public void testFrontCache() {
+        CacheAccess<String, List<String>> ca = CacheService.getInstance().getCacheAccess("testcache", "FrontCacheTest", CacheAccess.STRING, CacheAccess.JAVA, new CacheMapSettings(CacheMapSettings.MEM_CACHE_MAX_WEIGHT, 10000));
+        ca.put("testkey", new ArrayList<>(List.of("eins")));
+        List<String> l = ca.get("testkey");
+        // The second read is served from the front cache without deserialization
+        assertSame(l, ca.get("testkey"));
+        ca.put("testkey", new ArrayList<>(List.of("zwei")));
+        assertEquals("zwei", ca.get("testkey").get(0));
+        assertTrue(FrontCache.estimateSize("some string") > FrontCache.estimateSize("s"));
+        assertTrue(FrontCache.estimateSize(new double[100]) >= 800);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        System.setProperty(CacheMetrics.METRICS_ENABLED_PROP, "true");
+        try {
+            CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("testcache", "MetricsTest", CacheAccess.STRING, CacheAccess.STRING, 10);
+            ca.put("key", "val");
+            assertEquals("val", ca.get("key"));
+            assertEquals("val", ca.get("key"));
+            assertNull(ca.get("nokey"));
+            ca.commit();
+            CacheMetrics metrics = ca.getMetrics();
+            assertTrue(metrics.isEnabled());
+            assertEquals(3, metrics.getGets());
+            assertEquals(1, metrics.getFrontCacheHits());
+            assertEquals(1, metrics.getBackingStoreHits());
+            assertEquals(1, metrics.getMisses());
+            assertEquals(1, metrics.getPuts());
+            assertEquals(1, metrics.getCommits());
+            assertEquals(3, metrics.getGetLatency().getCount());
+            assertTrue(metrics.getGetLatency().getPercentileMicros(50) <= metrics.getGetLatency().getMaxMicros());
+            ObjectName name = new ObjectName("de.julielab.java.utilities.cache:type=CacheMetrics,cacheId=\"testcache\",region=\"MetricsTest\"");
+            assertEquals(3L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Gets"));
+        } finally {
+            System.clearProperty(CacheMetrics.METRICS_ENABLED_PROP);
+        }
+        assertFalse(CacheService.getInstance().getCacheAccess("testcache", "MetricsTest2", CacheAccess.STRING, CacheAccess.STRING).getMetrics().isEnabled());
+    }
+
+    @Test
+    public void testWriteBehind() {
+        CacheMapSettings settings = new CacheMapSettings(CacheMapSettings.WRITE_BEHIND_QUEUE_SIZE, 10, CacheMapSettings.WRITE_BEHIND_BATCH_SIZE, 3);
+        CacheAccess<String, String> cacheAccess = CacheService.getInstance().getCacheAccess("testcache", "WriteBehindTest", CacheAccess.STRING, CacheAccess.STRING, settings);
+        LocalFileCacheAccess<String, String> ca = (LocalFileCacheAccess<String, String>) cacheAccess;
+        // More entries than fit into the queue so that the producer has to wait for the flusher
+        for (int i = 0; i < 100; i++)
+            ca.put("key" + i, "val" + i);
+        ca.put("key0", "newval");
+        // Buffered values must be visible before they are flushed
+        assertEquals("newval", ca.get("key0"));
+        assertEquals("val99", ca.get("key99"));
+        // Other accesses to the region share the buffer
+        CacheAccess<String, String> other = CacheService.getInstance().getCacheAccess("testcache", "WriteBehindTest", CacheAccess.STRING, CacheAccess.STRING, settings);
+        assertEquals("newval", other.get("key0"));
+        ca.commit();
+        for (int i = 1; i < 100; i++)
+            assertEquals("val" + i, ca.getCache().get("key" + i));
+        assertEquals("newval", ca.getCache().get("key0"));
+        ca.close();
+        // Closing one access must not close the buffer shared with the other
+        assertTrue(ca.isClosed());
+        assertFalse(other.isClosed());
+        other.put("key0", "otherval");
+        assertEquals("otherval", other.get("key0"));
+        ((LocalFileCacheAccess<String, String>) other).close();
+        assertTrue(other.isClosed());
+    }
+
+    @Test
+    public void testWriteBehindLoadRace() {
+        CacheMapSettings settings = new CacheMapSettings(CacheMapSettings.MEM_CACHE_SIZE, 10, CacheMapSettings.WRITE_BEHIND_QUEUE_SIZE, 10);
+        File cacheDir = new File("src/test/resources/localcachetest");
+        cacheDir.mkdirs();
+        File cacheFile = new File(cacheDir, "testcache");
+        Map<String, String> map = CacheService.getInstance().getBTreeCache(cacheFile, "WriteBehindRaceTest", CacheAccess.getSerializerByName(CacheAccess.STRING), CacheAccess.getSerializerByName(CacheAccess.STRING), settings);
+        map.put("key", "oldval");
+        // Simulates a put of another thread right after the reader has missed the key in the write-behind buffer
+        AtomicReference<Runnable> racingPut = new AtomicReference<>();
+        CacheService.getInstance().acquireLocalRegion(cacheFile, "WriteBehindRaceTest", () -> new LocalCacheRegion<String, String>(cacheFile, "WriteBehindRaceTest", map, CacheAccess.getSerializerByName(CacheAccess.STRING), false, settings, CacheMetrics.getMetrics("testcache", "WriteBehindRaceTest")) {
+            @Override
+            WriteBehindBuffer<String, String> createWriteBehindBuffer(Map<String, String> cache, int queueSize, int batchSize, String name, CacheMetrics metrics) {
+                return new WriteBehindBuffer<>(cache, queueSize, batchSize, name, metrics) {
+                    @Override
+                    String get(String key) {
+                        final String value = super.get(key);
+                        final Runnable put = racingPut.getAndSet(null);
+                        if (put != null)
+                            put.run();
+                        return value;
+                    }
+                };
+            }
+        });
+        CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("testcache", "WriteBehindRaceTest", CacheAccess.STRING, CacheAccess.STRING, settings);
+        racingPut.set(() -> ca.put("key", "newval"));
+        ca.get("key");
+        // The old value read from the cache file must not have been kept in the front cache
+        assertEquals("newval", ca.get("key"));
+    }
+
+    @Test
+    public void testSharedFrontCache() {
+        CacheMapSettings settings = new CacheMapSettings(CacheMapSettings.MEM_CACHE_SIZE, 10);
+        CacheAccess<String, String> ca1 = CacheService.getInstance().getCacheAccess("testcache", "SharedFrontCacheTest", CacheAccess.STRING, CacheAccess.STRING, settings);
+        CacheAccess<String, String> ca2 = CacheService.getInstance().getCacheAccess("testcache", "SharedFrontCacheTest", CacheAccess.STRING, CacheAccess.STRING, settings);
+        ca1.put("key", "val");
+        assertEquals("val", ca1.get("key"));
+        assertEquals("val", ca2.get("key"));
+        // A put through one access must not leave the old value in the front cache of the other
+        ca2.put("key", "newval");
+        assertEquals("newval", ca1.get("key"));
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("testcache", "AsyncTest", CacheAccess.STRING, CacheAccess.STRING);
+        assertTrue(ca.putAsync("asynckey", "asyncval").get(10, TimeUnit.SECONDS));
+        assertEquals("asyncval", ca.getAsync("asynckey").get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNegativeCache() {
+        CacheMapSettings settings = new CacheMapSettings(CacheMapSettings.NEGATIVE_CACHE_SIZE, 100);
+        CacheAccess<String, String> cacheAccess = CacheService.getInstance().getCacheAccess("testcache", "NegativeCacheTest", CacheAccess.STRING, CacheAccess.STRING, settings);
+        LocalFileCacheAccess<String, String> ca = (LocalFileCacheAccess<String, String>) cacheAccess;
+        assertNull(ca.get("key"));
+        // Writes bypassing the cache access are not seen while the key is remembered as missing
+        ca.getCache().put("key", "val");
+        assertNull(ca.get("key"));
+        ca.put("key", "val2");
+        assertEquals("val2", ca.get("key"));
+    }
+
+    @Test
+    public void testBloomFilter() throws Exception {
+        CacheMapSettings settings = new CacheMapSettings(CacheMapSettings.BLOOM_FILTER_EXPECTED_ENTRIES, 1000);
+        CacheAccess<String, String> cacheAccess = CacheService.getInstance().getCacheAccess("testcache", "BloomFilterTest", CacheAccess.STRING, CacheAccess.STRING, settings);
+        LocalFileCacheAccess<String, String> ca = (LocalFileCacheAccess<String, String>) cacheAccess;
+        for (int i = 0; i < 100; i++)
+            ca.put("key" + i, "val" + i);
+        ca.commit();
+        for (int i = 0; i < 100; i++)
+            assertEquals("val" + i, ca.get("key" + i));
+        assertNull(ca.get("nokey"));
+
+        BloomFilter filter = BloomFilter.create(1000, 0.01);
+        for (int i = 0; i < 1000; i++)
+            filter.add(("key" + i).getBytes());
+        BloomFilter restored = BloomFilter.fromBytes(filter.toBytes());
+        assertTrue(restored.hasParameters(1000, 0.01));
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(restored.mightContain(("key" + i).getBytes()));
+            if (restored.mightContain(("other" + i).getBytes()))
+                ++falsePositives;
+        }
+        assertTrue(falsePositives < 50);
+    }
+
+    @Test
+    public void testBloomFilterSharedByAccesses() {
+        CacheMapSettings settings = new CacheMapSettings(CacheMapSettings.BLOOM_FILTER_EXPECTED_ENTRIES, 1000);
+        CacheAccess<String, String> ca1 = CacheService.getInstance().getCacheAccess("testcache", "SharedBloomFilterTest", CacheAccess.STRING, CacheAccess.STRING, settings);
+        CacheAccess<String, String> ca2 = CacheService.getInstance().getCacheAccess("testcache", "SharedBloomFilterTest", CacheAccess.STRING, CacheAccess.STRING, settings);
+        // Keys written through one access must not be rejected by the Bloom filter of the other
+        ca1.put("key1", "val1");
+        assertEquals("val1", ca2.get("key1"));
+        ca2.put("key2", "val2");
+        assertEquals("val2", ca1.get("key2"));
+        // Neither commit may store a filter that lacks the keys written through the other access
+        ca1.commit();
+        ca2.commit();
+        // The filter is only loaded from the cache file again after the last access has been closed
+        ((LocalFileCacheAccess<String, String>) ca1).close();
+        ((LocalFileCacheAccess<String, String>) ca2).close();
+        CacheAccess<String, String> reopened = CacheService.getInstance().getCacheAccess("testcache", "SharedBloomFilterTest", CacheAccess.STRING, CacheAccess.STRING, settings);
+        assertEquals("val1", reopened.get("key1"));
+        assertEquals("val2", reopened.get("key2"));
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        CacheMapSettings settings = new CacheMapSettings(CacheMapSettings.MEM_CACHE_SIZE, 100, CacheMapSettings.ACCESS_LOG_SIZE, 10);
+        CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("testcache", "WarmUpTest", CacheAccess.STRING, CacheAccess.STRING, settings);
+        for (int i = 0; i < 20; i++)
+            ca.put("key" + i, "val" + i);
+        ca.commit();
+        for (int i = 0; i < 5; i++)
+            assertEquals("val" + i, ca.get("key" + i));
+        ca.writeAccessLog();
+        assertTrue(new File("src/test/resources/localcachetest/testcache.WarmUpTest.accesslog").exists());
+
+        CacheAccess<String, String> restarted = CacheService.getInstance().getCacheAccess("testcache", "WarmUpTest", CacheAccess.STRING, CacheAccess.STRING, settings);
+        assertEquals(5, (int) restarted.warmUp(10000).get(10, TimeUnit.SECONDS));
+        assertEquals(2, (int) restarted.warmUp(List.of("key10", "key11", "nokey"), 10000).get(10, TimeUnit.SECONDS));
+        // Without a budget, nothing is loaded
+        assertEquals(0, (int) restarted.warmUp(List.of("key12"), 0).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExportImport() throws Exception {
+        File cacheFile = new File("src/test/resources/localcachetest", "testcache");
+        CacheMapSettings htreeSettings = new CacheMapSettings(CacheMapSettings.MAP_TYPE, CacheService.CacheMapDataType.HTREE);
+        CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("testcache", "ExportTest", CacheAccess.STRING, CacheAccess.STRING, htreeSettings);
+        for (int i = 0; i < 1000; i++)
+            ca.put("key" + i, "val" + i);
+        ca.commit();
+        ByteArrayOutputStream export = new ByteArrayOutputStream();
+        assertEquals(1000, CacheRegionTransfer.exportRegion(cacheFile, "ExportTest", CacheAccess.STRING, CacheAccess.STRING, htreeSettings, export));
+
+        // A new BTree region is bulk loaded from the sorted export
+        assertEquals(1000, CacheRegionTransfer.importRegion(cacheFile, "ImportTest", new CacheMapSettings(), new ByteArrayInputStream(export.toByteArray())));
+        CacheAccess<String, String> imported = CacheService.getInstance().getCacheAccess("testcache", "ImportTest", CacheAccess.STRING, CacheAccess.STRING, new CacheMapSettings());
+        for (int i = 0; i < 1000; i++)
+            assertEquals("val" + i, imported.get("key" + i));
+        // Importing again into the existing region puts the entries
+        assertEquals(1000, CacheRegionTransfer.importRegion(cacheFile, "ImportTest", new CacheMapSettings(), new ByteArrayInputStream(export.toByteArray())));
+        assertEquals("val999", imported.get("key999"));
+
+        // Open accesses with a Bloom filter and a negative cache see the imported keys
+        CacheMapSettings bloomSettings = new CacheMapSettings(CacheMapSettings.BLOOM_FILTER_EXPECTED_ENTRIES, 2000, CacheMapSettings.NEGATIVE_CACHE_SIZE, 100);
+        CacheAccess<String, String> open = CacheService.getInstance().getCacheAccess("testcache", "ImportBloomTest", CacheAccess.STRING, CacheAccess.STRING, bloomSettings);
+        open.put("other", "val");
+        assertNull(open.get("key0"));
+        assertEquals(1000, CacheRegionTransfer.importRegion(cacheFile, "ImportBloomTest", new CacheMapSettings(), new ByteArrayInputStream(export.toByteArray())));
+        assertEquals("val0", open.get("key0"));
+
+        // The Bloom filter stored before the import must not hide the imported keys when the region is opened again
+        CacheAccess<String, String> closed = CacheService.getInstance().getCacheAccess("testcache", "ImportClosedBloomTest", CacheAccess.STRING, CacheAccess.STRING, bloomSettings);
+        closed.put("other", "val");
+        closed.commit();
+        ((LocalFileCacheAccess<String, String>) closed).close();
+        assertEquals(1000, CacheRegionTransfer.importRegion(cacheFile, "ImportClosedBloomTest", new CacheMapSettings(), new ByteArrayInputStream(export.toByteArray())));
+        CacheAccess<String, String> reopened = CacheService.getInstance().getCacheAccess("testcache", "ImportClosedBloomTest", CacheAccess.STRING, CacheAccess.STRING, bloomSettings);
+        assertEquals("val0", reopened.get("key0"));
+        assertEquals("val", reopened.get("other"));
+    }
+
+    @Test
+    public void testPrimitiveSerializers() {
+        CacheAccess<Long, float[]> vectors = CacheService.getInstance().getCacheAccess("testcache", "FloatArrayTest", CacheAccess.LONG, CacheAccess.FLOATARRAY);
+        vectors.put(42L, new float[]{1f, 2.5f});
+        assertArrayEquals(new float[]{1f, 2.5f}, vectors.get(42L));
+        assertNull(vectors.get(43L));
+
+        CacheAccess<String, long[]> ids = CacheService.getInstance().getCacheAccess("testcache", "StringDeltaTest", CacheAccess.STRING_DELTA, CacheAccess.LONGARRAY);
+        ids.put("http://example.org/a", new long[]{1, 2});
+        ids.put("http://example.org/b", new long[]{3});
+        assertArrayEquals(new long[]{3}, ids.get("http://example.org/b"));
+
+        SerializerRegistry.register("testIntArray", Serializer.INT_ARRAY);
+        CacheAccess<Integer, int[]> custom = CacheService.getInstance().getCacheAccess("testcache", "CustomSerializerTest", CacheAccess.INTEGER, "testintarray");
+        custom.put(1, new int[]{7});
+        assertArrayEquals(new int[]{7}, custom.get(1));
+        assertThrows(IllegalArgumentException.class, () -> SerializerRegistry.register("testIntArray", Serializer.LONG_ARRAY));
+    }
+
+    @Test
+    public void testVectorStore() {
+        CacheMapSettings settings = new CacheMapSettings(CacheMapSettings.MAP_TYPE, CacheService.CacheMapDataType.VECTOR, CacheMapSettings.VECTOR_DIMENSION, 3);
+        CacheAccess<String, float[]> cacheAccess = CacheService.getInstance().getCacheAccess("testcache", "VectorTest", CacheAccess.STRING, CacheAccess.FLOATARRAY, settings);
+        VectorCacheAccess<String> ca = (VectorCacheAccess<String>) cacheAccess;
+        for (int i = 0; i < 5000; i++)
+            ca.put("key" + i, new float[]{i, -i, 0.5f});
+        ca.put("key0", new float[]{1, 2, 3});
+        ca.commit();
+        assertEquals(5000, ca.getNumVectors());
+        assertArrayEquals(new float[]{1, 2, 3}, ca.get("key0"));
+        assertArrayEquals(new float[]{4999, -4999, 0.5f}, ca.get("key4999"));
+        VectorView view = ca.getView("key10");
+        assertEquals(-10f, view.get(1));
+        assertEquals(10 * 2 - 10 * 3 + 0.5 * 4, view.dot(new float[]{2, 3, 4}), 1e-6);
+        assertNull(ca.get("nokey"));
+        assertThrows(IllegalArgumentException.class, () -> ca.put("key1", new float[]{1}));
+
+        settings.put(CacheMapSettings.VECTOR_PRECISION, VectorCacheAccess.Precision.HALF);
+        CacheAccess<String, float[]> half = CacheService.getInstance().getCacheAccess("testcache", "HalfVectorTest", CacheAccess.STRING, CacheAccess.FLOATARRAY, settings);
+        half.put("key", new float[]{1.5f, -0.1f, 1000f});
+        float[] vector = half.get("key");
+        assertEquals(1.5f, vector[0]);
+        assertEquals(-0.1f, vector[1], 1e-4);
+        assertEquals(1000f, vector[2]);
+    }
+
+    @Test
+    public void testVectorStoreSharedByAccesses() {
+        CacheMapSettings settings = new CacheMapSettings(CacheMapSettings.MAP_TYPE, CacheService.CacheMapDataType.VECTOR, CacheMapSettings.VECTOR_DIMENSION, 2);
+        VectorCacheAccess<String> ca1 = (VectorCacheAccess<String>) CacheService.getInstance().<String, float[]>getCacheAccess("testcache", "SharedVectorTest", CacheAccess.STRING, CacheAccess.FLOATARRAY, settings);
+        VectorCacheAccess<String> ca2 = (VectorCacheAccess<String>) CacheService.getInstance().<String, float[]>getCacheAccess("testcache", "SharedVectorTest", CacheAccess.STRING, CacheAccess.FLOATARRAY, settings);
+        // Enough vectors to make both accesses extend the mapped file
+        for (int i = 0; i < 3000; i++) {
+            ca1.put("a" + i, new float[]{i, 1});
+            ca2.put("b" + i, new float[]{i, 2});
+        }
+        assertEquals(6000, ca1.getNumVectors());
+        assertEquals(6000, ca2.getNumVectors());
+        for (int i = 0; i < 3000; i++) {
+            assertArrayEquals(new float[]{i, 1}, ca2.get("a" + i));
+            assertArrayEquals(new float[]{i, 2}, ca1.get("b" + i));
+        }
+        assertEquals(2f, ca1.getView("b2999").get(1));
+        // Closing one access keeps the vector file open for the other
+        ca1.close();
+        assertTrue(ca1.isClosed());
+        assertFalse(ca2.isClosed());
+        ca2.put("c", new float[]{3, 3});
+        assertArrayEquals(new float[]{3, 3}, ca2.get("c"));
+        assertEquals(6001, ca2.getNumVectors());
+        // Further accesses must request the format of the region
+        settings.put(CacheMapSettings.VECTOR_DIMENSION, 3);
+        assertThrows(IllegalArgumentException.class, () -> CacheService.getInstance().getCacheAccess("testcache", "SharedVectorTest", CacheAccess.STRING, CacheAccess.FLOATARRAY, settings));
+    }
+
+    @Test
+    public void testValueCompression() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            sb.append("{\"id\": ").append(i).append(", \"text\": \"some repeated text\"}");
+        String largeValue = sb.toString();
+        byte[] dictionary = "{\"id\": , \"text\": \"some repeated text\"}".getBytes(StandardCharsets.UTF_8);
+        for (CacheService.CacheMapDataType mapType : CacheService.CacheMapDataType.values()) {
+            if (mapType == CacheService.CacheMapDataType.VECTOR || mapType == CacheService.CacheMapDataType.SNAPSHOT)
+                continue;
+            CacheMapSettings settings = new CacheMapSettings(CacheMapSettings.MAP_TYPE, mapType, CacheMapSettings.VALUE_COMPRESSION_LEVEL, 1, CacheMapSettings.VALUE_COMPRESSION_DICTIONARY, dictionary);
+            CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("testcache", "CompressionTest" + mapType, CacheAccess.STRING, CacheAccess.STRING, settings);
+            ca.put("large", largeValue);
+            ca.put("small", "val");
+            ca.commit();
+            assertEquals(largeValue, ((LocalFileCacheAccess<String, String>) ca).getCache().get("large"));
+            assertEquals("val", ((LocalFileCacheAccess<String, String>) ca).getCache().get("small"));
+        }
+
+        CompressingSerializer<String> serializer = new CompressingSerializer<>(Serializer.STRING, 1, 256, null);
+        DataOutput2 out = new DataOutput2();
+        serializer.serialize(out, largeValue);
+        assertTrue(out.pos < largeValue.length() / 4);
+        assertEquals(largeValue, serializer.deserialize(new DataInput2.ByteArray(out.copyBytes()), -1));
+    }
+
+    @Test
+    public void testConcurrentCommitsOfDifferentFiles() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<?>> writes = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            String cacheId = "concurrentcache" + i;
+            writes.add(executorService.submit(() -> {
+                CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess(cacheId, "ConcurrentCommitTest", CacheAccess.STRING, CacheAccess.STRING);
+                for (int j = 0; j < 100; j++) {
+                    ca.put("key" + j, cacheId + j);
+                    if (j % 10 == 0)
+                        ca.commit();
+                }
+                ca.commit();
+            }));
+        }
+        for (Future<?> write : writes)
+            write.get(1, TimeUnit.MINUTES);
+        executorService.shutdown();
+        for (int i = 0; i < 4; i++) {
+            CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("concurrentcache" + i, "ConcurrentCommitTest", CacheAccess.STRING, CacheAccess.STRING);
+            assertFalse(ca.isReadOnly());
+            assertEquals("concurrentcache" + i + "99", ca.get("key99"));
+        }
+    }
+
+    @Test
+    public void testAutoCommit() throws Exception {
+        BlockingQueue<File> commits = new LinkedBlockingQueue<>();
+        AutoCommitScheduler scheduler = new AutoCommitScheduler(commits::add);
+        List<String> prepared = Collections.synchronizedList(new ArrayList<>());
+        File thresholdFile = new File("thresholdcache");
+        AutoCommitScheduler.FileCommits thresholdCommits = scheduler.register(thresholdFile, () -> prepared.add("threshold"), 0, 10);
+        thresholdCommits.recordWrites(5);
+        assertNull(commits.poll(200, TimeUnit.MILLISECONDS));
+        thresholdCommits.recordWrites(5);
+        assertEquals(thresholdFile, commits.poll(10, TimeUnit.SECONDS));
+        assertEquals(List.of("threshold"), prepared);
+
+        File intervalFile = new File("intervalcache");
+        AutoCommitScheduler.FileCommits intervalCommits = scheduler.register(intervalFile, () -> prepared.add("interval"), 50, 0);
+        intervalCommits.recordWrites(1);
+        intervalCommits.recordWrites(1);
+        assertEquals(intervalFile, commits.poll(10, TimeUnit.SECONDS));
+        // Both writes are covered by a single commit
+        assertNull(commits.poll(200, TimeUnit.MILLISECONDS));
+        scheduler.shutdown();
+
+        CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("autocommitcache", "AutoCommitTest", CacheAccess.STRING, CacheAccess.STRING, new CacheMapSettings(CacheMapSettings.AUTO_COMMIT_DIRTY_ENTRIES, 1, CacheMapSettings.WRITE_BEHIND_QUEUE_SIZE, 100));
+        ca.put("key1", "value1");
+        assertEquals("value1", ca.get("key1"));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        File cacheDir = new File("src/test/resources/localcachetest");
+        CacheMapSettings btreeSettings = new CacheMapSettings(CacheMapSettings.MAP_TYPE, CacheService.CacheMapDataType.BTREE);
+        CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("testcache", "SnapshotSource", CacheAccess.STRING, CacheAccess.STRING, btreeSettings);
+        for (int i = 0; i < 1000; i++)
+            ca.put("key" + i, "val" + i);
+        ca.put("k\u00e4y", "umlaut");
+        ca.commit();
+        File snapshotFile = SnapshotCacheAccess.getSnapshotFile(cacheDir, "testcache", "SnapshotTest");
+        assertEquals(1001, CacheRegionTransfer.exportSnapshot(new File(cacheDir, "testcache"), "SnapshotSource", CacheAccess.STRING, CacheAccess.STRING, btreeSettings, snapshotFile));
+
+        CacheMapSettings snapshotSettings = new CacheMapSettings(CacheMapSettings.MAP_TYPE, CacheService.CacheMapDataType.SNAPSHOT);
+        CacheAccess<String, String> snapshot = CacheService.getInstance().getCacheAccess("testcache", "SnapshotTest", CacheAccess.STRING, CacheAccess.STRING, snapshotSettings);
+        assertTrue(snapshot.isReadOnly());
+        for (int i = 0; i < 1000; i++)
+            assertEquals("val" + i, snapshot.get("key" + i));
+        assertEquals("umlaut", snapshot.get("k\u00e4y"));
+        assertNull(snapshot.get("nokey"));
+        assertFalse(snapshot.put("key0", "other"));
+        assertThrows(IllegalStateException.class, () -> CacheService.getInstance().getCacheAccess("testcache", "SnapshotTest", CacheAccess.STRING, CacheAccess.LONG, snapshotSettings));
+    }
+
+    @Test
+    public void testGetOrCompute() throws Exception {
+        CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("testcache", "GetOrComputeTest", CacheAccess.STRING, CacheAccess.STRING);
+        AtomicInteger numComputations = new AtomicInteger();
+        CountDownLatch computing = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(executorService.submit(() -> ca.getOrCompute("key", k -> {
+                numComputations.incrementAndGet();
+                computing.countDown();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "computed";
+            })));
+        }
+        for (Future<String> result : results)
+            assertEquals("computed", result.get(10, TimeUnit.SECONDS));
+        executorService.shutdown();
+        // The threads either waited for the single computation or found its result in the cache
+        assertEquals(1, numComputations.get());
+        assertEquals("computed", ca.get("key"));
+        assertNull(ca.getOrCompute("nokey", k -> null));
+        assertThrows(IllegalArgumentException.class, () -> ca.getOrCompute("failing", k -> {
+            throw new IllegalArgumentException();
+        }));
+    }
 }
@@ -8,12 +8,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.util.Random;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class RemoteCacheTest {
     private final static Logger log = LoggerFactory.getLogger(RemoteCacheTest.class);
@@ -42,6 +51,15 @@ public class RemoteCacheTest {
         cacheServer.shutdown();
     }
 
+    /**
+     * @return A port that no socket is bound to at the moment.
+     */
+    private static int getFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
     @Test
     public void testMultithreading() throws Exception {
         ExecutorService executorService = Executors.newFixedThreadPool(10);
@@ -110,4 +128,283 @@ public class RemoteCacheTest {
         executorService.shutdown();
         executorService.awaitTermination(1, TimeUnit.MINUTES);
     }
+
+    @Test
+    public void testGetAllPutAll() {
+        CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("testcache", "RemoteBatchTest", CacheAccess.STRING, CacheAccess.STRING, 0);
+        Map<String, String> entries = new HashMap<>();
+        // More entries than fit into a single batch request
+        for (int i = 0; i < 2500; i++)
+            entries.put("key" + i, "val" + i);
+        assertThat(ca.putAll(entries)).isTrue();
+        List<String> keys = new ArrayList<>(entries.keySet());
+        keys.add("nokey");
+        Map<String, String> values = ca.getAll(keys);
+        assertThat(values).hasSize(2500).containsEntry("key0", "val0").containsEntry("key2499", "val2499").doesNotContainKey("nokey");
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("testcache", "RemoteAsyncTest", CacheAccess.STRING, CacheAccess.STRING, 0);
+        List<CompletableFuture<Boolean>> puts = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            puts.add(ca.putAsync("key" + i, "val" + i));
+        CompletableFuture.allOf(puts.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        assertThat(puts.stream().allMatch(CompletableFuture::join)).isTrue();
+        assertThat(ca.getAsync("key42").get(10, TimeUnit.SECONDS)).isEqualTo("val42");
+        assertThat(ca.getAsync("nokey").get(10, TimeUnit.SECONDS)).isNull();
+    }
+
+    @Test
+    public void testSharedConnectionPool() {
+        CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("testcache", "RemotePoolTest", CacheAccess.STRING, CacheAccess.STRING, 0);
+        CacheAccess<String, String> ca2 = CacheService.getInstance().getCacheAccess("testcache", "RemotePoolTest2", CacheAccess.STRING, CacheAccess.STRING, 0);
+        ca.put("key1", "value1");
+        ca2.put("key1", "value2");
+        ca.commit();
+        RemoteCacheConnectionPool pool = RemoteCacheConnectionPool.getPool(cacheServer.getHost(), cacheServer.getPort());
+        int numConnections = pool.getNumConnections();
+        assertThat(numConnections).isGreaterThan(0);
+        // The commit did not close the connection, the next requests are served by the same pool
+        assertThat(ca.get("key1")).isEqualTo("value1");
+        assertThat(ca2.get("key1")).isEqualTo("value2");
+        assertThat(pool.getNumConnections()).isEqualTo(numConnections);
+    }
+
+    @Test
+    public void testIdleConnectionReservation() throws Exception {
+        RemoteCacheConnection connection = new RemoteCacheConnection(cacheServer.getHost(), cacheServer.getPort());
+        // A connection handed out by the pool is not closed as idle before the request is sent
+        assertThat(connection.reserve()).isTrue();
+        assertThat(connection.closeIfIdle(TimeUnit.MINUTES.toMillis(1))).isFalse();
+        assertThat(connection.isClosed()).isFalse();
+        assertThat(connection.closeIfIdle(0)).isTrue();
+        // A caller that obtained the connection before it was closed has to use another one
+        assertThat(connection.reserve()).isFalse();
+    }
+
+    @Test
+    public void testConcurrentCommits() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(10);
+        CacheAccess<String, String> ca = CacheService.getInstance().getCacheAccess("committest", "RemoteCommitTest", CacheAccess.STRING, CacheAccess.STRING, 0);
+        List<Future<?>> commits = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int threadNum = i;
+            commits.add(executorService.submit(() -> {
+                ca.put("key" + threadNum, "value" + threadNum);
+                // The commits are coalesced into few actual commits on the server
+                ca.commit();
+            }));
+        }
+        for (Future<?> commit : commits)
+            commit.get(10, TimeUnit.SECONDS);
+        executorService.shutdown();
+        for (int i = 0; i < 10; i++)
+            assertThat(ca.get("key" + i)).isEqualTo("value" + i);
+    }
+
+    @Test
+    public void testInvalidationPush() throws Exception {
+        RemoteCacheAccess<String, String> ca = new RemoteCacheAccess<>("testcache", "RemoteInvalidationTest", CacheAccess.STRING, CacheAccess.STRING, cacheServer.getHost(), cacheServer.getPort(), 1000);
+        RemoteCacheAccess<String, String> ca2 = new RemoteCacheAccess<>("testcache", "RemoteInvalidationTest", CacheAccess.STRING, CacheAccess.STRING, cacheServer.getHost(), cacheServer.getPort(), 1000);
+        ca.put("key1", "value1");
+        assertThat(ca2.get("key1")).isEqualTo("value1");
+        // ca2 now holds the value in its front cache; the write of ca must invalidate it
+        ca.put("key1", "value2");
+        assertThat(ca2.get("key1")).isEqualTo("value2");
+
+        // A client in another JVM is simulated by a connection outside of the shared pool
+        CountDownLatch invalidated = new CountDownLatch(1);
+        AtomicReference<List<byte[]>> invalidatedKeys = new AtomicReference<>();
+        try (RemoteCacheConnection connection = new RemoteCacheConnection(cacheServer.getHost(), cacheServer.getPort(), (regionKey, keys) -> {
+            invalidatedKeys.set(keys);
+            invalidated.countDown();
+        })) {
+            connection.getHandle("testcache", "RemoteInvalidationTest", CacheAccess.STRING, CacheAccess.STRING, new CacheMapSettings());
+            ca.put("key2", "value");
+            assertThat(invalidated.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(invalidatedKeys.get()).hasSize(1);
+            assertThat(invalidatedKeys.get().get(0)).isEqualTo(CacheProtocol.serialize(CacheAccess.getSerializerByName(CacheAccess.STRING), "key2"));
+        }
+    }
+
+    @Test
+    public void testRegionSettings() {
+        CacheMapSettings settings = new CacheMapSettings(CacheMapSettings.MAX_SIZE, 10, CacheMapSettings.EXPIRE_AFTER_CREATE, true, CacheMapSettings.MEM_CACHE_SIZE, 0);
+        RemoteCacheAccess<String, String> ca = new RemoteCacheAccess<>("boundedcache", "RemoteBoundedTest", CacheAccess.STRING, CacheAccess.STRING, new CacheNode(cacheServer.getHost(), cacheServer.getPort()), settings);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ca.put("key" + i, "val" + i);
+            keys.add("key" + i);
+        }
+        // The server evicts entries beyond the maximum size given by the client
+        assertThat(ca.getAll(keys).size()).isLessThan(100);
+
+        RemoteCacheAccess<String, String> btree = new RemoteCacheAccess<>("boundedcache", "RemoteBTreeTest", CacheAccess.STRING, CacheAccess.STRING, new CacheNode(cacheServer.getHost(), cacheServer.getPort()), new CacheMapSettings(CacheMapSettings.MAP_TYPE, CacheService.CacheMapDataType.BTREE, CacheMapSettings.VALUE_COMPRESSION_LEVEL, 1));
+        btree.put("key1", "value1");
+        assertThat(btree.get("key1")).isEqualTo("value1");
+    }
+
+    @Test
+    public void testTieredCache() {
+        File localCacheDir = new File("src/test/resources/remotecachetest", "tiered");
+        List<CacheNode> nodes = List.of(new CacheNode(cacheServer.getHost(), cacheServer.getPort()));
+        RemoteCacheAccess<String, String> server = new RemoteCacheAccess<>("tieredcache", "TieredTest", CacheAccess.STRING, CacheAccess.STRING, nodes.get(0), new CacheMapSettings());
+        server.put("remoteKey", "remoteValue");
+        TieredCacheAccess<String, String> ca = new TieredCacheAccess<>("tieredcache", "TieredTest", CacheAccess.STRING, CacheAccess.STRING, localCacheDir, nodes, ConsistentHashRing.HashFunction.MURMUR64, new CacheMapSettings(CacheMapSettings.MEM_CACHE_SIZE, 100));
+        // Values found on the server are promoted to the local cache file
+        assertThat(ca.getLocalTier().getCache()).doesNotContainKey("remoteKey");
+        assertThat(ca.get("remoteKey")).isEqualTo("remoteValue");
+        assertThat(ca.getLocalTier().getCache()).containsEntry("remoteKey", "remoteValue");
+        // Puts are written through to the server
+        ca.put("key1", "value1");
+        assertThat(ca.getLocalTier().getCache()).containsEntry("key1", "value1");
+        assertThat(server.get("key1")).isEqualTo("value1");
+        server.put("key2", "value2");
+        assertThat(ca.getAll(List.of("key1", "key2", "nokey"))).containsOnlyKeys("key1", "key2");
+        assertThat(ca.getLocalTier().getCache()).containsKey("key2");
+        ca.commit();
+    }
+
+    @Test
+    public void testGetOrCompute() throws Exception {
+        CacheNode node = new CacheNode(cacheServer.getHost(), cacheServer.getPort());
+        // Two clients without a front cache that coordinate via the lock on the server
+        RemoteCacheAccess<String, String> ca1 = new RemoteCacheAccess<>("testcache", "RemoteGetOrComputeTest", CacheAccess.STRING, CacheAccess.STRING, node, new CacheMapSettings());
+        RemoteCacheAccess<String, String> ca2 = new RemoteCacheAccess<>("testcache", "RemoteGetOrComputeTest", CacheAccess.STRING, CacheAccess.STRING, node, new CacheMapSettings());
+        AtomicInteger numComputations = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        List<Future<String>> results = new ArrayList<>();
+        for (RemoteCacheAccess<String, String> ca : List.of(ca1, ca2)) {
+            results.add(executorService.submit(() -> ca.getOrCompute("key", k -> {
+                numComputations.incrementAndGet();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "computed";
+            })));
+        }
+        for (Future<String> result : results)
+            assertThat(result.get(10, TimeUnit.SECONDS)).isEqualTo("computed");
+        executorService.shutdown();
+        assertThat(numComputations.get()).isEqualTo(1);
+
+        // A failed computation releases the lock so that the next client computes the value
+        assertThatThrownBy(() -> ca1.getOrCompute("failing", k -> {
+            throw new IllegalArgumentException();
+        })).isInstanceOf(IllegalArgumentException.class);
+        assertThat(ca2.getOrCompute("failing", k -> "second")).isEqualTo("second");
+    }
+
+    @Test
+    public void testReplication() throws Exception {
+        // A leader and a follower of its own that share the cache service of the test server
+        int leaderPort = getFreePort();
+        int followerPort = getFreePort();
+        File leaderDir = new File("src/test/resources/remotecachetest", "leader");
+        File followerDir = new File("src/test/resources/remotecachetest", "follower");
+        CacheServer leader = new CacheServer(leaderDir, "localhost", leaderPort);
+        CacheServer follower = new CacheServer(followerDir, "localhost", followerPort);
+        leader.runInBackground();
+        follower.runInBackground();
+        try {
+            CacheNode leaderNode = new CacheNode("localhost", leaderPort);
+            RemoteCacheAccess<String, String> leaderAccess = new RemoteCacheAccess<>("replicatedcache", "ReplicationTest", CacheAccess.STRING, CacheAccess.STRING, leaderNode, new CacheMapSettings());
+            // Written before the follower is added, thus missing on the follower
+            leaderAccess.put("unreplicated", "leaderOnly");
+            leader.addReplicationFollower("localhost", followerPort);
+            leaderAccess.put("replicated", "value");
+
+            RemoteCacheAccess<String, String> followerAccess = new RemoteCacheAccess<>("replicatedcache", "ReplicationTest", CacheAccess.STRING, CacheAccess.STRING, new CacheNode("localhost", followerPort), new CacheMapSettings());
+            long deadline = System.currentTimeMillis() + 10000;
+            while (followerAccess.get("replicated") == null && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+            assertThat(followerAccess.get("replicated")).isEqualTo("value");
+            assertThat(followerAccess.get("unreplicated")).isNull();
+
+            // Reads are distributed over the leader and the replica; a miss on the replica is served by the leader
+            RemoteCacheAccess<String, String> ca = new RemoteCacheAccess<>("replicatedcache", "ReplicationTest", CacheAccess.STRING, CacheAccess.STRING, new CacheNode("localhost", leaderPort, 1, List.of(new CacheNode("localhost", followerPort))), new CacheMapSettings());
+            for (int i = 0; i < 200; i++) {
+                assertThat(ca.get("replicated")).isEqualTo("value");
+                assertThat(ca.get("unreplicated")).isEqualTo("leaderOnly");
+            }
+            assertThat(ca.getAll(List.of("replicated", "unreplicated", "nokey"))).containsOnlyKeys("replicated", "unreplicated");
+        } finally {
+            follower.shutdown();
+            leader.shutdown();
+        }
+    }
+
+    @Test
+    public void testGetAfterPutDoesNotJoinOlderLookup() throws Exception {
+        AtomicBoolean slowRead = new AtomicBoolean();
+        CountDownLatch readStarted = new CountDownLatch(1);
+        CountDownLatch releaseRead = new CountDownLatch(1);
+        int port = getFreePort();
+        // Blocks a read of the old value until the test releases it
+        CacheServer server = new CacheServer(new File("src/test/resources/remotecachetest", "coalescing"), "localhost", port, 4) {
+            @Override
+            Object readValue(Map<Object, Object> cache, Object key) {
+                final Object value = super.readValue(cache, key);
+                if (slowRead.compareAndSet(true, false)) {
+                    readStarted.countDown();
+                    try {
+                        releaseRead.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return value;
+            }
+        };
+        server.runInBackground();
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            RemoteCacheAccess<String, String> ca = new RemoteCacheAccess<>("testcache", "CoalescingTest", CacheAccess.STRING, CacheAccess.STRING, new CacheNode("localhost", port), new CacheMapSettings());
+            ca.put("key", "old");
+            slowRead.set(true);
+            Future<String> slowGet = executorService.submit(() -> ca.get("key"));
+            assertThat(readStarted.await(10, TimeUnit.SECONDS)).isTrue();
+            // Sent over other pooled connections because the slow get is pending on the first one
+            ca.put("key", "new");
+            assertThat(ca.get("key")).isEqualTo("new");
+            releaseRead.countDown();
+            assertThat(slowGet.get(10, TimeUnit.SECONDS)).isEqualTo("old");
+        } finally {
+            releaseRead.countDown();
+            executorService.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testShardedGetAllPutAll() throws Exception {
+        int port1 = getFreePort();
+        int port2 = getFreePort();
+        CacheServer server1 = new CacheServer(new File("src/test/resources/remotecachetest", "shard1"), "localhost", port1);
+        CacheServer server2 = new CacheServer(new File("src/test/resources/remotecachetest", "shard2"), "localhost", port2);
+        server1.runInBackground();
+        server2.runInBackground();
+        try {
+            List<CacheNode> nodes = List.of(new CacheNode("localhost", port1), new CacheNode("localhost", port2));
+            ShardedRemoteCacheAccess<String, String> ca = new ShardedRemoteCacheAccess<>("shardedcache", "ShardedTest", CacheAccess.STRING, CacheAccess.STRING, nodes, ConsistentHashRing.HashFunction.MURMUR64, new CacheMapSettings());
+            Map<String, String> entries = new HashMap<>();
+            for (int i = 0; i < 100; i++)
+                entries.put("key" + i, "val" + i);
+            assertThat(ca.putAll(entries)).isTrue();
+            // One batch with the keys of both servers
+            List<String> keys = new ArrayList<>(entries.keySet());
+            keys.add("nokey");
+            assertThat(ca.getAll(keys)).isEqualTo(entries);
+            Set<RemoteCacheAccess<String, String>> usedShards = new HashSet<>();
+            for (String key : entries.keySet())
+                usedShards.add(ca.getShard(key));
+            assertThat(usedShards).hasSize(2);
+        } finally {
+            server1.shutdown();
+            server2.shutdown();
+        }
+    }
 }